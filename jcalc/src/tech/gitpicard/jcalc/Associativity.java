@@ -0,0 +1,12 @@
+package tech.gitpicard.jcalc;
+
+/**
+ * Which way a chain of binary operators with the same precedence
+ * is grouped.
+ */
+public enum Associativity {
+	/** Group from the left, so {@code a - b - c} is {@code (a - b) - c}. */
+	LEFT,
+	/** Group from the right, so {@code a ^ b ^ c} is {@code a ^ (b ^ c)}. */
+	RIGHT
+}
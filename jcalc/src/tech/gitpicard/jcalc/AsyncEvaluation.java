@@ -0,0 +1,256 @@
+package tech.gitpicard.jcalc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import tech.gitpicard.jcalc.ast.ASTFolder;
+import tech.gitpicard.jcalc.ast.BinaryNode;
+import tech.gitpicard.jcalc.ast.CallNode;
+import tech.gitpicard.jcalc.ast.LiteralNode;
+import tech.gitpicard.jcalc.ast.Node;
+import tech.gitpicard.jcalc.ast.UnaryNode;
+import tech.gitpicard.jcalc.ast.VariableNode;
+
+/**
+ * One evaluation of an expression whose function calls run
+ * concurrently. Every node of the tree gets a future for its value,
+ * and each call is started as soon as the futures of its own
+ * arguments are done, without waiting for calls elsewhere in the
+ * tree. Calls that become ready together, such as every call whose
+ * arguments are known from the start or the calls waiting on the
+ * results of one batch, are started together, with the calls to the
+ * same asynchronous function sent as one batch. Identical calls are
+ * only made once.
+ */
+final class AsyncEvaluation {
+
+	// A call to a function with a particular set of arguments.
+	private static final class Key {
+		private final String function;
+		private final double[] args;
+
+		Key(String function, double[] args) {
+			this.function = function;
+			this.args = args;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return function.equals(k.function) && Arrays.equals(args, k.args);
+		}
+
+		@Override
+		public int hashCode() {
+			return function.hashCode() * 31 + Arrays.hashCode(args);
+		}
+	}
+
+	private final Node root;
+	private final VariableResolver resolver;
+	private final Map<String, Function> functions;
+	private final FunctionRegistry registry;
+	private final Map<String, AsyncFunction> asyncFunctions;
+	private final Executor executor;
+	private final HashMap<String, Double> variables;
+	// The result of every call that has been asked for.
+	private final ConcurrentHashMap<Key, CompletableFuture<Double>> results;
+	// The calls that are ready but have not been started yet.
+	private final ArrayList<Key> pending;
+
+	AsyncEvaluation(Node root, VariableResolver resolver,
+			Map<String, Function> functions, FunctionRegistry registry,
+			Map<String, AsyncFunction> asyncFunctions, Executor executor) {
+		this.root = root;
+		this.resolver = resolver;
+		this.functions = functions;
+		this.registry = registry;
+		this.asyncFunctions = asyncFunctions;
+		this.executor = executor;
+		variables = new HashMap<>();
+		results = new ConcurrentHashMap<>();
+		pending = new ArrayList<>();
+	}
+
+	// Build the futures of the tree, then start the calls that are
+	// ready from the start.
+	CompletableFuture<Double> run() {
+		CompletableFuture<Double> value;
+		try {
+			value = root.fold(new Folder());
+		}
+		catch (EvalException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		flush();
+		return value;
+	}
+
+	// Functions set on the calculator come before the registry.
+	private Function function(String name) {
+		Function f = functions.get(name);
+		if (f == null && registry != null)
+			f = registry.get(name);
+		return f;
+	}
+
+	// Ask for a call whose arguments are known. It is started by the
+	// next flush on the same thread, which always follows.
+	private CompletableFuture<Double> call(Key key) {
+		CompletableFuture<Double> result = new CompletableFuture<>();
+		CompletableFuture<Double> old = results.putIfAbsent(key, result);
+		if (old != null)
+			return old;
+		synchronized (pending) {
+			pending.add(key);
+		}
+		return result;
+	}
+
+	// Start every call that is ready, one batch for each function.
+	private void flush() {
+		LinkedHashMap<String, List<Key>> batches = new LinkedHashMap<>();
+		synchronized (pending) {
+			for (Key k : pending)
+				batches.computeIfAbsent(k.function,
+						(n) -> new ArrayList<>()).add(k);
+			pending.clear();
+		}
+		for (Map.Entry<String, List<Key>> e : batches.entrySet())
+			start(e.getKey(), e.getValue());
+	}
+
+	private void start(String name, List<Key> calls) {
+		AsyncFunction async = asyncFunctions.get(name);
+		if (async == null) {
+			blocking(function(name), calls);
+			return;
+		}
+
+		CompletableFuture<double[]> batch;
+		try {
+			double[][] args = new double[calls.size()][];
+			for (int i = 0; i < args.length; i++)
+				args[i] = calls.get(i).args;
+			batch = async.callAll(args);
+		}
+		catch (RuntimeException e) {
+			batch = CompletableFuture.failedFuture(e);
+		}
+		batch.whenComplete((r, e) -> {
+			Throwable failure = e;
+			if (failure == null && (r == null || r.length != calls.size()))
+				failure = new EvalException("Function '" + name +
+						"' gave the wrong number of results.");
+			for (int i = 0; i < calls.size(); i++) {
+				CompletableFuture<Double> result = results.get(calls.get(i));
+				if (failure != null)
+					result.completeExceptionally(failure);
+				else
+					result.complete(r[i]);
+			}
+			// Completing the results runs the nodes waiting on them,
+			// which ask for the calls that are now ready.
+			flush();
+		});
+	}
+
+	// Ordinary functions may block, so each call gets its own task
+	// and is finished on its own.
+	private void blocking(Function f, List<Key> calls) {
+		for (Key k : calls) {
+			CompletableFuture<Double> result = results.get(k);
+			try {
+				CompletableFuture.supplyAsync(() -> {
+					try {
+						return f.call(k.args);
+					}
+					catch (EvalException e) {
+						throw new CompletionException(e);
+					}
+				}, executor).whenComplete((r, e) -> {
+					if (e != null)
+						result.completeExceptionally(e);
+					else
+						result.complete(r);
+					flush();
+				});
+			}
+			catch (RuntimeException e) {
+				result.completeExceptionally(e);
+			}
+		}
+	}
+
+	// Builds the future of each node from the futures of its children.
+	private final class Folder
+			implements ASTFolder<CompletableFuture<Double>> {
+		@Override
+		public CompletableFuture<Double> fold(BinaryNode node,
+				CompletableFuture<Double> left, CompletableFuture<Double> right) {
+			int op = Program.opcode(node.getOperation());
+			return left.thenCombine(right, (x, y) -> {
+				try {
+					return Program.binary(op, x, y);
+				}
+				catch (EvalException e) {
+					throw new CompletionException(e);
+				}
+			});
+		}
+
+		@Override
+		public CompletableFuture<Double> fold(UnaryNode node,
+				CompletableFuture<Double> right) throws EvalException {
+			if (node.getOperation() == Operation.NEGATE)
+				return right.thenApply((x) -> -x);
+			else if (node.getOperation() == Operation.NOT)
+				return right.thenApply((x) -> x == 0.0 ? 1.0 : 0.0);
+			throw new EvalException("Illegal unary operation.");
+		}
+
+		@Override
+		public CompletableFuture<Double> fold(LiteralNode node) {
+			return CompletableFuture.completedFuture(node.getValue());
+		}
+
+		@Override
+		public CompletableFuture<Double> fold(VariableNode node)
+				throws EvalException {
+			// Each variable is only resolved once.
+			String name = node.getIdentifer();
+			Double value = variables.get(name);
+			if (value == null) {
+				value = resolver.resolve(name);
+				variables.put(name, value);
+			}
+			return CompletableFuture.completedFuture(value);
+		}
+
+		@Override
+		public CompletableFuture<Double> fold(CallNode node,
+				List<CompletableFuture<Double>> args) throws EvalException {
+			String name = node.getFunction();
+			if (function(name) == null)
+				throw new EvalException("No function '" + name + "' found.");
+			CompletableFuture<?>[] all =
+					args.toArray(new CompletableFuture<?>[args.size()]);
+			return CompletableFuture.allOf(all).thenCompose((v) -> {
+				double[] values = new double[all.length];
+				for (int i = 0; i < values.length; i++)
+					values[i] = args.get(i).join();
+				return call(new Key(name, values));
+			});
+		}
+	}
+}
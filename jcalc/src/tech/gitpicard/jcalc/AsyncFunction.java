@@ -0,0 +1,40 @@
+package tech.gitpicard.jcalc;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Implement a call to a function that returns its result later,
+ * such as a lookup in a remote store. Calls to asynchronous
+ * functions that do not depend on each other run at the same
+ * time when an expression is evaluated with
+ * {@link JCalculator#evalAsync}.
+ */
+public interface AsyncFunction {
+	/**
+	 * Start a call with the arguments passed by the expression.
+	 * @param args The arguments passed by the expression.
+	 * @return The result, or a failure with an {@link EvalException}
+	 * when the function has a runtime error.
+	 */
+	CompletableFuture<Double> call(double[] args);
+
+	/**
+	 * Start several calls at once. Override this to send them as a
+	 * single request. By default each call is started on its own.
+	 * @param args The arguments of each call.
+	 * @return The result of each call, in the same order.
+	 */
+	default CompletableFuture<double[]> callAll(double[][] args) {
+		ArrayList<CompletableFuture<Double>> calls = new ArrayList<>();
+		for (double[] a : args)
+			calls.add(call(a));
+		return CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0]))
+				.thenApply((v) -> {
+					double[] results = new double[calls.size()];
+					for (int i = 0; i < results.length; i++)
+						results[i] = calls.get(i).join();
+					return results;
+				});
+	}
+}
@@ -0,0 +1,262 @@
+package tech.gitpicard.jcalc;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import tech.gitpicard.jcalc.ast.ASTFolder;
+import tech.gitpicard.jcalc.ast.BinaryNode;
+import tech.gitpicard.jcalc.ast.CallNode;
+import tech.gitpicard.jcalc.ast.LiteralNode;
+import tech.gitpicard.jcalc.ast.Node;
+import tech.gitpicard.jcalc.ast.UnaryNode;
+import tech.gitpicard.jcalc.ast.VariableNode;
+
+/**
+ * A tree rewritten into a standard shape, so that expressions that
+ * only differ in how they were written, such as {@code a*b+c} and
+ * {@code c + b*a}, end up the same. Two canonical forms are equal
+ * when their trees are, and every form has a 64 bit hash of its tree
+ * that is the same on every run, so it can be stored with the
+ * expression.
+ * <p>
+ * The operands of {@code +}, {@code *}, {@code =}, {@code !=},
+ * {@code &} and {@code |} are put in a fixed order, {@code >} and
+ * {@code >=} are turned around into {@code <} and {@code <=}, negated
+ * literals become negative literals, and every NaN becomes the same
+ * NaN. These give the same result for every double. Chains are not
+ * regrouped, since {@code (a + b) + c} and {@code a + (b + c)} can
+ * round differently. Functions are assumed to always give the same
+ * result for the same arguments, since reordering operands changes
+ * the order they are called in.
+ */
+public final class CanonicalForm {
+
+	private final Node tree;
+	private final long hash;
+
+	private CanonicalForm(Node tree, long hash) {
+		this.tree = tree;
+		this.hash = hash;
+	}
+
+	/**
+	 * Rewrite a tree into its canonical form. The tree is walked with
+	 * an explicit stack so that very deep trees can be rewritten.
+	 * @param root The root of the tree.
+	 * @return The canonical form.
+	 */
+	public static CanonicalForm of(Node root) {
+		if (root == null)
+			throw new IllegalArgumentException("root");
+		Canonicalizer c = new Canonicalizer();
+		try {
+			Node tree = root.fold(c);
+			return new CanonicalForm(tree, c.hashes.get(tree));
+		}
+		catch (EvalException e) {
+			// Rewriting never evaluates anything.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Get the rewritten tree, which evaluates to the same value as the
+	 * original.
+	 * @return The root of the tree.
+	 */
+	public Node getTree() {
+		return tree;
+	}
+
+	/**
+	 * Get the hash of the tree. It only depends on the shape of the
+	 * tree, the names in it and the values of its literals.
+	 * @return The structural hash.
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (hash ^ (hash >>> 32));
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o == this)
+			return true;
+		if (!(o instanceof CanonicalForm))
+			return false;
+		CanonicalForm other = (CanonicalForm) o;
+		return hash == other.hash && same(tree, other.tree);
+	}
+
+	// Compare two trees node by node without recursing.
+	private static boolean same(Node a, Node b) {
+		ArrayDeque<Node> work = new ArrayDeque<>();
+		work.push(a);
+		work.push(b);
+		while (!work.isEmpty()) {
+			Node y = work.pop();
+			Node x = work.pop();
+			if (x == y)
+				continue;
+			if (x instanceof LiteralNode && y instanceof LiteralNode) {
+				if (Double.doubleToLongBits(((LiteralNode) x).getValue()) !=
+						Double.doubleToLongBits(((LiteralNode) y).getValue()))
+					return false;
+			}
+			else if (x instanceof VariableNode && y instanceof VariableNode) {
+				if (!((VariableNode) x).getIdentifer().equals(
+						((VariableNode) y).getIdentifer()))
+					return false;
+			}
+			else if (x instanceof UnaryNode && y instanceof UnaryNode) {
+				UnaryNode u = (UnaryNode) x;
+				UnaryNode v = (UnaryNode) y;
+				if (u.getOperation() != v.getOperation())
+					return false;
+				work.push(u.getRight());
+				work.push(v.getRight());
+			}
+			else if (x instanceof BinaryNode && y instanceof BinaryNode) {
+				BinaryNode u = (BinaryNode) x;
+				BinaryNode v = (BinaryNode) y;
+				if (u.getOperation() != v.getOperation())
+					return false;
+				work.push(u.getLeft());
+				work.push(v.getLeft());
+				work.push(u.getRight());
+				work.push(v.getRight());
+			}
+			else if (x instanceof CallNode && y instanceof CallNode) {
+				CallNode u = (CallNode) x;
+				CallNode v = (CallNode) y;
+				if (!u.getFunction().equals(v.getFunction()) ||
+						u.getArguments().length != v.getArguments().length)
+					return false;
+				for (int i = 0; i < u.getArguments().length; i++) {
+					work.push(u.getArguments()[i]);
+					work.push(v.getArguments()[i]);
+				}
+			}
+			else
+				return false;
+		}
+		return true;
+	}
+
+	// Rebuilds the tree bottom up, keeping the hash of every node it
+	// returns so that operands can be ordered by it.
+	private static final class Canonicalizer implements ASTFolder<Node> {
+		private final IdentityHashMap<Node, Long> hashes =
+				new IdentityHashMap<>();
+
+		private Node keep(Node node, long hash) {
+			hashes.put(node, finish(hash));
+			return node;
+		}
+
+		@Override
+		public Node fold(BinaryNode node, Node left, Node right) {
+			Operation op = node.getOperation();
+			boolean swap = false;
+			switch (op) {
+			case GREATER:
+				op = Operation.LESS;
+				swap = true;
+				break;
+			case GREATER_OR_EQLS:
+				op = Operation.LESS_OR_EQLS;
+				swap = true;
+				break;
+			case ADD:
+			case MULT:
+			case EQLS:
+			case NOT_EQLS:
+			case AND:
+			case OR:
+				swap = Long.compareUnsigned(hashes.get(left),
+						hashes.get(right)) > 0;
+				break;
+			default:
+				break;
+			}
+			if (swap) {
+				Node t = left;
+				left = right;
+				right = t;
+			}
+			if (op != node.getOperation() || left != node.getLeft() ||
+					right != node.getRight())
+				node = new BinaryNode(left, op, right);
+			return keep(node, mix(mix(mix(3, text(op.name())),
+					hashes.get(left)), hashes.get(right)));
+		}
+
+		@Override
+		public Node fold(UnaryNode node, Node right) {
+			if (node.getOperation() == Operation.NEGATE &&
+					right instanceof LiteralNode)
+				return fold(new LiteralNode(-((LiteralNode) right).getValue()));
+			if (right != node.getRight())
+				node = new UnaryNode(node.getOperation(), right);
+			return keep(node, mix(mix(4, text(node.getOperation().name())),
+					hashes.get(right)));
+		}
+
+		@Override
+		public Node fold(LiteralNode node) {
+			double d = node.getValue();
+			if (Double.isNaN(d) &&
+					Double.doubleToRawLongBits(d) !=
+					Double.doubleToRawLongBits(Double.NaN))
+				node = new LiteralNode(Double.NaN);
+			return keep(node, mix(1, Double.doubleToLongBits(d)));
+		}
+
+		@Override
+		public Node fold(VariableNode node) {
+			return keep(node, mix(2, text(node.getIdentifer())));
+		}
+
+		@Override
+		public Node fold(CallNode node, List<Node> args) {
+			Node[] old = node.getArguments();
+			boolean changed = false;
+			long h = mix(mix(5, text(node.getFunction())), args.size());
+			for (int i = 0; i < old.length; i++) {
+				changed |= args.get(i) != old[i];
+				h = mix(h, hashes.get(args.get(i)));
+			}
+			if (changed)
+				node = new CallNode(node.getFunction(),
+						args.toArray(new Node[args.size()]));
+			return keep(node, h);
+		}
+	}
+
+	// Hashing that does not depend on anything that can change
+	// between runs, such as identity hash codes or enum order.
+	private static long mix(long h, long x) {
+		h = (h ^ x) * 0x9E3779B97F4A7C15L;
+		return h ^ (h >>> 32);
+	}
+
+	private static long finish(long h) {
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		return h ^ (h >>> 33);
+	}
+
+	private static long text(String s) {
+		long h = 0xCBF29CE484222325L;
+		for (int i = 0; i < s.length(); i++)
+			h = (h ^ s.charAt(i)) * 0x100000001B3L;
+		return h;
+	}
+}
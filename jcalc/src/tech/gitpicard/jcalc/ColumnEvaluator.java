@@ -0,0 +1,397 @@
+package tech.gitpicard.jcalc;
+
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Evaluates a compiled program once for every row of columns held in
+ * buffers, writing each result to an output buffer. The buffers can
+ * be direct or views of memory mapped files, and values are read and
+ * written in place, so the data is never copied onto the heap.
+ * <p>
+ * Each column is read starting at an offset and stepping by a
+ * stride, both counted in doubles, which covers both a separate
+ * buffer per column and rows laid out one after another in a single
+ * buffer. Bytes can be read as doubles through
+ * {@link java.nio.ByteBuffer#asDoubleBuffer()} after setting their
+ * byte order. Variables that are not columns are taken from the
+ * calculator or its resolver, along with the functions, when the
+ * rows are run.
+ * <p>
+ * Instead of writing every result, {@link #top(int, int)} keeps only
+ * the rows with the highest results, for ranking many candidates
+ * with a scoring formula.
+ */
+public final class ColumnEvaluator {
+
+	// Where the values of one variable are found.
+	private static final class Column {
+		final DoubleBuffer buffer;
+		final int offset;
+		final int stride;
+
+		Column(DoubleBuffer buffer, int offset, int stride) {
+			this.buffer = buffer;
+			this.offset = offset;
+			this.stride = stride;
+		}
+	}
+
+	private final JCalculator env;
+	private final Program program;
+	private final HashMap<String, Column> columns;
+
+	/**
+	 * Create an evaluator with no columns.
+	 * @param env The calculator to take functions and the variables
+	 * that are not columns from.
+	 * @param program The program to run for every row.
+	 */
+	public ColumnEvaluator(JCalculator env, Program program) {
+		if (env == null)
+			throw new IllegalArgumentException("env");
+		if (program == null)
+			throw new IllegalArgumentException("program");
+		this.env = env;
+		this.program = program;
+		columns = new HashMap<>();
+	}
+
+	/**
+	 * Get the program run for every row.
+	 * @return The compiled program.
+	 */
+	public Program getProgram() {
+		return program;
+	}
+
+	/**
+	 * Read a variable from a buffer holding one value for each row.
+	 * @param name The name of the variable.
+	 * @param column The values, starting at index zero.
+	 */
+	public void setColumn(String name, DoubleBuffer column) {
+		setColumn(name, column, 0, 1);
+	}
+
+	/**
+	 * Read a variable from a buffer, such as one field of rows that
+	 * are stored one after another.
+	 * @param name The name of the variable.
+	 * @param column The buffer holding the values.
+	 * @param offset The index of the value for the first row.
+	 * @param stride How far apart the values of two rows are.
+	 */
+	public void setColumn(String name, DoubleBuffer column, int offset,
+			int stride) {
+		if (name == null)
+			throw new IllegalArgumentException("name");
+		if (column == null)
+			throw new IllegalArgumentException("column");
+		if (offset < 0)
+			throw new IllegalArgumentException("offset");
+		if (stride < 1)
+			throw new IllegalArgumentException("stride");
+		columns.put(name, new Column(column, offset, stride));
+	}
+
+	/**
+	 * Stop reading a variable from a buffer.
+	 * @param name The name of the variable.
+	 */
+	public void removeColumn(String name) {
+		columns.remove(name);
+	}
+
+	/**
+	 * Checks to see if a variable is read from a buffer.
+	 * @param name The name of the variable.
+	 * @return True if it is a column.
+	 */
+	public boolean isColumn(String name) {
+		return columns.containsKey(name);
+	}
+
+	/**
+	 * Run the program for every row, writing the results to a buffer
+	 * holding one value for each row.
+	 * @param out Where the results are written, starting at index
+	 * zero.
+	 * @param rows The number of rows.
+	 * @throws EvalException When there is a runtime evaluation error.
+	 */
+	public void run(DoubleBuffer out, int rows) throws EvalException {
+		run(out, 0, 1, rows);
+	}
+
+	/**
+	 * Run the program for every row. When a row fails, the rows
+	 * before it have already been written.
+	 * @param out Where the results are written.
+	 * @param offset The index of the result of the first row.
+	 * @param stride How far apart the results of two rows are.
+	 * @param rows The number of rows.
+	 * @throws EvalException When there is a runtime evaluation error,
+	 * or a variable that is not a column or a function is not defined
+	 * by the calculator.
+	 */
+	public void run(DoubleBuffer out, int offset, int stride, int rows)
+			throws EvalException {
+		if (out == null || out.isReadOnly())
+			throw new IllegalArgumentException("out");
+		if (offset < 0)
+			throw new IllegalArgumentException("offset");
+		if (stride < 1)
+			throw new IllegalArgumentException("stride");
+		if (rows < 0 || !fits(out, offset, stride, rows))
+			throw new IllegalArgumentException("rows");
+
+		Bound bound = bind(rows);
+		double[] vars = bound.vars.clone();
+		double[] stack = new double[program.stackSize()];
+		long[] ints = new long[program.longStackSize()];
+		for (int row = 0; row < rows; row++)
+			out.put(offset + row * stride,
+					bound.score(row, vars, stack, ints));
+	}
+
+	/**
+	 * Run the program for every row and keep the rows with the highest
+	 * results, such as the best candidates for a scoring formula. Only
+	 * the best rows so far are kept while running, never every result.
+	 * Rows that give NaN are left out.
+	 * @param k How many rows to keep.
+	 * @param rows The number of rows.
+	 * @return The best rows, highest first.
+	 * @throws EvalException When there is a runtime evaluation error,
+	 * or a variable that is not a column or a function is not defined
+	 * by the calculator.
+	 */
+	public Ranking top(int k, int rows) throws EvalException {
+		if (k < 0)
+			throw new IllegalArgumentException("k");
+		if (rows < 0)
+			throw new IllegalArgumentException("rows");
+		Bound bound = bind(rows);
+		return bound.top(k, 0, rows).ranking();
+	}
+
+	/**
+	 * Keep the rows with the highest results, splitting the rows
+	 * between workers that each keep their own best rows. The best
+	 * rows of the workers are merged in pairs as they finish. The
+	 * functions must be safe to call from many threads at once.
+	 * @param k How many rows to keep.
+	 * @param rows The number of rows.
+	 * @param executor Runs the workers.
+	 * @param workers How many parts to split the rows into.
+	 * @return The best rows, highest first.
+	 * @throws EvalException When there is a runtime evaluation error,
+	 * or a variable that is not a column or a function is not defined
+	 * by the calculator.
+	 */
+	public Ranking top(int k, int rows, Executor executor, int workers)
+			throws EvalException {
+		if (k < 0)
+			throw new IllegalArgumentException("k");
+		if (rows < 0)
+			throw new IllegalArgumentException("rows");
+		if (executor == null)
+			throw new IllegalArgumentException("executor");
+		if (workers < 1)
+			throw new IllegalArgumentException("workers");
+		Bound bound = bind(rows);
+
+		ArrayList<CompletableFuture<Best>> parts = new ArrayList<>();
+		for (int w = 0; w < workers; w++) {
+			int from = (int) ((long) rows * w / workers);
+			int to = (int) ((long) rows * (w + 1) / workers);
+			parts.add(CompletableFuture.supplyAsync(() -> {
+				try {
+					return bound.top(k, from, to);
+				}
+				catch (EvalException e) {
+					throw new CompletionException(e);
+				}
+			}, executor));
+		}
+		// Merge neighbours until one is left, so that merges run as
+		// soon as both of their halves are done.
+		while (parts.size() > 1) {
+			ArrayList<CompletableFuture<Best>> next = new ArrayList<>();
+			for (int i = 0; i + 1 < parts.size(); i += 2)
+				next.add(parts.get(i).thenCombineAsync(parts.get(i + 1),
+						Best::merge, executor));
+			if (parts.size() % 2 == 1)
+				next.add(parts.get(parts.size() - 1));
+			parts = next;
+		}
+		try {
+			return parts.get(0).join().ranking();
+		}
+		catch (CompletionException e) {
+			if (e.getCause() instanceof EvalException)
+				throw (EvalException) e.getCause();
+			throw e;
+		}
+	}
+
+	// The variables and functions of the program, bound for a run.
+	private final class Bound {
+		// The column feeding each variable slot, or null when the slot
+		// holds a value from the calculator.
+		final Column[] slots;
+		final double[] vars;
+		final Function[] funcs;
+
+		Bound(Column[] slots, double[] vars, Function[] funcs) {
+			this.slots = slots;
+			this.vars = vars;
+			this.funcs = funcs;
+		}
+
+		// Run one row with the caller's own arrays.
+		double score(int row, double[] vars, double[] stack, long[] ints)
+				throws EvalException {
+			for (int i = 0; i < vars.length; i++) {
+				Column c = slots[i];
+				if (c != null)
+					vars[i] = c.buffer.get(c.offset + row * c.stride);
+			}
+			return program.run(vars, funcs, stack, ints);
+		}
+
+		Best top(int k, int from, int to) throws EvalException {
+			Best best = new Best(k);
+			double[] vars = this.vars.clone();
+			double[] stack = new double[program.stackSize()];
+			long[] ints = new long[program.longStackSize()];
+			for (int row = from; row < to; row++)
+				best.offer(score(row, vars, stack, ints), row);
+			return best;
+		}
+	}
+
+	private Bound bind(int rows) throws EvalException {
+		int count = program.getVariableCount();
+		double[] vars = new double[count];
+		Column[] slots = new Column[count];
+		for (int i = 0; i < count; i++) {
+			String s = program.getVariable(i);
+			slots[i] = columns.get(s);
+			if (slots[i] != null) {
+				if (!fits(slots[i].buffer, slots[i].offset, slots[i].stride,
+						rows))
+					throw new IllegalArgumentException("rows");
+			}
+			else
+				vars[i] = env.lookup(s);
+		}
+		return new Bound(slots, vars, env.bindFunctions(program));
+	}
+
+	// The best rows seen so far, as a heap with the worst of them on
+	// top so it can be replaced by a better one.
+	private static final class Best {
+		final double[] scores;
+		final int[] rows;
+		int size;
+
+		Best(int k) {
+			scores = new double[k];
+			rows = new int[k];
+		}
+
+		// Whether the first row ranks below the second. Ties go to
+		// the lower row so the result does not depend on how the rows
+		// were split.
+		static boolean worse(double s, int r, double t, int q) {
+			return s < t || (s == t && r > q);
+		}
+
+		void offer(double score, int row) {
+			if (Double.isNaN(score) || scores.length == 0)
+				return;
+			if (size < scores.length) {
+				int i = size++;
+				while (i > 0) {
+					int up = (i - 1) >>> 1;
+					if (!worse(score, row, scores[up], rows[up]))
+						break;
+					scores[i] = scores[up];
+					rows[i] = rows[up];
+					i = up;
+				}
+				scores[i] = score;
+				rows[i] = row;
+			}
+			else if (worse(scores[0], rows[0], score, row)) {
+				int i = 0;
+				while (true) {
+					int child = 2 * i + 1;
+					if (child >= size)
+						break;
+					if (child + 1 < size && worse(scores[child + 1],
+							rows[child + 1], scores[child], rows[child]))
+						child++;
+					if (!worse(scores[child], rows[child], score, row))
+						break;
+					scores[i] = scores[child];
+					rows[i] = rows[child];
+					i = child;
+				}
+				scores[i] = score;
+				rows[i] = row;
+			}
+		}
+
+		Best merge(Best other) {
+			for (int i = 0; i < other.size; i++)
+				offer(other.scores[i], other.rows[i]);
+			return this;
+		}
+
+		// Take the rows off the heap, worst first, filling the ranking
+		// from the back.
+		Ranking ranking() {
+			int n = size;
+			double[] s = new double[n];
+			int[] r = new int[n];
+			while (size > 0) {
+				s[size - 1] = scores[0];
+				r[size - 1] = rows[0];
+				double score = scores[--size];
+				int row = rows[size];
+				int i = 0;
+				while (true) {
+					int child = 2 * i + 1;
+					if (child >= size)
+						break;
+					if (child + 1 < size && worse(scores[child + 1],
+							rows[child + 1], scores[child], rows[child]))
+						child++;
+					if (!worse(scores[child], rows[child], score, row))
+						break;
+					scores[i] = scores[child];
+					rows[i] = rows[child];
+					i = child;
+				}
+				scores[i] = score;
+				rows[i] = row;
+			}
+			return new Ranking(r, s);
+		}
+	}
+
+	// Whether a buffer reaches far enough for every row, without
+	// overflowing an int on the way.
+	private static boolean fits(DoubleBuffer buffer, int offset, int stride,
+			int rows) {
+		return rows == 0 ||
+				offset + (long) (rows - 1) * stride < buffer.limit();
+	}
+}
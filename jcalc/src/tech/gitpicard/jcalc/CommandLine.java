@@ -0,0 +1,167 @@
+package tech.gitpicard.jcalc;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.stream.IntStream;
+
+/**
+ * A command-line entry point that evaluates expressions as a
+ * stream so it can be used in shell pipelines. Input is read from
+ * the files named on the command line, or from standard input if
+ * there are none. There is one line of output for each line of
+ * input; errors leave that line empty and are reported on standard
+ * error.
+ * <p>
+ * By default each input line is an expression. With
+ * {@code -e expression}, the first line of each input is instead a
+ * comma separated header of variable names and every following line
+ * is a row of values to evaluate the expression with. The header
+ * gives no line of output, so the output holds only the results.
+ */
+public final class CommandLine {
+
+	// Lines are read and evaluated in chunks of this size so that
+	// memory use stays bounded no matter how large the input is.
+	private static final int CHUNK = 4096;
+
+	private CommandLine() {
+	}
+
+	/**
+	 * Run the command-line tool and exit with its status.
+	 * @param args The command-line arguments.
+	 */
+	public static void main(String[] args) {
+		System.exit(run(args, System.in, System.out, System.err));
+	}
+
+	/**
+	 * Run the command-line tool.
+	 * @param args The command-line arguments.
+	 * @param in The stream to read when no files are given.
+	 * @param out Where results are written.
+	 * @param err Where errors are reported.
+	 * @return 0 on success, 1 if any line failed, 2 on bad usage.
+	 */
+	public static int run(String[] args, InputStream in, PrintStream out,
+			PrintStream err) {
+		String expression = null;
+		ArrayList<String> files = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-e") && i + 1 < args.length)
+				expression = args[++i];
+			else if (args[i].startsWith("-") && !args[i].equals("-")) {
+				err.println("usage: jcalc [-e expression] [file ...]");
+				return 2;
+			}
+			else
+				files.add(args[i]);
+		}
+		if (files.isEmpty())
+			files.add("-");
+
+		CsvPipeline pipeline = null;
+		if (expression != null) {
+			try {
+				pipeline = new CsvPipeline(new JCalculator());
+				pipeline.add("result", expression);
+				pipeline.setHeader(false);
+			} catch (SyntaxException e) {
+				err.println("jcalc: " + e.getMessage());
+				return 2;
+			}
+		}
+
+		int status = 0;
+		for (String file : files) {
+			try (BufferedReader reader = file.equals("-") ?
+					new BufferedReader(new InputStreamReader(in,
+							StandardCharsets.UTF_8)) :
+					Files.newBufferedReader(Paths.get(file),
+							StandardCharsets.UTF_8)) {
+				int s = pipeline == null ?
+						expressions(file, reader, out, err) :
+						rows(file, pipeline, reader, out, err);
+				status = Math.max(status, s);
+			} catch (IOException e) {
+				err.println("jcalc: " + file + ": " + e.getMessage());
+				return 2;
+			}
+		}
+		out.flush();
+		return status;
+	}
+
+	// Evaluate every line as its own expression.
+	private static int expressions(String file, BufferedReader reader,
+			PrintStream out, PrintStream err) throws IOException {
+		JCalculator calc = new JCalculator();
+		ArrayList<String> chunk = new ArrayList<>(CHUNK);
+		int line = 1;
+		int status = 0;
+		boolean more = true;
+
+		while (more) {
+			chunk.clear();
+			String s;
+			while (chunk.size() < CHUNK && (s = reader.readLine()) != null)
+				chunk.add(s);
+			more = chunk.size() == CHUNK;
+
+			ExpressionBatch batch = ExpressionBatch.parse(chunk);
+			double[] results = new double[chunk.size()];
+			String[] errors = new String[chunk.size()];
+			IntStream.range(0, results.length).parallel().forEach((i) -> {
+				if (batch.getError(i) != null)
+					errors[i] = batch.getError(i).getMessage();
+				else if (batch.getTree(i) != null) {
+					try {
+						results[i] = calc.eval(
+								Program.compile(batch.getTree(i)));
+					} catch (EvalException e) {
+						errors[i] = e.getMessage();
+					}
+				}
+			});
+
+			for (int i = 0; i < results.length; i++, line++) {
+				if (errors[i] != null) {
+					err.println(file + ":" + line + ": " + errors[i]);
+					out.println();
+					status = 1;
+				}
+				else if (batch.getTree(i) == null)
+					out.println();
+				else
+					out.println(results[i]);
+			}
+		}
+
+		return status;
+	}
+
+	// Evaluate one expression for every row of variable values.
+	private static int rows(String file, CsvPipeline pipeline,
+			BufferedReader reader, PrintStream out, PrintStream err)
+			throws IOException {
+		pipeline.setErrorHandler((line, message) ->
+				err.println(file + ":" + line + ": " + message));
+		try {
+			Writer writer = new OutputStreamWriter(out,
+					StandardCharsets.UTF_8);
+			return pipeline.run(reader, writer) > 0 ? 1 : 0;
+		} catch (EvalException e) {
+			err.println(file + ": " + e.getMessage());
+			return 1;
+		}
+	}
+}
@@ -0,0 +1,376 @@
+package tech.gitpicard.jcalc;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Evaluates a set of expressions for every row of comma separated
+ * values. The first line read is a header naming the columns, and
+ * each expression variable is matched to its column once. Every
+ * following line is a row; the columns that feed a variable are
+ * parsed straight out of the read buffer and every expression is
+ * evaluated with them, giving one output column each.
+ * <p>
+ * Input is read through a fixed buffer that only grows to fit the
+ * longest line, so memory use does not depend on how many rows
+ * there are. Variables that are not columns are taken from the
+ * calculator or its resolver, along with the functions, when the
+ * pipeline starts.
+ * Fields cannot be quoted.
+ */
+public final class CsvPipeline {
+
+	/**
+	 * Receives the rows that could not be evaluated.
+	 */
+	public interface ErrorHandler {
+		/**
+		 * Called for each row that failed. Its output columns are
+		 * left empty.
+		 * @param line The line number of the row, starting at 1 for
+		 * the header.
+		 * @param message What went wrong.
+		 */
+		void error(long line, String message);
+	}
+
+	private static final int BUFFER = 65536;
+
+	private final JCalculator env;
+	private final ArrayList<String> names;
+	private final ArrayList<Program> programs;
+	private boolean header;
+	private boolean copy;
+	private ErrorHandler handler;
+
+	/**
+	 * Create a pipeline with no output columns.
+	 * @param env The calculator to compile the expressions with and
+	 * to take functions and other variables from.
+	 */
+	public CsvPipeline(JCalculator env) {
+		if (env == null)
+			throw new IllegalArgumentException("env");
+		this.env = env;
+		names = new ArrayList<>();
+		programs = new ArrayList<>();
+		header = true;
+		copy = false;
+	}
+
+	/**
+	 * Add an output column computed by an expression.
+	 * @param name The name of the column in the output header.
+	 * @param source The expression to evaluate for every row.
+	 * @throws SyntaxException When there is a syntax error.
+	 */
+	public void add(String name, String source) throws SyntaxException {
+		add(name, env.compile(source));
+	}
+
+	/**
+	 * Add an output column computed by a compiled program.
+	 * @param name The name of the column in the output header.
+	 * @param program The program to run for every row.
+	 */
+	public void add(String name, Program program) {
+		if (name == null)
+			throw new IllegalArgumentException("name");
+		if (program == null)
+			throw new IllegalArgumentException("program");
+		names.add(name);
+		programs.add(program);
+	}
+
+	/**
+	 * The number of output columns.
+	 * @return Number of columns.
+	 */
+	public int size() {
+		return programs.size();
+	}
+
+	/**
+	 * Set whether a header naming the output columns is written.
+	 * @param header True to write the header, which is the default.
+	 */
+	public void setHeader(boolean header) {
+		this.header = header;
+	}
+
+	/**
+	 * Checks to see if a header is written.
+	 * @return True if the header is written.
+	 */
+	public boolean isHeader() {
+		return header;
+	}
+
+	/**
+	 * Set whether every input column is copied to the output ahead of
+	 * the output columns.
+	 * @param copy True to copy the input columns.
+	 */
+	public void setCopyInput(boolean copy) {
+		this.copy = copy;
+	}
+
+	/**
+	 * Checks to see if the input columns are copied to the output.
+	 * @return True if the input columns are copied.
+	 */
+	public boolean isCopyInput() {
+		return copy;
+	}
+
+	/**
+	 * Set what is told about rows that could not be evaluated.
+	 * @param handler The handler, or null to ignore failed rows.
+	 */
+	public void setErrorHandler(ErrorHandler handler) {
+		this.handler = handler;
+	}
+
+	/**
+	 * Get what is told about rows that could not be evaluated.
+	 * @return The handler, or null if there is none.
+	 */
+	public ErrorHandler getErrorHandler() {
+		return handler;
+	}
+
+	// The input and the part of it that has not been used yet.
+	private static final class Input {
+		private final Reader reader;
+		private char[] buf = new char[BUFFER];
+		private CharBuffer chars = CharBuffer.wrap(buf);
+		private int start;
+		private int limit;
+		private boolean eof;
+
+		Input(Reader reader) {
+			this.reader = reader;
+		}
+
+		// Find the end of the next line, reading more of the input as
+		// needed. Returns -1 once everything has been used.
+		int line() throws IOException {
+			int scan = start;
+			while (true) {
+				for (; scan < limit; scan++)
+					if (buf[scan] == '\n')
+						return scan;
+				if (eof)
+					return start < limit ? limit : -1;
+
+				// Move what is left to the front and only grow the
+				// buffer when one line fills all of it.
+				if (start > 0) {
+					System.arraycopy(buf, start, buf, 0, limit - start);
+					scan -= start;
+					limit -= start;
+					start = 0;
+				}
+				else if (limit == buf.length) {
+					buf = Arrays.copyOf(buf, buf.length * 2);
+					chars = CharBuffer.wrap(buf);
+				}
+				int n = reader.read(buf, limit, buf.length - limit);
+				if (n < 0)
+					eof = true;
+				else
+					limit += n;
+			}
+		}
+
+		// Step past a line ending at the given position.
+		void next(int end) {
+			start = Math.min(end + 1, limit);
+		}
+
+		// The end of a line without its carriage return.
+		int trim(int end) {
+			return end > start && buf[end - 1] == '\r' ? end - 1 : end;
+		}
+	}
+
+	/**
+	 * Read the rows and write the output columns for each of them.
+	 * A row that cannot be evaluated, because a field is not a number
+	 * or an expression fails, is given empty output columns and passed
+	 * to the error handler. Empty lines are written as empty lines.
+	 * @param in The comma separated values to read, starting with the
+	 * header.
+	 * @param out Where the output rows are written.
+	 * @return The number of rows that could not be evaluated.
+	 * @throws IOException When reading or writing fails.
+	 * @throws EvalException When a variable is not a column or
+	 * defined by the calculator, or a function is not defined.
+	 */
+	public long run(Reader in, Writer out) throws IOException, EvalException {
+		if (in == null)
+			throw new IllegalArgumentException("in");
+		if (out == null)
+			throw new IllegalArgumentException("out");
+
+		Input input = new Input(in);
+		int end = input.line();
+		if (end < 0)
+			return 0;
+
+		// Match the header to the variables once.
+		ArrayList<String> columns = new ArrayList<>();
+		int headerEnd = input.trim(end);
+		for (int s = input.start, i = s; i <= headerEnd; i++) {
+			if (i == headerEnd || input.buf[i] == ',') {
+				columns.add(new String(input.buf, s, i - s).trim());
+				s = i + 1;
+			}
+		}
+		String lineSeparator = System.lineSeparator();
+		StringBuilder line = new StringBuilder();
+		if (header) {
+			if (copy)
+				line.append(input.buf, input.start, headerEnd - input.start);
+			for (int i = 0; i < names.size(); i++) {
+				if (copy || i > 0)
+					line.append(',');
+				line.append(names.get(i));
+			}
+			line.append(lineSeparator);
+		}
+		input.next(end);
+
+		int count = programs.size();
+		// The column feeding each variable slot of each program, or -1
+		// when the slot holds a value from the calculator.
+		int[][] slots = new int[count][];
+		double[][] vars = new double[count][];
+		Function[][] funcs = new Function[count][];
+		boolean[] used = new boolean[columns.size()];
+		for (int p = 0; p < count; p++) {
+			Program program = programs.get(p);
+			slots[p] = new int[program.getVariableCount()];
+			vars[p] = new double[slots[p].length];
+			for (int i = 0; i < slots[p].length; i++) {
+				String s = program.getVariable(i);
+				slots[p][i] = columns.lastIndexOf(s);
+				if (slots[p][i] >= 0)
+					used[slots[p][i]] = true;
+				else
+					vars[p][i] = env.lookup(s);
+			}
+			funcs[p] = env.bindFunctions(program);
+		}
+
+		int[] starts = new int[columns.size()];
+		int[] ends = new int[columns.size()];
+		double[] values = new double[columns.size()];
+		double[] results = new double[count];
+		char[] chars = new char[0];
+		long failed = 0;
+
+		for (long number = 2; (end = input.line()) >= 0; number++) {
+			int rowEnd = input.trim(end);
+			char[] buf = input.buf;
+
+			if (rowEnd > input.start) {
+				if (copy)
+					line.append(buf, input.start, rowEnd - input.start);
+				String error = null;
+				try {
+					split(buf, input.start, rowEnd, starts, ends);
+					for (int i = 0; i < values.length; i++)
+						if (used[i])
+							values[i] = field(input.chars, starts[i], ends[i],
+									columns.get(i));
+					for (int p = 0; p < count; p++) {
+						for (int i = 0; i < slots[p].length; i++)
+							if (slots[p][i] >= 0)
+								vars[p][i] = values[slots[p][i]];
+						results[p] = programs.get(p).run(vars[p], funcs[p]);
+					}
+				} catch (EvalException e) {
+					error = e.getMessage();
+				}
+
+				for (int p = 0; p < count; p++) {
+					if (copy || p > 0)
+						line.append(',');
+					if (error == null)
+						line.append(results[p]);
+				}
+				if (error != null) {
+					failed++;
+					if (handler != null)
+						handler.error(number, error);
+				}
+			}
+			line.append(lineSeparator);
+			input.next(end);
+
+			// Write through a reused array rather than a new string.
+			if (chars.length < line.length())
+				chars = new char[Math.max(line.length(), chars.length * 2)];
+			line.getChars(0, line.length(), chars, 0);
+			out.write(chars, 0, line.length());
+			line.setLength(0);
+		}
+
+		if (line.length() > 0)
+			out.write(line.toString());
+		out.flush();
+		return failed;
+	}
+
+	// Find where each column starts and ends within a row. Extra
+	// fields are ignored and missing ones are marked with -1.
+	private static void split(char[] buf, int start, int end, int[] starts,
+			int[] ends) {
+		int column = 0;
+		int s = start;
+		for (int i = start; i <= end && column < starts.length; i++) {
+			if (i == end || buf[i] == ',') {
+				starts[column] = s;
+				ends[column++] = i;
+				s = i + 1;
+			}
+		}
+		for (; column < starts.length; column++)
+			starts[column] = -1;
+	}
+
+	// Parse one field without copying it.
+	private static double field(CharSequence s, int start, int end,
+			String column) throws EvalException {
+		if (start < 0)
+			throw new EvalException("Missing column '" + column + "'.");
+		while (start < end && Character.isWhitespace(s.charAt(start)))
+			start++;
+		while (end > start && Character.isWhitespace(s.charAt(end - 1)))
+			end--;
+
+		int i = start;
+		boolean negative = false;
+		if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+'))
+			negative = s.charAt(i++) == '-';
+		try {
+			double d = NumberParser.parse(s, i, end - i);
+			return negative ? -d : d;
+		} catch (IllegalArgumentException e) {
+			// Fall back for the spellings only Java understands, such
+			// as NaN and Infinity.
+			try {
+				return Double.parseDouble(
+						s.subSequence(start, end).toString());
+			} catch (NumberFormatException f) {
+				throw new EvalException("Bad number in column '" +
+						column + "'.");
+			}
+		}
+	}
+}
@@ -0,0 +1,17 @@
+package tech.gitpicard.jcalc;
+
+/**
+ * The derivative of a {@link Function}, which allows expressions
+ * that call the function to be differentiated.
+ */
+public interface Derivative {
+	/**
+	 * Called with the same arguments as the function to get the
+	 * partial derivative with respect to one of them.
+	 * @param args The arguments passed by the expression.
+	 * @param index The argument to differentiate with respect to.
+	 * @return The partial derivative.
+	 * @throws EvalException When the derivative has a runtime error.
+	 */
+	double call(double[] args, int index) throws EvalException;
+}
@@ -0,0 +1,43 @@
+package tech.gitpicard.jcalc;
+
+/**
+ * A problem found while validating an expression.
+ */
+public final class Diagnostic {
+
+	private final String message;
+	private final int offset;
+
+	/**
+	 * Create a diagnostic for a position in the expression.
+	 * @param message A short description of the problem.
+	 * @param offset The position of the problem in the source.
+	 */
+	public Diagnostic(String message, int offset) {
+		if (message == null)
+			throw new IllegalArgumentException("message");
+		this.message = message;
+		this.offset = offset;
+	}
+
+	/**
+	 * Get the description of the problem.
+	 * @return The message.
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * Get the position of the problem in the source.
+	 * @return The offset of the first character involved.
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	@Override
+	public String toString() {
+		return offset + ": " + message;
+	}
+}
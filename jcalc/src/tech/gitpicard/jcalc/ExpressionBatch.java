@@ -0,0 +1,137 @@
+package tech.gitpicard.jcalc;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import tech.gitpicard.jcalc.ast.Node;
+
+/**
+ * A batch of expressions, one per line, that were parsed in
+ * parallel. A line with a syntax error does not stop the rest of
+ * the batch from being parsed; its error is kept so it can be
+ * reported along with the others.
+ */
+public final class ExpressionBatch {
+
+	private final Node[] trees;
+	private final SyntaxException[] errors;
+	private final int errorCount;
+
+	private ExpressionBatch(Node[] trees, SyntaxException[] errors) {
+		this.trees = trees;
+		this.errors = errors;
+		int count = 0;
+		for (SyntaxException e : errors)
+			if (e != null)
+				count++;
+		errorCount = count;
+	}
+
+	/**
+	 * Read every line of a file and parse each one as an expression.
+	 * @param file The UTF-8 encoded file to read.
+	 * @return The parsed batch.
+	 * @throws IOException When the file cannot be read.
+	 */
+	public static ExpressionBatch load(Path file) throws IOException {
+		if (file == null)
+			throw new IllegalArgumentException("file");
+		return parse(Files.readAllLines(file, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Parse each line as an expression using all available cores.
+	 * @param lines The source of each expression.
+	 * @return The parsed batch.
+	 */
+	public static ExpressionBatch parse(List<String> lines) {
+		return parse(lines, Parser.DEFAULT_MAX_DEPTH);
+	}
+
+	/**
+	 * Parse each line as an expression using all available cores.
+	 * @param lines The source of each expression.
+	 * @param maxDepth How deeply each expression may be nested.
+	 * @return The parsed batch.
+	 */
+	public static ExpressionBatch parse(List<String> lines, int maxDepth) {
+		return parse(lines, maxDepth, null);
+	}
+
+	/**
+	 * Parse each line as an expression using all available cores,
+	 * sharing names and common literals through a pool.
+	 * @param lines The source of each expression.
+	 * @param maxDepth How deeply each expression may be nested.
+	 * @param pool The pool to share, or null to use none.
+	 * @return The parsed batch.
+	 */
+	public static ExpressionBatch parse(List<String> lines, int maxDepth,
+			InternPool pool) {
+		if (lines == null)
+			throw new IllegalArgumentException("lines");
+		if (maxDepth < 1)
+			throw new IllegalArgumentException("maxDepth");
+
+		Node[] trees = new Node[lines.size()];
+		SyntaxException[] errors = new SyntaxException[lines.size()];
+		// Each task only writes to its own index so the arrays can
+		// be shared without locking.
+		IntStream.range(0, trees.length).parallel().forEach((i) -> {
+			String line = lines.get(i);
+			// Blank lines are skipped rather than being reported as
+			// empty expressions.
+			if (line == null || line.trim().isEmpty())
+				return;
+			try {
+				Parser parser = new Parser(new Lexer(line));
+				parser.setMaxDepth(maxDepth);
+				parser.setInternPool(pool);
+				trees[i] = parser.parseTree();
+			} catch (SyntaxException e) {
+				errors[i] = e;
+			}
+		});
+
+		return new ExpressionBatch(trees, errors);
+	}
+
+	/**
+	 * The number of lines in the batch, including blank lines and
+	 * lines with errors.
+	 * @return Number of lines.
+	 */
+	public int size() {
+		return trees.length;
+	}
+
+	/**
+	 * Get the tree parsed from a line.
+	 * @param index The zero based line index.
+	 * @return The tree, or null if the line was blank or had an error.
+	 */
+	public Node getTree(int index) {
+		return trees[index];
+	}
+
+	/**
+	 * Get the syntax error from a line.
+	 * @param index The zero based line index.
+	 * @return The error, or null if the line parsed successfully.
+	 */
+	public SyntaxException getError(int index) {
+		return errors[index];
+	}
+
+	/**
+	 * The number of lines that could not be parsed.
+	 * @return Number of syntax errors.
+	 */
+	public int getErrorCount() {
+		return errorCount;
+	}
+}
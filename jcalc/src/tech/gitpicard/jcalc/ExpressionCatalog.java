@@ -0,0 +1,120 @@
+package tech.gitpicard.jcalc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import tech.gitpicard.jcalc.ast.Node;
+
+/**
+ * A store of many expressions that keeps only one copy of each
+ * distinct formula. Every expression added is put in its
+ * {@link CanonicalForm}, and expressions with the same canonical form
+ * share one compiled program, so evaluating the catalog runs each
+ * distinct formula once no matter how many times it was added.
+ */
+public final class ExpressionCatalog {
+
+	// The formula of each expression, by the order they were added.
+	private final ArrayList<Integer> expressions;
+	private final ArrayList<CanonicalForm> forms;
+	private final ArrayList<Program> programs;
+	private final HashMap<CanonicalForm, Integer> index;
+
+	/**
+	 * Create an empty catalog.
+	 */
+	public ExpressionCatalog() {
+		expressions = new ArrayList<>();
+		forms = new ArrayList<>();
+		programs = new ArrayList<>();
+		index = new HashMap<>();
+	}
+
+	/**
+	 * Parse an expression and add it to the catalog.
+	 * @param source The expression.
+	 * @return The number of the expression, counting up from 0.
+	 * @throws SyntaxException When there is a syntax error.
+	 */
+	public int add(String source) throws SyntaxException {
+		return add(new Parser(new Lexer(source)).parseTree());
+	}
+
+	/**
+	 * Add an expression to the catalog.
+	 * @param root The root of the expression.
+	 * @return The number of the expression, counting up from 0.
+	 */
+	public int add(Node root) {
+		if (root == null)
+			throw new IllegalArgumentException("root");
+		CanonicalForm form = CanonicalForm.of(root);
+		Integer formula = index.get(form);
+		if (formula == null) {
+			formula = forms.size();
+			forms.add(form);
+			programs.add(Program.compile(form.getTree()));
+			index.put(form, formula);
+		}
+		expressions.add(formula);
+		return expressions.size() - 1;
+	}
+
+	/**
+	 * The number of expressions added to the catalog.
+	 * @return Number of expressions.
+	 */
+	public int size() {
+		return expressions.size();
+	}
+
+	/**
+	 * The number of distinct formulas among the expressions.
+	 * @return Number of formulas.
+	 */
+	public int getFormulaCount() {
+		return forms.size();
+	}
+
+	/**
+	 * Find which distinct formula an expression is.
+	 * @param expression The number of the expression.
+	 * @return The number of its formula, counting up from 0 in the
+	 * order they were first added.
+	 */
+	public int getFormula(int expression) {
+		if (expression < 0 || expression >= expressions.size())
+			throw new IllegalArgumentException("expression");
+		return expressions.get(expression);
+	}
+
+	/**
+	 * Get the canonical form of a distinct formula.
+	 * @param formula The number of the formula.
+	 * @return The canonical form.
+	 */
+	public CanonicalForm getForm(int formula) {
+		if (formula < 0 || formula >= forms.size())
+			throw new IllegalArgumentException("formula");
+		return forms.get(formula);
+	}
+
+	/**
+	 * Evaluate every expression with the variables and functions of a
+	 * calculator, running each distinct formula once.
+	 * @param env The calculator holding the variables and functions.
+	 * @return The value of each expression, by its number.
+	 * @throws EvalException When there is a runtime evaluation error.
+	 */
+	public double[] eval(JCalculator env) throws EvalException {
+		if (env == null)
+			throw new IllegalArgumentException("env");
+		double[] values = new double[programs.size()];
+		for (int i = 0; i < values.length; i++)
+			values[i] = env.eval(programs.get(i));
+		double[] out = new double[expressions.size()];
+		for (int i = 0; i < out.length; i++)
+			out[i] = values[expressions.get(i)];
+		return out;
+	}
+}
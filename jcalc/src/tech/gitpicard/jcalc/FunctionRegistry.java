@@ -0,0 +1,195 @@
+package tech.gitpicard.jcalc;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A set of named functions that cannot be changed once it is built,
+ * so that one copy can be shared by any number of calculators. A
+ * registry can be extended with a layer that adds functions or
+ * replaces some of them, such as the overrides of a single tenant,
+ * without copying the registry beneath it.
+ * <p>
+ * The functions of a compiled {@link Program} can be bound once with
+ * {@link #bind(Program)}, after which running it does no lookups.
+ */
+public final class FunctionRegistry {
+
+	/** A registry with no functions. */
+	public static final FunctionRegistry EMPTY = new Builder().build();
+
+	/**
+	 * Collects the functions of a new registry.
+	 */
+	public static final class Builder {
+		private final FunctionRegistry parent;
+		private final LinkedHashMap<String, Function> functions;
+
+		/**
+		 * Start an empty registry.
+		 */
+		public Builder() {
+			this(null);
+		}
+
+		private Builder(FunctionRegistry parent) {
+			this.parent = parent;
+			functions = new LinkedHashMap<>();
+		}
+
+		/**
+		 * Add a function, replacing any function with the same name.
+		 * @param name The name of the function, only letters and
+		 * underscores.
+		 * @param func Interface to the code to execute.
+		 * @return This builder.
+		 */
+		public Builder add(String name, Function func) {
+			if (name == null || name.isEmpty())
+				throw new IllegalArgumentException("name");
+			if (func == null)
+				throw new IllegalArgumentException("func");
+			for (int i = 0; i < name.length(); i++) {
+				char c = name.charAt(i);
+				if (!Character.isAlphabetic(c) && c != '_')
+					throw new IllegalArgumentException("name");
+			}
+			functions.put(name, func);
+			return this;
+		}
+
+		/**
+		 * Finish the registry. The builder can still be used to build
+		 * others.
+		 * @return The registry.
+		 */
+		public FunctionRegistry build() {
+			return new FunctionRegistry(parent, functions);
+		}
+	}
+
+	private final FunctionRegistry parent;
+	// Open addressing with linear probing, at most half full so that
+	// a lookup rarely looks at more than one or two slots.
+	private final String[] names;
+	private final Function[] functions;
+	private final int size;
+
+	private FunctionRegistry(FunctionRegistry parent,
+			Map<String, Function> added) {
+		this.parent = parent;
+		int capacity = Integer.highestOneBit(Math.max(added.size(), 1)) * 4;
+		names = new String[capacity];
+		functions = new Function[capacity];
+		int count = parent == null ? 0 : parent.size;
+		for (Map.Entry<String, Function> e : added.entrySet()) {
+			int i = slot(e.getKey());
+			names[i] = e.getKey();
+			functions[i] = e.getValue();
+			if (parent == null || parent.get(e.getKey()) == null)
+				count++;
+		}
+		size = count;
+	}
+
+	private static int hash(String name) {
+		int h = name.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	// The slot holding a name, or the empty slot where it belongs.
+	private int slot(String name) {
+		int mask = names.length - 1;
+		int i = hash(name) & mask;
+		while (names[i] != null && !names[i].equals(name))
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	/**
+	 * Start a layer on top of this registry. Functions added to it
+	 * replace the ones here with the same name.
+	 * @return A builder for the layer.
+	 */
+	public Builder extend() {
+		return new Builder(this);
+	}
+
+	/**
+	 * Get the registry this one is a layer on top of.
+	 * @return The registry beneath, or null if there is none.
+	 */
+	public FunctionRegistry getParent() {
+		return parent;
+	}
+
+	/**
+	 * Find a function, looking in this layer before the ones beneath.
+	 * @param name The name of the function.
+	 * @return The function, or null if there is none by that name.
+	 */
+	public Function get(String name) {
+		if (name == null)
+			throw new IllegalArgumentException("name");
+		for (FunctionRegistry r = this; r != null; r = r.parent) {
+			int i = r.slot(name);
+			if (r.names[i] != null)
+				return r.functions[i];
+		}
+		return null;
+	}
+
+	/**
+	 * Checks to see if there is a function with a name.
+	 * @param name The name to look up.
+	 * @return True if there is a function by that name.
+	 */
+	public boolean contains(String name) {
+		return get(name) != null;
+	}
+
+	/**
+	 * The number of functions, counting each name once.
+	 * @return Number of functions.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get the names of all the functions.
+	 * @return The names, those beneath this layer first.
+	 */
+	public Set<String> getNames() {
+		LinkedHashSet<String> out = new LinkedHashSet<>();
+		if (parent != null)
+			out.addAll(parent.getNames());
+		for (String name : names)
+			if (name != null)
+				out.add(name);
+		return Collections.unmodifiableSet(out);
+	}
+
+	/**
+	 * Look up the function for every function slot of a program
+	 * ahead of time, for passing to {@link Program#run}.
+	 * @param program The program to bind.
+	 * @return The function for each slot.
+	 * @throws EvalException When a function is not in the registry.
+	 */
+	public Function[] bind(Program program) throws EvalException {
+		if (program == null)
+			throw new IllegalArgumentException("program");
+		Function[] funcs = new Function[program.getFunctionCount()];
+		for (int i = 0; i < funcs.length; i++) {
+			String s = program.getFunction(i);
+			funcs[i] = get(s);
+			if (funcs[i] == null)
+				throw new EvalException("No function '" + s + "' found.");
+		}
+		return funcs;
+	}
+}
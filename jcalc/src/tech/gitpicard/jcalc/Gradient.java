@@ -0,0 +1,358 @@
+package tech.gitpicard.jcalc;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * A compiled program turned into a tape for automatic
+ * differentiation. Running the tape in reverse gives the value of
+ * the expression and its partial derivative with respect to every
+ * variable in a single pass. Running it forward gives the
+ * derivative along one direction.
+ * <p>
+ * Comparisons and the logical operators are treated as having a zero
+ * derivative, and the modulus is differentiated as
+ * {@code a - b * trunc(a / b)} with the quotient held constant.
+ * Functions need a {@link Derivative} to be differentiated.
+ */
+public final class Gradient {
+
+	private final Program program;
+	// One tape entry for each instruction. The operands of an
+	// entry are the indices of earlier entries, except for
+	// constants, loads, and calls which store slot numbers.
+	private final int[] ops;
+	private final int[] first;
+	private final int[] second;
+	private final int[] argc;
+	private final int[] argPool;
+	// Whether each entry depends on any variable at all.
+	private final boolean[] varying;
+	private final double[] constants;
+
+	private Gradient(Program program, int[] ops, int[] first, int[] second,
+			int[] argc, int[] argPool) {
+		this.program = program;
+		this.ops = ops;
+		this.first = first;
+		this.second = second;
+		this.argc = argc;
+		this.argPool = argPool;
+		this.constants = program.constants();
+
+		varying = new boolean[ops.length];
+		for (int i = 0; i < ops.length; i++) {
+			switch (ops[i]) {
+			case Program.CONST:
+				break;
+			case Program.LOAD:
+				varying[i] = true;
+				break;
+			case Program.CALL:
+				for (int k = 0; k < argc[i]; k++)
+					varying[i] |= varying[argPool[second[i] + k]];
+				break;
+			case Program.NEGATE:
+			case Program.NOT:
+				varying[i] = varying[first[i]];
+				break;
+			default:
+				varying[i] = varying[first[i]] || varying[second[i]];
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Build the tape for a compiled program.
+	 * @param program The program to differentiate.
+	 * @return The tape.
+	 */
+	public static Gradient compile(Program program) {
+		if (program == null)
+			throw new IllegalArgumentException("program");
+
+		int[] code = program.code();
+		ArrayList<Integer> ops = new ArrayList<>();
+		ArrayList<Integer> first = new ArrayList<>();
+		ArrayList<Integer> second = new ArrayList<>();
+		ArrayList<Integer> argc = new ArrayList<>();
+		ArrayList<Integer> pool = new ArrayList<>();
+		// Replays the program's operand stack, holding the entry that
+		// produced each value instead of the value itself.
+		ArrayDeque<Integer> stack = new ArrayDeque<>();
+
+		for (int pc = 0; pc < code.length;) {
+			int op = code[pc++];
+			int a = 0;
+			int b = 0;
+			int n = 0;
+			switch (op) {
+			case Program.CONST:
+			case Program.LOAD:
+				a = code[pc++];
+				break;
+			case Program.CALL: {
+				a = code[pc++];
+				n = code[pc++];
+				b = pool.size();
+				Integer[] args = new Integer[n];
+				for (int i = n - 1; i >= 0; i--)
+					args[i] = stack.pop();
+				for (Integer arg : args)
+					pool.add(arg);
+				break;
+			}
+			case Program.NEGATE:
+			case Program.NOT:
+				a = stack.pop();
+				break;
+			default:
+				b = stack.pop();
+				a = stack.pop();
+				break;
+			}
+			stack.push(ops.size());
+			ops.add(op);
+			first.add(a);
+			second.add(b);
+			argc.add(n);
+		}
+
+		return new Gradient(program, toArray(ops), toArray(first),
+				toArray(second), toArray(argc), toArray(pool));
+	}
+
+	private static int[] toArray(ArrayList<Integer> list) {
+		int[] a = new int[list.size()];
+		for (int i = 0; i < a.length; i++)
+			a[i] = list.get(i);
+		return a;
+	}
+
+	/**
+	 * Get the program this tape was built from. Variable and
+	 * function slots are the same as the program's.
+	 * @return The compiled program.
+	 */
+	public Program getProgram() {
+		return program;
+	}
+
+	// Compute the value of every entry on the tape.
+	private double[] forward(double[] vars, Function[] funcs)
+			throws EvalException {
+		if (vars == null || vars.length < program.getVariableCount())
+			throw new IllegalArgumentException("vars");
+		if (funcs == null || funcs.length < program.getFunctionCount())
+			throw new IllegalArgumentException("funcs");
+
+		double[] v = new double[ops.length];
+		for (int i = 0; i < ops.length; i++) {
+			switch (ops[i]) {
+			case Program.CONST:
+				v[i] = constants[first[i]];
+				break;
+			case Program.LOAD:
+				v[i] = vars[first[i]];
+				break;
+			case Program.CALL:
+				v[i] = funcs[first[i]].call(arguments(v, i));
+				break;
+			case Program.NEGATE:
+				v[i] = -v[first[i]];
+				break;
+			case Program.NOT:
+				v[i] = v[first[i]] == 0.0 ? 1.0 : 0.0;
+				break;
+			default:
+				v[i] = Program.binary(ops[i], v[first[i]], v[second[i]]);
+				break;
+			}
+		}
+		return v;
+	}
+
+	private double[] arguments(double[] v, int entry) {
+		double[] args = new double[argc[entry]];
+		for (int k = 0; k < args.length; k++)
+			args[k] = v[argPool[second[entry] + k]];
+		return args;
+	}
+
+	private Derivative derivative(Derivative[] derivs, int slot)
+			throws EvalException {
+		if (derivs == null || slot >= derivs.length || derivs[slot] == null)
+			throw new EvalException("No derivative for function '" +
+					program.getFunction(slot) + "' found.");
+		return derivs[slot];
+	}
+
+	// Partial derivatives of a power with respect to the base and
+	// the exponent.
+	private static double powBase(double x, double y) {
+		if (y == 0.0)
+			return 0.0;
+		return y * Math.pow(x, y - 1.0);
+	}
+
+	private static double powExponent(double x, double f) {
+		if (x > 0.0)
+			return f * Math.log(x);
+		else if (x == 0.0)
+			return 0.0;
+		return Double.NaN;
+	}
+
+	/**
+	 * Evaluate the expression and all of its partial derivatives
+	 * using reverse mode differentiation.
+	 * @param vars The value of each variable slot.
+	 * @param funcs The function for each function slot.
+	 * @param derivs The derivative for each function slot.
+	 * @param gradient Receives the partial derivative with respect to
+	 * each variable slot.
+	 * @return The value of the expression.
+	 * @throws EvalException When a function or derivative fails.
+	 */
+	public double run(double[] vars, Function[] funcs, Derivative[] derivs,
+			double[] gradient) throws EvalException {
+		if (gradient == null ||
+				gradient.length < program.getVariableCount())
+			throw new IllegalArgumentException("gradient");
+
+		double[] v = forward(vars, funcs);
+		double[] adj = new double[v.length];
+		adj[v.length - 1] = 1.0;
+		for (int i = 0; i < program.getVariableCount(); i++)
+			gradient[i] = 0.0;
+
+		for (int i = v.length - 1; i >= 0; i--) {
+			double g = adj[i];
+			// Nothing flows back from an entry that does not affect
+			// the result or that does not depend on any variable, so
+			// its derivatives are never needed.
+			if (g == 0.0 || !varying[i])
+				continue;
+			int a = first[i];
+			int b = second[i];
+			switch (ops[i]) {
+			case Program.LOAD:
+				gradient[a] += g;
+				break;
+			case Program.CALL: {
+				double[] args = arguments(v, i);
+				Derivative d = derivative(derivs, a);
+				for (int k = 0; k < args.length; k++)
+					if (varying[argPool[b + k]])
+						adj[argPool[b + k]] += g * d.call(args, k);
+				break;
+			}
+			case Program.ADD:
+				adj[a] += g;
+				adj[b] += g;
+				break;
+			case Program.SUB:
+				adj[a] += g;
+				adj[b] -= g;
+				break;
+			case Program.MULT:
+				adj[a] += g * v[b];
+				adj[b] += g * v[a];
+				break;
+			case Program.DIV:
+				adj[a] += g / v[b];
+				adj[b] -= g * v[a] / (v[b] * v[b]);
+				break;
+			case Program.POW:
+				adj[a] += g * powBase(v[a], v[b]);
+				adj[b] += g * powExponent(v[a], v[i]);
+				break;
+			case Program.MOD:
+				adj[a] += g;
+				adj[b] -= g * Math.rint((v[a] - v[i]) / v[b]);
+				break;
+			case Program.NEGATE:
+				adj[a] -= g;
+				break;
+			default:
+				// Constants have no inputs and comparisons have a
+				// zero derivative.
+				break;
+			}
+		}
+
+		return v[v.length - 1];
+	}
+
+	/**
+	 * Compute the derivative of the expression along a direction
+	 * using forward mode differentiation.
+	 * @param vars The value of each variable slot.
+	 * @param direction How fast each variable slot changes.
+	 * @param funcs The function for each function slot.
+	 * @param derivs The derivative for each function slot.
+	 * @return The directional derivative.
+	 * @throws EvalException When a function or derivative fails.
+	 */
+	public double tangent(double[] vars, double[] direction,
+			Function[] funcs, Derivative[] derivs) throws EvalException {
+		if (direction == null ||
+				direction.length < program.getVariableCount())
+			throw new IllegalArgumentException("direction");
+
+		double[] v = forward(vars, funcs);
+		double[] t = new double[v.length];
+		for (int i = 0; i < v.length; i++) {
+			int a = first[i];
+			int b = second[i];
+			switch (ops[i]) {
+			case Program.LOAD:
+				t[i] = direction[a];
+				break;
+			case Program.CALL: {
+				double[] args = arguments(v, i);
+				Derivative d = derivative(derivs, a);
+				for (int k = 0; k < args.length; k++) {
+					double dt = t[argPool[b + k]];
+					// Skip arguments that do not change so that
+					// their derivative is never needed.
+					if (dt != 0.0)
+						t[i] += dt * d.call(args, k);
+				}
+				break;
+			}
+			case Program.ADD:
+				t[i] = t[a] + t[b];
+				break;
+			case Program.SUB:
+				t[i] = t[a] - t[b];
+				break;
+			case Program.MULT:
+				t[i] = t[a] * v[b] + v[a] * t[b];
+				break;
+			case Program.DIV:
+				t[i] = (t[a] * v[b] - v[a] * t[b]) / (v[b] * v[b]);
+				break;
+			case Program.POW:
+				t[i] = t[a] * powBase(v[a], v[b]);
+				if (t[b] != 0.0)
+					t[i] += t[b] * powExponent(v[a], v[i]);
+				break;
+			case Program.MOD:
+				t[i] = t[a];
+				if (t[b] != 0.0)
+					t[i] -= t[b] * Math.rint((v[a] - v[i]) / v[b]);
+				break;
+			case Program.NEGATE:
+				t[i] = -t[a];
+				break;
+			default:
+				t[i] = 0.0;
+				break;
+			}
+		}
+
+		return t[t.length - 1];
+	}
+}
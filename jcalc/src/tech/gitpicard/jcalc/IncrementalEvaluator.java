@@ -0,0 +1,306 @@
+package tech.gitpicard.jcalc;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Evaluates an expression again after some of its variables change
+ * without computing all of it again. The value of every part of the
+ * expression is kept from the last evaluation, and changing a
+ * variable only marks the places it is read. Evaluating then works
+ * up from those places towards the root, and stops early on any
+ * path where a part comes out the same as before, such as a
+ * comparison that did not flip.
+ * <p>
+ * Functions are only called again when one of their arguments
+ * changed, so they must always give the same result for the same
+ * arguments.
+ */
+public final class IncrementalEvaluator {
+
+	private final Program program;
+	// One entry for each instruction, laid out the same way as the
+	// tape of a gradient. Every entry comes after its operands, and
+	// parent holds the one entry that uses it, or -1 for the root.
+	private final int[] ops;
+	private final int[] first;
+	private final int[] second;
+	private final int[] argc;
+	private final int[] argPool;
+	private final int[] parent;
+	private final double[] constants;
+	private final Function[] funcs;
+	private final double[] vars;
+	private final double[] values;
+	// The slot and load entries of each variable.
+	private final HashMap<String, Integer> slots;
+	private final HashMap<String, int[]> loads;
+	// The entries waiting to be computed, as a heap so the lowest
+	// entry, which never depends on a later one, comes out first.
+	private final int[] heap;
+	private final boolean[] queued;
+	private int size;
+	private boolean stale;
+	private int recomputed;
+
+	/**
+	 * Prepare a program and evaluate it for the first time.
+	 * @param program The program to evaluate.
+	 * @param vars The starting value of each variable slot.
+	 * @param funcs The function for each function slot.
+	 * @throws EvalException When there is a runtime evaluation error.
+	 */
+	public IncrementalEvaluator(Program program, double[] vars,
+			Function[] funcs) throws EvalException {
+		if (program == null)
+			throw new IllegalArgumentException("program");
+		if (vars == null || vars.length != program.getVariableCount())
+			throw new IllegalArgumentException("vars");
+		if (funcs == null || funcs.length != program.getFunctionCount())
+			throw new IllegalArgumentException("funcs");
+		this.program = program;
+		this.vars = vars.clone();
+		this.funcs = funcs.clone();
+		constants = program.constants();
+
+		int[] code = program.code();
+		ArrayList<Integer> ops = new ArrayList<>();
+		ArrayList<Integer> first = new ArrayList<>();
+		ArrayList<Integer> second = new ArrayList<>();
+		ArrayList<Integer> argc = new ArrayList<>();
+		ArrayList<Integer> pool = new ArrayList<>();
+		ArrayDeque<Integer> stack = new ArrayDeque<>();
+		for (int pc = 0; pc < code.length;) {
+			int op = code[pc++];
+			int a = 0;
+			int b = 0;
+			int n = 0;
+			switch (op) {
+			case Program.CONST:
+			case Program.LOAD:
+				a = code[pc++];
+				break;
+			case Program.CALL: {
+				a = code[pc++];
+				n = code[pc++];
+				b = pool.size();
+				Integer[] args = new Integer[n];
+				for (int i = n - 1; i >= 0; i--)
+					args[i] = stack.pop();
+				for (Integer arg : args)
+					pool.add(arg);
+				break;
+			}
+			case Program.NEGATE:
+			case Program.NOT:
+				a = stack.pop();
+				break;
+			default:
+				b = stack.pop();
+				a = stack.pop();
+				break;
+			}
+			stack.push(ops.size());
+			ops.add(op);
+			first.add(a);
+			second.add(b);
+			argc.add(n);
+		}
+		this.ops = toArray(ops);
+		this.first = toArray(first);
+		this.second = toArray(second);
+		this.argc = toArray(argc);
+		argPool = toArray(pool);
+
+		int count = this.ops.length;
+		parent = new int[count];
+		Arrays.fill(parent, -1);
+		HashMap<String, ArrayList<Integer>> found = new HashMap<>();
+		for (int i = 0; i < count; i++) {
+			switch (this.ops[i]) {
+			case Program.CONST:
+				break;
+			case Program.LOAD:
+				found.computeIfAbsent(program.getVariable(this.first[i]),
+						(k) -> new ArrayList<>()).add(i);
+				break;
+			case Program.CALL:
+				for (int k = 0; k < this.argc[i]; k++)
+					parent[argPool[this.second[i] + k]] = i;
+				break;
+			case Program.NEGATE:
+			case Program.NOT:
+				parent[this.first[i]] = i;
+				break;
+			default:
+				parent[this.first[i]] = i;
+				parent[this.second[i]] = i;
+				break;
+			}
+		}
+		slots = new HashMap<>();
+		for (int i = 0; i < program.getVariableCount(); i++)
+			slots.put(program.getVariable(i), i);
+		loads = new HashMap<>();
+		for (String name : found.keySet())
+			loads.put(name, toArray(found.get(name)));
+
+		values = new double[count];
+		heap = new int[count];
+		queued = new boolean[count];
+		stale = true;
+		eval();
+	}
+
+	private static int[] toArray(ArrayList<Integer> list) {
+		int[] a = new int[list.size()];
+		for (int i = 0; i < a.length; i++)
+			a[i] = list.get(i);
+		return a;
+	}
+
+	/**
+	 * Get the program being evaluated.
+	 * @return The compiled program.
+	 */
+	public Program getProgram() {
+		return program;
+	}
+
+	/**
+	 * Change the value of a variable. Nothing is computed until the
+	 * next call to {@link #eval()}. Variables the expression does not
+	 * read are ignored.
+	 * @param name The name of the variable.
+	 * @param value The new value.
+	 */
+	public void setVariable(String name, double value) {
+		if (name == null)
+			throw new IllegalArgumentException("name");
+		Integer slot = slots.get(name);
+		if (slot == null)
+			return;
+		vars[slot] = value;
+		for (int entry : loads.get(name))
+			push(entry);
+	}
+
+	/**
+	 * Get the current value of a variable the expression reads.
+	 * @param name The name of the variable.
+	 * @return The value.
+	 */
+	public double getVariable(String name) {
+		if (name == null)
+			throw new IllegalArgumentException("name");
+		Integer slot = slots.get(name);
+		if (slot == null)
+			throw new IllegalArgumentException("name");
+		return vars[slot];
+	}
+
+	/**
+	 * The number of parts of the expression computed by the last call
+	 * to {@link #eval()}.
+	 * @return Number of parts computed.
+	 */
+	public int getRecomputedCount() {
+		return recomputed;
+	}
+
+	/**
+	 * Evaluate the expression with the current values of the
+	 * variables, only computing the parts that depend on the ones
+	 * that changed.
+	 * @return The resulting value.
+	 * @throws EvalException When there is a runtime evaluation error.
+	 */
+	public double eval() throws EvalException {
+		recomputed = 0;
+		if (stale) {
+			// Start over after a failure, since it may have left the
+			// values of some parts out of date.
+			size = 0;
+			Arrays.fill(queued, false);
+			for (int i = 0; i < values.length; i++)
+				values[i] = compute(i);
+			recomputed = values.length;
+			stale = false;
+			return values[values.length - 1];
+		}
+
+		stale = true;
+		while (size > 0) {
+			int i = pop();
+			double value = compute(i);
+			recomputed++;
+			if (Double.doubleToLongBits(value) !=
+					Double.doubleToLongBits(values[i])) {
+				values[i] = value;
+				if (parent[i] >= 0)
+					push(parent[i]);
+			}
+		}
+		stale = false;
+		return values[values.length - 1];
+	}
+
+	private double compute(int i) throws EvalException {
+		switch (ops[i]) {
+		case Program.CONST:
+			return constants[first[i]];
+		case Program.LOAD:
+			return vars[first[i]];
+		case Program.CALL: {
+			double[] args = new double[argc[i]];
+			for (int k = 0; k < args.length; k++)
+				args[k] = values[argPool[second[i] + k]];
+			return funcs[first[i]].call(args);
+		}
+		case Program.NEGATE:
+			return -values[first[i]];
+		case Program.NOT:
+			return values[first[i]] == 0.0 ? 1.0 : 0.0;
+		default:
+			return Program.binary(ops[i], values[first[i]],
+					values[second[i]]);
+		}
+	}
+
+	private void push(int entry) {
+		if (queued[entry])
+			return;
+		queued[entry] = true;
+		int i = size++;
+		while (i > 0) {
+			int up = (i - 1) >>> 1;
+			if (heap[up] <= entry)
+				break;
+			heap[i] = heap[up];
+			i = up;
+		}
+		heap[i] = entry;
+	}
+
+	private int pop() {
+		int top = heap[0];
+		queued[top] = false;
+		int last = heap[--size];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size)
+				break;
+			if (child + 1 < size && heap[child + 1] < heap[child])
+				child++;
+			if (heap[child] >= last)
+				break;
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = last;
+		return top;
+	}
+}
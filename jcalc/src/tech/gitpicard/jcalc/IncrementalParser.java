@@ -0,0 +1,331 @@
+package tech.gitpicard.jcalc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import tech.gitpicard.jcalc.ast.Node;
+
+/**
+ * Parses an expression that is being edited, such as a formula in
+ * an editor, without starting over after every change. An edit only
+ * lexes the tokens around it again, the tokens before it are kept as
+ * they are, and the tokens after it are moved rather than lexed.
+ * Parsing again reuses the tree of every parenthesized expression
+ * and function call whose tokens did not change, so only the groups
+ * holding the edit and the operators around them are parsed again.
+ * <p>
+ * The trees produced are the same as the ones {@link Parser} gives
+ * for the whole text, and share the nodes of the unchanged groups
+ * with earlier trees.
+ */
+public final class IncrementalParser {
+
+	// The current text, which every token reads its characters from.
+	// It is changed in place by an edit, so the tokens before the edit
+	// stay valid without holding on to older versions of the text.
+	private static final class Text implements CharSequence {
+		String value;
+
+		Text(String value) {
+			this.value = value;
+		}
+
+		@Override
+		public int length() {
+			return value.length();
+		}
+
+		@Override
+		public char charAt(int index) {
+			return value.charAt(index);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return value.subSequence(start, end);
+		}
+
+		@Override
+		public String toString() {
+			return value;
+		}
+	}
+
+	private String source;
+	private final Text text;
+	private ArrayList<Token> tokens;
+	// The unidentified characters the lexer skipped, in order.
+	private ArrayList<SyntaxException> errors;
+	private HashMap<Integer, Parser.Span> spans;
+	private OperatorTable operators;
+	private InternPool pool;
+	private int maxDepth;
+	private boolean parsed;
+	private Node tree;
+	private SyntaxException failure;
+	private int reused;
+
+	/**
+	 * Create a parser for the first version of an expression.
+	 * @param source The expression.
+	 */
+	public IncrementalParser(String source) {
+		if (source == null)
+			throw new IllegalArgumentException("source");
+		this.source = source;
+		text = new Text(source);
+		tokens = new ArrayList<>();
+		errors = new ArrayList<>();
+		spans = new HashMap<>();
+		operators = OperatorTable.STANDARD;
+		maxDepth = Parser.DEFAULT_MAX_DEPTH;
+		lex(0, tokens, errors, -1, 0, 0);
+	}
+
+	/**
+	 * Get the current text of the expression.
+	 * @return The text with every edit applied.
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * Set how deeply the expression may be nested.
+	 * @param depth The maximum depth, must be at least one.
+	 * @see Parser#setMaxDepth(int)
+	 */
+	public void setMaxDepth(int depth) {
+		if (depth < 1)
+			throw new IllegalArgumentException("depth");
+		maxDepth = depth;
+		reset();
+	}
+
+	/**
+	 * Get how deeply the expression may be nested.
+	 * @return The maximum depth.
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Set the operators the parser understands.
+	 * @param operators The operator table.
+	 */
+	public void setOperators(OperatorTable operators) {
+		if (operators == null)
+			throw new IllegalArgumentException("operators");
+		this.operators = operators;
+		reset();
+	}
+
+	/**
+	 * Get the operators the parser understands.
+	 * @return The operator table.
+	 */
+	public OperatorTable getOperators() {
+		return operators;
+	}
+
+	/**
+	 * Share names and common literals with other trees through a
+	 * pool.
+	 * @param pool The pool to use, or null to use none.
+	 */
+	public void setInternPool(InternPool pool) {
+		this.pool = pool;
+		reset();
+	}
+
+	/**
+	 * Get the pool shared with other trees.
+	 * @return The pool, or null if there is none.
+	 */
+	public InternPool getInternPool() {
+		return pool;
+	}
+
+	// Forget the groups that were parsed with other settings.
+	private void reset() {
+		spans.clear();
+		parsed = false;
+	}
+
+	/**
+	 * The number of parenthesized expressions and function calls
+	 * that the last parse took from the one before it.
+	 * @return Number of groups reused.
+	 */
+	public int getReusedCount() {
+		return reused;
+	}
+
+	// Lex from an offset until a token past the given offset lines
+	// up with an old one, searching the old tokens from the given
+	// index, or until the end. Returns the number of the old token
+	// that lined up, or -1.
+	private int lex(int start, ArrayList<Token> out,
+			ArrayList<SyntaxException> found, int after, int delta,
+			int old) {
+		Lexer lexer = new Lexer(text, found);
+		lexer.seek(start);
+		try {
+			while (true) {
+				Token t = lexer.advance();
+				if (t.getType() == TokenType.EOF)
+					return -1;
+				// Past the edit the text is the same as before, so
+				// once a token starts where an old one did and matches
+				// it, every token after it will match too.
+				if (after >= 0 && t.getOffset() >= after) {
+					int offset = t.getOffset() - delta;
+					while (old < tokens.size() &&
+							tokens.get(old).getOffset() < offset)
+						old++;
+					if (old < tokens.size()) {
+						Token o = tokens.get(old);
+						if (o.getOffset() == offset &&
+								o.getType() == t.getType() &&
+								o.getLength() == t.getLength())
+							return old;
+					}
+				}
+				out.add(t);
+			}
+		}
+		catch (SyntaxException e) {
+			// Lexers that record errors never throw them.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// The same token after the text before it changed length.
+	private Token move(Token t, int delta) {
+		return new Token(t.getType(), text, t.getOffset() + delta,
+				t.getLength());
+	}
+
+	/**
+	 * Replace part of the expression.
+	 * @param offset Where the edit starts in the current text.
+	 * @param removed How many characters are removed.
+	 * @param inserted The text put in their place.
+	 */
+	public void edit(int offset, int removed, String inserted) {
+		if (offset < 0 || offset > source.length())
+			throw new IllegalArgumentException("offset");
+		if (removed < 0 || removed > source.length() - offset)
+			throw new IllegalArgumentException("removed");
+		if (inserted == null)
+			throw new IllegalArgumentException("inserted");
+
+		String changed = source.substring(0, offset) + inserted +
+				source.substring(offset + removed);
+		int delta = inserted.length() - removed;
+
+		// Start at the first token reaching the edit. A token can run
+		// into the one after it, as in "1e" followed by "5", so back up
+		// over every token that touches the next.
+		int first = 0;
+		int hi = tokens.size();
+		while (first < hi) {
+			int mid = (first + hi) >>> 1;
+			Token t = tokens.get(mid);
+			if (t.getOffset() + t.getLength() < offset)
+				first = mid + 1;
+			else
+				hi = mid;
+		}
+		while (first > 0 && first < tokens.size() &&
+				tokens.get(first - 1).getOffset() +
+				tokens.get(first - 1).getLength() ==
+				tokens.get(first).getOffset())
+			first--;
+		int start = first < tokens.size() ?
+				Math.min(tokens.get(first).getOffset(), offset) : offset;
+
+		// The tokens before the edit read characters that did not
+		// change, and the old tokens are only compared by position
+		// from here on.
+		text.value = changed;
+		ArrayList<Token> fresh = new ArrayList<>();
+		ArrayList<SyntaxException> found = new ArrayList<>();
+		int resync = lex(start, fresh, found,
+				offset + inserted.length(), delta, first);
+		int stop = resync < 0 ? Integer.MAX_VALUE :
+				tokens.get(resync).getOffset();
+
+		ArrayList<Token> moved = new ArrayList<>(
+				tokens.size() + fresh.size());
+		moved.addAll(tokens.subList(0, first));
+		moved.addAll(fresh);
+		if (resync >= 0)
+			for (int i = resync; i < tokens.size(); i++)
+				moved.add(delta == 0 ? tokens.get(i) :
+						move(tokens.get(i), delta));
+
+		ArrayList<SyntaxException> kept = new ArrayList<>();
+		for (SyntaxException e : errors)
+			if (e.getOffset() < start)
+				kept.add(e);
+		kept.addAll(found);
+		for (SyntaxException e : errors)
+			if (e.getOffset() >= stop)
+				kept.add(new SyntaxException(e.getMessage(),
+						e.getOffset() + delta, false));
+
+		// Keep the groups entirely before or after the tokens that
+		// were lexed again, renumbering the ones after.
+		int shift = first + fresh.size() - resync;
+		HashMap<Integer, Parser.Span> next = new HashMap<>();
+		for (Map.Entry<Integer, Parser.Span> e : spans.entrySet()) {
+			int key = e.getKey();
+			Parser.Span s = e.getValue();
+			if (s.end <= first)
+				next.put(key, s);
+			else if (resync >= 0 && key >= resync)
+				next.put(key + shift, new Parser.Span(s.node, s.depth,
+						s.end + shift, s.height));
+		}
+
+		source = changed;
+		tokens = moved;
+		errors = kept;
+		spans = next;
+		parsed = false;
+	}
+
+	/**
+	 * Parse the expression as it is now. Calling this again before
+	 * the next edit gives the same result.
+	 * @return The root of the tree.
+	 * @throws SyntaxException When the syntax is illegal.
+	 */
+	public Node parse() throws SyntaxException {
+		if (!parsed) {
+			parsed = true;
+			tree = null;
+			failure = null;
+			Parser parser = new Parser(tokens, source.length());
+			parser.setMaxDepth(maxDepth);
+			parser.setOperators(operators);
+			parser.setInternPool(pool);
+			parser.setSpans(spans);
+			try {
+				if (!errors.isEmpty())
+					throw errors.get(0);
+				tree = parser.parseTree();
+			}
+			catch (SyntaxException e) {
+				failure = e;
+			}
+			reused = parser.reused();
+		}
+		if (failure != null)
+			throw failure;
+		return tree;
+	}
+}
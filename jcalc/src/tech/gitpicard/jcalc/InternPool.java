@@ -0,0 +1,69 @@
+package tech.gitpicard.jcalc;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import tech.gitpicard.jcalc.ast.LiteralNode;
+
+/**
+ * Shares identifier names and common literals between parsed
+ * expressions, so that holding a large number of expressions does
+ * not keep many copies of the same objects. Every name is kept
+ * once, and whole numbers from 0 to {@link #MAX_LITERAL} share a
+ * single literal node, including the values of true and false.
+ * Trees built with a pool share these nodes, which is safe since
+ * nodes cannot be changed. A pool can be used by any number of
+ * parsers at the same time.
+ */
+public final class InternPool {
+
+	/** The largest whole number that is kept as a shared literal. */
+	public static final int MAX_LITERAL = 1024;
+
+	private final ConcurrentHashMap<String, String> names;
+	private final LiteralNode[] literals;
+
+	/**
+	 * Create an empty pool.
+	 */
+	public InternPool() {
+		names = new ConcurrentHashMap<>();
+		literals = new LiteralNode[MAX_LITERAL + 1];
+		for (int i = 0; i < literals.length; i++)
+			literals[i] = new LiteralNode(i);
+	}
+
+	/**
+	 * Get the shared copy of a name.
+	 * @param name The name to look up.
+	 * @return An equal string that is shared by everything using
+	 * the pool.
+	 */
+	public String name(String name) {
+		if (name == null)
+			throw new IllegalArgumentException("name");
+		String shared = names.putIfAbsent(name, name);
+		return shared == null ? name : shared;
+	}
+
+	/**
+	 * Get a literal node holding a value, shared if the value is a
+	 * common one.
+	 * @param value The constant value.
+	 * @return A node holding the value.
+	 */
+	public LiteralNode literal(double value) {
+		// Negative zero is not the same literal as zero.
+		if (value >= 0 && value <= MAX_LITERAL && value == Math.rint(value) &&
+				Double.doubleToRawLongBits(value) != Double.doubleToRawLongBits(-0.0))
+			return literals[(int) value];
+		return new LiteralNode(value);
+	}
+
+	/**
+	 * The number of distinct names held by the pool.
+	 * @return Number of names.
+	 */
+	public int size() {
+		return names.size();
+	}
+}
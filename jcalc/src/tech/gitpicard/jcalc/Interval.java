@@ -0,0 +1,119 @@
+package tech.gitpicard.jcalc;
+
+/**
+ * A closed range of values that an expression or variable may take,
+ * along with whether the value might be NaN. Intervals are used to
+ * reason about an expression for a whole range of inputs at once.
+ */
+public final class Interval {
+
+	/** Every possible value, including NaN. */
+	public static final Interval ALL = new Interval(
+			Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, true);
+
+	// An interval with no numbers in it that can only be NaN.
+	static final Interval NAN = new Interval(
+			Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, true);
+
+	private final double lower;
+	private final double upper;
+	private final boolean nan;
+
+	Interval(double lower, double upper, boolean nan) {
+		this.lower = lower;
+		this.upper = upper;
+		this.nan = nan;
+	}
+
+	/**
+	 * Create an interval covering every value from the lower bound
+	 * to the upper bound, inclusive.
+	 * @param lower The smallest value in the interval.
+	 * @param upper The largest value in the interval.
+	 * @return The new interval.
+	 */
+	public static Interval of(double lower, double upper) {
+		if (Double.isNaN(lower) || lower > upper)
+			throw new IllegalArgumentException("lower");
+		if (Double.isNaN(upper))
+			throw new IllegalArgumentException("upper");
+		return new Interval(lower, upper, false);
+	}
+
+	/**
+	 * Create an interval that holds a single value.
+	 * @param value The value.
+	 * @return The new interval.
+	 */
+	public static Interval point(double value) {
+		if (Double.isNaN(value))
+			return NAN;
+		return new Interval(value, value, false);
+	}
+
+	/**
+	 * The smallest value in the interval.
+	 * @return The lower bound.
+	 */
+	public double getLower() {
+		return lower;
+	}
+
+	/**
+	 * The largest value in the interval.
+	 * @return The upper bound.
+	 */
+	public double getUpper() {
+		return upper;
+	}
+
+	/**
+	 * Checks to see if the value might be NaN.
+	 * @return True if NaN is possible.
+	 */
+	public boolean isNaNPossible() {
+		return nan;
+	}
+
+	/**
+	 * Checks to see if the interval holds no numbers at all, meaning
+	 * that the value can only be NaN.
+	 * @return True if there are no numbers in the interval.
+	 */
+	public boolean isEmpty() {
+		return lower > upper;
+	}
+
+	/**
+	 * Checks to see if the interval holds a value.
+	 * @param value The value to look for.
+	 * @return True if the value is in the interval.
+	 */
+	public boolean contains(double value) {
+		if (Double.isNaN(value))
+			return nan;
+		return lower <= value && value <= upper;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof Interval))
+			return false;
+		Interval i = (Interval) o;
+		return Double.compare(lower, i.lower) == 0 &&
+				Double.compare(upper, i.upper) == 0 && nan == i.nan;
+	}
+
+	@Override
+	public int hashCode() {
+		return Double.hashCode(lower) * 31 + Double.hashCode(upper) +
+				(nan ? 1 : 0);
+	}
+
+	@Override
+	public String toString() {
+		if (isEmpty())
+			return "NaN";
+		return "[" + lower + ", " + upper + "]" + (nan ? " or NaN" : "");
+	}
+}
@@ -0,0 +1,384 @@
+package tech.gitpicard.jcalc;
+
+import java.util.HashMap;
+import java.util.List;
+
+import tech.gitpicard.jcalc.ast.ASTFolder;
+import tech.gitpicard.jcalc.ast.BinaryNode;
+import tech.gitpicard.jcalc.ast.CallNode;
+import tech.gitpicard.jcalc.ast.LiteralNode;
+import tech.gitpicard.jcalc.ast.Node;
+import tech.gitpicard.jcalc.ast.UnaryNode;
+import tech.gitpicard.jcalc.ast.VariableNode;
+
+/**
+ * Evaluates an expression over a range of values for each variable
+ * instead of a single value. The resulting interval holds every value
+ * the calculator could produce for inputs within those ranges, which
+ * makes it possible to decide a predicate for a whole block of data
+ * from its minimum and maximum without looking at each row.
+ * <p>
+ * The bounds are computed with the same double arithmetic as the
+ * calculator, so they are exact at the end points but may be wider
+ * than necessary elsewhere. Function calls are assumed to be able to
+ * return anything.
+ */
+public final class IntervalEvaluator implements ASTFolder<Interval> {
+
+	private HashMap<String, Interval> bounds;
+
+	/**
+	 * Create a new evaluator with no variable bounds.
+	 */
+	public IntervalEvaluator() {
+		bounds = new HashMap<>();
+	}
+
+	/**
+	 * Set the range of values that a variable may take.
+	 * @param name The name of the variable.
+	 * @param lower The smallest value of the variable.
+	 * @param upper The largest value of the variable.
+	 */
+	public void setBounds(String name, double lower, double upper) {
+		setBounds(name, Interval.of(lower, upper));
+	}
+
+	/**
+	 * Set the range of values that a variable may take.
+	 * @param name The name of the variable.
+	 * @param range The values the variable may take.
+	 */
+	public void setBounds(String name, Interval range) {
+		if (name == null)
+			throw new IllegalArgumentException("name");
+		if (range == null)
+			throw new IllegalArgumentException("range");
+		bounds.put(name, range);
+	}
+
+	/**
+	 * Get the range of values that a variable may take.
+	 * @param name The name of the variable.
+	 * @return The values the variable may take.
+	 */
+	public Interval getBounds(String name) {
+		if (name == null || !bounds.containsKey(name))
+			throw new IllegalArgumentException("name");
+		return bounds.get(name);
+	}
+
+	/**
+	 * Compute every value the expression could evaluate to.
+	 * @param node The root of the expression.
+	 * @return The range of possible results.
+	 * @throws EvalException When a variable has no bounds.
+	 */
+	public Interval eval(Node node) throws EvalException {
+		if (node == null)
+			throw new IllegalArgumentException("node");
+		return node.fold(this);
+	}
+
+	/**
+	 * Decide a predicate for every input within the bounds. Like the
+	 * calculator's not operator, only the value 0 is considered false
+	 * and everything else, including NaN, is true.
+	 * @param node The root of the predicate expression.
+	 * @return Whether the predicate is true for all, none, or only
+	 * some of the inputs.
+	 * @throws EvalException When a variable has no bounds.
+	 */
+	public Truth test(Node node) throws EvalException {
+		Interval i = eval(node);
+		if (!i.isNaNPossible() && i.getLower() == 0.0 &&
+				i.getUpper() == 0.0)
+			return Truth.FALSE;
+		if (!i.contains(0.0))
+			return Truth.TRUE;
+		return Truth.UNKNOWN;
+	}
+
+	@Override
+	public Interval fold(BinaryNode node, Interval left, Interval right)
+			throws EvalException {
+		switch (node.getOperation()) {
+		case ADD:
+			return add(left, right);
+		case SUB:
+			return add(left, negate(right));
+		case MULT:
+			return mult(left, right);
+		case DIV:
+			return div(left, right);
+		case POW:
+			return pow(left, right);
+		case MOD:
+			return mod(left, right);
+		case EQLS:
+			return equals(left, right, false);
+		case NOT_EQLS:
+			return equals(left, right, true);
+		case LESS:
+			return bool(left.getLower() < right.getUpper(),
+					left.getUpper() >= right.getLower() ||
+					left.isNaNPossible() || right.isNaNPossible());
+		case GREATER:
+			return bool(left.getUpper() > right.getLower(),
+					left.getLower() <= right.getUpper() ||
+					left.isNaNPossible() || right.isNaNPossible());
+		case LESS_OR_EQLS:
+			return bool(left.getLower() <= right.getUpper(),
+					left.getUpper() > right.getLower() ||
+					left.isNaNPossible() || right.isNaNPossible());
+		case GREATER_OR_EQLS:
+			return bool(left.getUpper() >= right.getLower(),
+					left.getLower() < right.getUpper() ||
+					left.isNaNPossible() || right.isNaNPossible());
+		case AND:
+			return bool(canBeTrue(left) && canBeTrue(right),
+					left.contains(0.0) || right.contains(0.0));
+		case OR:
+			return bool(canBeTrue(left) || canBeTrue(right),
+					left.contains(0.0) && right.contains(0.0));
+		default:
+			throw new EvalException("Illegal binary operation.");
+		}
+	}
+
+	@Override
+	public Interval fold(UnaryNode node, Interval right)
+			throws EvalException {
+		if (node.getOperation() == Operation.NEGATE)
+			return negate(right);
+		else if (node.getOperation() == Operation.NOT) {
+			return bool(right.contains(0.0), canBeTrue(right));
+		}
+
+		throw new EvalException("Illegal unary operation.");
+	}
+
+	// Only the value 0 is considered false, and NaN is not 0.
+	private static boolean canBeTrue(Interval i) {
+		return i.isNaNPossible() || i.getLower() != 0.0 ||
+				i.getUpper() != 0.0;
+	}
+
+	@Override
+	public Interval fold(LiteralNode node) throws EvalException {
+		return Interval.point(node.getValue());
+	}
+
+	@Override
+	public Interval fold(VariableNode node) throws EvalException {
+		String s = node.getIdentifer();
+		Interval i = bounds.get(s);
+		if (i == null)
+			throw new EvalException("No variable '" + s + "' found.");
+		return i;
+	}
+
+	@Override
+	public Interval fold(CallNode node, List<Interval> args)
+			throws EvalException {
+		return Interval.ALL;
+	}
+
+	// The result of a comparison, which is always 0 or 1.
+	private static Interval bool(boolean canBeTrue, boolean canBeFalse) {
+		if (canBeTrue && canBeFalse)
+			return Interval.of(0.0, 1.0);
+		return Interval.point(canBeTrue ? 1.0 : 0.0);
+	}
+
+	// The smallest interval holding every candidate value. The
+	// operations handled this way are monotonic in each argument
+	// so their extremes are found at the corners.
+	private static Interval range(boolean nan, double... candidates) {
+		double lo = Double.POSITIVE_INFINITY;
+		double hi = Double.NEGATIVE_INFINITY;
+		for (double d : candidates) {
+			if (Double.isNaN(d))
+				nan = true;
+			else {
+				lo = Math.min(lo, d);
+				hi = Math.max(hi, d);
+			}
+		}
+		return new Interval(lo, hi, nan);
+	}
+
+	private static boolean infinite(Interval i) {
+		return Double.isInfinite(i.getLower()) ||
+				Double.isInfinite(i.getUpper());
+	}
+
+	private static Interval negate(Interval a) {
+		if (a.isEmpty())
+			return a;
+		return new Interval(-a.getUpper(), -a.getLower(), a.isNaNPossible());
+	}
+
+	private static Interval add(Interval a, Interval b) {
+		if (a.isEmpty() || b.isEmpty())
+			return Interval.NAN;
+		// Adding opposite infinities only happens at the end points
+		// so the corners will find it.
+		return range(a.isNaNPossible() || b.isNaNPossible(),
+				a.getLower() + b.getLower(), a.getLower() + b.getUpper(),
+				a.getUpper() + b.getLower(), a.getUpper() + b.getUpper());
+	}
+
+	private static Interval mult(Interval a, Interval b) {
+		if (a.isEmpty() || b.isEmpty())
+			return Interval.NAN;
+		// Zero times infinity is NaN, but the zero could be
+		// anywhere inside the interval. The zero times the finite
+		// values of the other side is still zero, even when every
+		// corner is NaN.
+		boolean zero = (a.contains(0.0) && infinite(b)) ||
+				(b.contains(0.0) && infinite(a));
+		Interval r = range(a.isNaNPossible() || b.isNaNPossible() || zero,
+				a.getLower() * b.getLower(), a.getLower() * b.getUpper(),
+				a.getUpper() * b.getLower(), a.getUpper() * b.getUpper());
+		return zero ? union(r, Interval.point(0.0)) : r;
+	}
+
+	private static Interval div(Interval a, Interval b) {
+		if (a.isEmpty() || b.isEmpty())
+			return Interval.NAN;
+		boolean nan = a.isNaNPossible() || b.isNaNPossible() ||
+				(a.contains(0.0) && b.contains(0.0)) ||
+				(infinite(a) && infinite(b));
+		// Dividing by a zero gives an infinity whose sign depends on
+		// the sign of the zero, so nothing useful can be said.
+		if (b.contains(0.0))
+			return new Interval(Double.NEGATIVE_INFINITY,
+					Double.POSITIVE_INFINITY, nan);
+		Interval r = range(nan,
+				a.getLower() / b.getLower(), a.getLower() / b.getUpper(),
+				a.getUpper() / b.getLower(), a.getUpper() / b.getUpper());
+		// An infinity over an infinity is NaN, but a finite value over
+		// the same infinity is zero.
+		if (infinite(a) && infinite(b))
+			r = union(r, Interval.point(0.0));
+		return r;
+	}
+
+	private static Interval mod(Interval a, Interval b) {
+		if (a.isEmpty() || b.isEmpty() ||
+				(a.getLower() == a.getUpper() && infinite(a)) ||
+				(b.getLower() == 0.0 && b.getUpper() == 0.0))
+			return Interval.NAN;
+		boolean nan = a.isNaNPossible() || b.isNaNPossible() ||
+				b.contains(0.0) || infinite(a);
+
+		// The remainder has the sign of the dividend and is smaller
+		// in magnitude than both the dividend and the divisor.
+		double most = Math.max(Math.abs(b.getLower()),
+				Math.abs(b.getUpper()));
+		double least = 0.0;
+		if (b.getLower() > 0.0)
+			least = b.getLower();
+		else if (b.getUpper() < 0.0)
+			least = -b.getUpper();
+
+		// Dividends smaller than every divisor are left unchanged.
+		if (a.getLower() >= 0.0 && a.getUpper() < least)
+			return new Interval(a.getLower(), a.getUpper(), nan);
+		if (a.getUpper() <= 0.0 && a.getLower() > -least)
+			return new Interval(a.getLower(), a.getUpper(), nan);
+
+		// The remainder is exact so it is strictly smaller than the
+		// largest divisor.
+		most = Math.nextDown(most);
+		double lo = a.getLower() >= 0.0 ? 0.0 : Math.max(a.getLower(), -most);
+		double hi = a.getUpper() <= 0.0 ? 0.0 : Math.min(a.getUpper(), most);
+		return new Interval(lo, hi, nan);
+	}
+
+	private static Interval pow(Interval a, Interval b) {
+		// Anything to the power of zero is one, even NaN.
+		Interval result = b.contains(0.0) ?
+				Interval.point(1.0) : new Interval(
+						Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+						false);
+		if (b.isEmpty() || b.isNaNPossible())
+			result = union(result, Interval.NAN);
+		if (b.isEmpty())
+			return result;
+		if (a.isNaNPossible() && !(b.getLower() == 0.0 &&
+				b.getUpper() == 0.0))
+			result = union(result, Interval.NAN);
+
+		// Bases of zero or more.
+		if (a.getUpper() >= 0.0) {
+			Interval base = new Interval(Math.max(a.getLower(), 0.0),
+					a.getUpper(), false);
+			Interval part = powPositive(base, b);
+			// A negative zero base with a negative odd exponent gives
+			// negative infinity.
+			if (base.getLower() == 0.0 && b.getLower() < 0.0)
+				part = new Interval(Double.NEGATIVE_INFINITY,
+						part.getUpper(), part.isNaNPossible());
+			result = union(result, part);
+		}
+
+		// Negative bases only have real results for whole exponents,
+		// so the exponent has to be known exactly to be precise.
+		if (a.getLower() < 0.0) {
+			Interval base = new Interval(
+					Math.max(-Math.min(a.getUpper(), 0.0), Double.MIN_VALUE),
+					-a.getLower(), false);
+			double y = b.getLower();
+			if (y != b.getUpper())
+				return union(result, Interval.ALL);
+			else if (Double.isInfinite(y) || y % 2.0 == 0.0)
+				result = union(result, powPositive(base, b));
+			else if (Math.rint(y) == y)
+				result = union(result, negate(powPositive(base, b)));
+			else {
+				result = union(result, Interval.NAN);
+				// Negative infinity is the one negative base with a
+				// real result for a fractional exponent.
+				if (a.getLower() == Double.NEGATIVE_INFINITY)
+					result = union(result, Interval.point(
+							y > 0.0 ? Double.POSITIVE_INFINITY : 0.0));
+			}
+		}
+
+		return result;
+	}
+
+	// Power with a base of zero or more. Moving away from a base of
+	// one or an exponent of zero only moves the result one way, so
+	// the extremes are found at the corners or are exactly one.
+	private static Interval powPositive(Interval a, Interval b) {
+		boolean nan = a.contains(1.0) && infinite(b);
+		Interval corners = range(nan,
+				Math.pow(a.getLower(), b.getLower()),
+				Math.pow(a.getLower(), b.getUpper()),
+				Math.pow(a.getUpper(), b.getLower()),
+				Math.pow(a.getUpper(), b.getUpper()));
+		if (a.contains(1.0) || b.contains(0.0))
+			corners = union(corners, Interval.point(1.0));
+		return corners;
+	}
+
+	private static Interval union(Interval a, Interval b) {
+		return new Interval(Math.min(a.getLower(), b.getLower()),
+				Math.max(a.getUpper(), b.getUpper()),
+				a.isNaNPossible() || b.isNaNPossible());
+	}
+
+	private static Interval equals(Interval a, Interval b, boolean invert) {
+		boolean canBeEqual = a.getLower() <= b.getUpper() &&
+				b.getLower() <= a.getUpper();
+		boolean mustBeEqual = !a.isNaNPossible() && !b.isNaNPossible() &&
+				a.getLower() == a.getUpper() && b.getLower() == b.getUpper() &&
+				a.getLower() == b.getLower();
+		if (invert)
+			return bool(!mustBeEqual, canBeEqual);
+		return bool(canBeEqual, !mustBeEqual);
+	}
+}
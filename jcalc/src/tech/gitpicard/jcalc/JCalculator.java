@@ -1,11 +1,21 @@
 package tech.gitpicard.jcalc;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 import tech.gitpicard.jcalc.ast.ASTVisitor;
 import tech.gitpicard.jcalc.ast.BinaryNode;
 import tech.gitpicard.jcalc.ast.CallNode;
 import tech.gitpicard.jcalc.ast.LiteralNode;
+import tech.gitpicard.jcalc.ast.Node;
 import tech.gitpicard.jcalc.ast.UnaryNode;
 import tech.gitpicard.jcalc.ast.VariableNode;
 
@@ -16,8 +26,49 @@ import tech.gitpicard.jcalc.ast.VariableNode;
  */
 public final class JCalculator implements ASTVisitor {
 	
+	// How many specialized programs are kept before the least recently
+	// used one is dropped.
+	private static final int SPECIALIZED = 64;
+	
+	// The source and fixed values a program was specialized for.
+	private static final class Specialization {
+		final String source;
+		final HashMap<String, Double> fixed;
+		
+		Specialization(String source, Map<String, Double> fixed) {
+			this.source = source;
+			this.fixed = new HashMap<>(fixed);
+		}
+		
+		@Override
+		public int hashCode() {
+			return source.hashCode() * 31 + fixed.hashCode();
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Specialization))
+				return false;
+			Specialization other = (Specialization) o;
+			// Doubles are compared by their bits, so zero and negative
+			// zero are different fixed values.
+			return source.equals(other.source) && fixed.equals(other.fixed);
+		}
+	}
+	
 	private HashMap<String, Double> variables;
 	private HashMap<String, Function> functions;
+	private HashMap<String, AsyncFunction> asyncFunctions;
+	private HashMap<String, Derivative> derivatives;
+	private VariableResolver resolver;
+	private FunctionRegistry registry;
+	private InternPool pool;
+	private OperatorTable operators;
+	private int maxDepth;
+	private LinkedHashMap<Specialization, Program> specialized;
+	// Replaced whenever a function name may resolve to something
+	// else, so that programs bound before then are bound again.
+	private Object generation;
 	
 	/**
 	 * Create a new expression interpreter.
@@ -25,6 +76,86 @@ public final class JCalculator implements ASTVisitor {
 	public JCalculator() {
 		variables = new HashMap<>();
 		functions = new HashMap<>();
+		asyncFunctions = new HashMap<>();
+		derivatives = new HashMap<>();
+		maxDepth = Parser.DEFAULT_MAX_DEPTH;
+		operators = OperatorTable.STANDARD;
+		generation = new Object();
+		specialized = new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<Specialization, Program> eldest) {
+				return size() > SPECIALIZED;
+			}
+		};
+	}
+	
+	/**
+	 * Set how deeply expressions may be nested before they are
+	 * rejected with a syntax error.
+	 * @param depth The maximum depth, must be at least one.
+	 */
+	public void setMaxDepth(int depth) {
+		if (depth < 1)
+			throw new IllegalArgumentException("depth");
+		maxDepth = depth;
+		specialized.clear();
+	}
+	
+	/**
+	 * Get how deeply expressions may be nested.
+	 * @return The maximum depth.
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+	
+	/**
+	 * Share names and common literals between the expressions this
+	 * calculator parses, and with anything else using the pool.
+	 * @param pool The pool to use, or null to use none.
+	 */
+	public void setInternPool(InternPool pool) {
+		this.pool = pool;
+	}
+	
+	/**
+	 * Get the pool used when parsing.
+	 * @return The pool, or null if there is none.
+	 */
+	public InternPool getInternPool() {
+		return pool;
+	}
+	
+	/**
+	 * Set the operators understood by the expressions this
+	 * calculator parses. Operators that call a function need that
+	 * function to be defined.
+	 * @param operators The operator table.
+	 */
+	public void setOperators(OperatorTable operators) {
+		if (operators == null)
+			throw new IllegalArgumentException("operators");
+		this.operators = operators;
+		specialized.clear();
+	}
+	
+	/**
+	 * Get the operators understood when parsing.
+	 * @return The operator table.
+	 */
+	public OperatorTable getOperators() {
+		return operators;
+	}
+	
+	Node parse(String source) throws SyntaxException {
+		Parser parser = new Parser(new Lexer(source));
+		parser.setMaxDepth(maxDepth);
+		parser.setInternPool(pool);
+		parser.setOperators(operators);
+		return parser.parseTree();
 	}
 	
 	/**
@@ -36,7 +167,7 @@ public final class JCalculator implements ASTVisitor {
 	public void setVariable(String name, double value) {
 		if (name == null)
 			throw new IllegalArgumentException("name");
-		if (functions.containsKey(name))
+		if (isFunction(name))
 			throw new IllegalArgumentException("name");
 		// Make sure that the name is legal.
 		for (int i = 0; i < name.length(); i++) {
@@ -72,6 +203,63 @@ public final class JCalculator implements ASTVisitor {
 		return variables.containsKey(name);
 	}
 	
+	/**
+	 * Set the resolver asked for the value of any variable that has
+	 * not been set on the calculator. It is only asked for the
+	 * variables an expression actually reads, each time it is
+	 * evaluated.
+	 * @param resolver The resolver, or null to have no resolver.
+	 */
+	public void setResolver(VariableResolver resolver) {
+		this.resolver = resolver;
+	}
+	
+	/**
+	 * Get the resolver used for variables that have not been set.
+	 * @return The resolver, or null if there is none.
+	 */
+	public VariableResolver getResolver() {
+		return resolver;
+	}
+	
+	// Find the value of a variable, asking the resolver if it has
+	// not been set.
+	double lookup(String name) throws EvalException {
+		Double value = variables.get(name);
+		if (value != null)
+			return value;
+		if (resolver != null)
+			return resolver.resolve(name);
+		throw new EvalException("No variable '" + name + "' found.");
+	}
+	
+	/**
+	 * Share a registry of functions with other calculators. Functions
+	 * set on this calculator take the place of registry functions
+	 * with the same name.
+	 * @param registry The registry, or null to have none.
+	 */
+	public void setFunctionRegistry(FunctionRegistry registry) {
+		this.registry = registry;
+		generation = new Object();
+	}
+	
+	/**
+	 * Get the shared registry of functions.
+	 * @return The registry, or null if there is none.
+	 */
+	public FunctionRegistry getFunctionRegistry() {
+		return registry;
+	}
+	
+	// Find a function set on the calculator or in the registry.
+	Function function(String name) {
+		Function f = functions.get(name);
+		if (f == null && registry != null)
+			f = registry.get(name);
+		return f;
+	}
+	
 	/**
 	 * Define a function that can be called by the expression.
 	 * @param name The name of the function.
@@ -93,6 +281,36 @@ public final class JCalculator implements ASTVisitor {
 		}
 		
 		functions.put(name, func);
+		asyncFunctions.remove(name);
+		generation = new Object();
+	}
+	
+	/**
+	 * Define a function that returns its result later. When the
+	 * expression is evaluated with {@link #evalAsync} the calls to
+	 * it are batched and run at the same time as other calls. Any
+	 * other kind of evaluation waits for each call to finish.
+	 * @param name The name of the function.
+	 * @param func Interface to the code to execute.
+	 */
+	public void setAsyncFunction(String name, AsyncFunction func) {
+		if (func == null)
+			throw new IllegalArgumentException("func");
+		setFunction(name, (args) -> join(func.call(args)));
+		asyncFunctions.put(name, func);
+	}
+	
+	// Wait for the result of an asynchronous call.
+	private static double join(CompletableFuture<Double> future)
+			throws EvalException {
+		try {
+			return future.join();
+		}
+		catch (CompletionException e) {
+			if (e.getCause() instanceof EvalException)
+				throw (EvalException) e.getCause();
+			throw e;
+		}
 	}
 	
 	/**
@@ -103,9 +321,24 @@ public final class JCalculator implements ASTVisitor {
 	public Function getFunction(String name) {
 		if (name == null)
 			throw new IllegalArgumentException("name");
-		if (!functions.containsKey(name))
+		Function f = function(name);
+		if (f == null)
 			throw new IllegalArgumentException("name");
-		return functions.get(name);
+		return f;
+	}
+	
+	/**
+	 * Define the derivative of a function so that expressions calling
+	 * it can be differentiated.
+	 * @param name The name of the function.
+	 * @param deriv Interface to the code that computes the derivative.
+	 */
+	public void setDerivative(String name, Derivative deriv) {
+		if (name == null)
+			throw new IllegalArgumentException("name");
+		if (deriv == null)
+			throw new IllegalArgumentException("deriv");
+		derivatives.put(name, deriv);
 	}
 	
 	/**
@@ -115,11 +348,13 @@ public final class JCalculator implements ASTVisitor {
 	 * @return True if it is a function.
 	 */
 	public boolean isFunction(String name) {
-		return functions.containsKey(name);
+		return function(name) != null;
 	}
 	
 	/**
 	 * Evaluates the expression and immediately returns the result.
+	 * The expression is compiled first so that evaluation does not
+	 * recurse, no matter how deeply the expression is nested.
 	 * @param source The string to parse and evaluate.
 	 * @return The resulting value.
 	 * @throws SyntaxException When there is a syntax error.
@@ -127,7 +362,275 @@ public final class JCalculator implements ASTVisitor {
 	 */
 	public double eval(String source)
 			throws SyntaxException, EvalException {
-		return new Parser(new Lexer(source)).parseTree().accept(this);
+		return eval(compile(source));
+	}
+
+	/**
+	 * Evaluates an expression, running the function calls that do
+	 * not depend on each other at the same time. Each call is started
+	 * as soon as its own arguments are known, and the calls that
+	 * become ready together are started together, with the calls to
+	 * each asynchronous function sent as one batch. Ordinary functions
+	 * are treated as blocking and each call runs as its own task on
+	 * the executor. Identical calls are only made once.
+	 * @param source The string to parse and evaluate.
+	 * @param executor Runs the calls to ordinary functions.
+	 * @return The resulting value, or a failure with an
+	 * {@link EvalException} when there is a runtime evaluation error.
+	 * @throws SyntaxException When there is a syntax error.
+	 */
+	public CompletableFuture<Double> evalAsync(String source,
+			Executor executor) throws SyntaxException {
+		if (executor == null)
+			throw new IllegalArgumentException("executor");
+		return new AsyncEvaluation(parse(source), this::lookup,
+				new HashMap<>(functions), registry,
+				new HashMap<>(asyncFunctions), executor).run();
+	}
+
+	/**
+	 * Parse and compile an expression into a program that can be
+	 * evaluated many times without parsing it again.
+	 * @param source The string to parse and compile.
+	 * @return The compiled program.
+	 * @throws SyntaxException When there is a syntax error.
+	 */
+	public Program compile(String source) throws SyntaxException {
+		return Program.compile(parse(source));
+	}
+
+	/**
+	 * Parse and compile an expression, running the parts of it that
+	 * only ever produce whole numbers with exact integer arithmetic.
+	 * @param source The string to parse and compile.
+	 * @param integers The names of the variables that only ever hold
+	 * whole numbers.
+	 * @return The compiled program.
+	 * @throws SyntaxException When there is a syntax error.
+	 * @see Program#compile(Node, Set)
+	 */
+	public Program compile(String source, Set<String> integers)
+			throws SyntaxException {
+		return Program.compile(parse(source), integers);
+	}
+
+	/**
+	 * Check an expression without evaluating it, collecting every
+	 * problem found instead of throwing an exception for the first
+	 * one. Besides syntax errors, every variable and function the
+	 * expression uses that has not been defined is reported. After
+	 * an error in the structure, checking carries on from the next
+	 * comma, closing parenthesis or the end of the expression, so
+	 * several such errors can be reported at once. Variables are not
+	 * checked when there is a resolver. Invalid
+	 * expressions cost about as much to check as valid ones.
+	 * @param source The expression to check.
+	 * @return The problems that were found.
+	 */
+	public Validation validate(String source) {
+		if (source == null)
+			throw new IllegalArgumentException("source");
+
+		ArrayList<SyntaxException> errors = new ArrayList<>();
+		Parser parser = new Parser(new Lexer(source, errors));
+		parser.setMaxDepth(maxDepth);
+		parser.setInternPool(pool);
+		parser.setOperators(operators);
+		parser.setTrace(false);
+		parser.setRecovery(errors);
+		Node tree = null;
+		try {
+			tree = parser.parseTree();
+		}
+		catch (SyntaxException e) {
+			errors.add(e);
+		}
+
+		ArrayList<Diagnostic> found = new ArrayList<>();
+		for (SyntaxException e : errors)
+			found.add(new Diagnostic(e.getMessage(), e.getOffset()));
+		// Names can be checked from the tokens even when the
+		// structure is broken.
+		ArrayList<Token> tokens = parser.tokens();
+		for (int i = 0; i < tokens.size(); i++) {
+			Token t = tokens.get(i);
+			if (t.getType() != TokenType.IDENTIFIER)
+				continue;
+			String name = t.getContents();
+			boolean call = i + 1 < tokens.size() &&
+					tokens.get(i + 1).getType() == TokenType.LEFT_PARENTHESIS;
+			if (call && function(name) == null)
+				found.add(new Diagnostic("No function '" + name + "' found.",
+						t.getOffset()));
+			else if (!call && resolver == null && !variables.containsKey(name))
+				found.add(new Diagnostic("No variable '" + name + "' found.",
+						t.getOffset()));
+		}
+		return new Validation(found, errors.isEmpty() ? tree : null);
+	}
+
+	/**
+	 * Compile an expression with some of its variables fixed to
+	 * known values. The fixed variables are replaced by their values
+	 * and the parts of the expression that only depend on them are
+	 * computed once, leaving a smaller program that only reads the
+	 * variables that still vary. The most recently used programs are
+	 * kept, so specializing the same source with the same fixed values
+	 * again returns the same program without parsing it again.
+	 * @param source The string to parse and compile.
+	 * @param fixed The value of each fixed variable.
+	 * @return The compiled residual program.
+	 * @throws SyntaxException When there is a syntax error.
+	 * @throws EvalException When there is a runtime evaluation error
+	 * while simplifying.
+	 */
+	public Program specialize(String source, Map<String, Double> fixed)
+			throws SyntaxException, EvalException {
+		if (source == null)
+			throw new IllegalArgumentException("source");
+		if (fixed == null)
+			throw new IllegalArgumentException("fixed");
+		Specialization key = new Specialization(source, fixed);
+		Program program = specialized.get(key);
+		if (program == null) {
+			program = Program.compile(parse(source).fold(
+					new Specializer(key.fixed, this)));
+			specialized.put(key, program);
+		}
+		return program;
+	}
+
+	/**
+	 * Find the names of the variables an expression reads, so that
+	 * only those need to be set or resolved.
+	 * @param source The expression to look at.
+	 * @return The names, in the order they first appear.
+	 * @throws SyntaxException When there is a syntax error.
+	 */
+	public Set<String> getReferencedVariables(String source)
+			throws SyntaxException {
+		Program program = compile(source);
+		LinkedHashSet<String> names = new LinkedHashSet<>();
+		for (int i = 0; i < program.getVariableCount(); i++)
+			names.add(program.getVariable(i));
+		return Collections.unmodifiableSet(names);
+	}
+
+	/**
+	 * Evaluates a compiled program using the variables and
+	 * functions currently defined in this calculator.
+	 * @param program The program to run.
+	 * @return The resulting value.
+	 * @throws EvalException When there is a runtime evaluation error.
+	 */
+	public double eval(Program program) throws EvalException {
+		if (program == null)
+			throw new IllegalArgumentException("program");
+		return program.run(bindVariables(program), bindFunctions(program));
+	}
+	
+	/**
+	 * Prepare an expression to be evaluated again and again as its
+	 * variables change one at a time, such as while a slider is
+	 * dragged. The variables start out with their current values in
+	 * this calculator.
+	 * @param source The string to parse and compile.
+	 * @return The prepared expression, already evaluated once.
+	 * @throws SyntaxException When there is a syntax error.
+	 * @throws EvalException When there is a runtime evaluation error.
+	 */
+	public IncrementalEvaluator prepare(String source)
+			throws SyntaxException, EvalException {
+		Program program = compile(source);
+		return new IncrementalEvaluator(program, bindVariables(program),
+				bindFunctions(program));
+	}
+
+	// Look up the current value of each variable slot.
+	private double[] bindVariables(Program program) throws EvalException {
+		double[] vars = new double[program.getVariableCount()];
+		for (int i = 0; i < vars.length; i++)
+			vars[i] = lookup(program.getVariable(i));
+		return vars;
+	}
+	
+	// Look up the function for each function slot. The functions are
+	// kept on the program until a name may resolve to something else,
+	// so the array is shared and must not be changed.
+	Function[] bindFunctions(Program program) throws EvalException {
+		Program.Binding b = program.binding;
+		if (b != null && b.generation == generation)
+			return b.functions;
+		Function[] funcs = new Function[program.getFunctionCount()];
+		for (int i = 0; i < funcs.length; i++) {
+			String s = program.getFunction(i);
+			funcs[i] = function(s);
+			if (funcs[i] == null)
+				throw new EvalException("No function '" + s + "' found.");
+		}
+		program.binding = new Program.Binding(generation, funcs);
+		return funcs;
+	}
+	
+	// Look up the derivative for each function slot. Missing ones
+	// are left empty since they may never be needed.
+	private Derivative[] bindDerivatives(Program program) {
+		Derivative[] derivs = new Derivative[program.getFunctionCount()];
+		for (int i = 0; i < derivs.length; i++)
+			derivs[i] = derivatives.get(program.getFunction(i));
+		return derivs;
+	}
+	
+	/**
+	 * Parse and compile an expression so that it can be
+	 * differentiated.
+	 * @param source The string to parse and compile.
+	 * @return The differentiable program.
+	 * @throws SyntaxException When there is a syntax error.
+	 */
+	public Gradient differentiate(String source) throws SyntaxException {
+		return Gradient.compile(compile(source));
+	}
+	
+	/**
+	 * Evaluates an expression along with its partial derivative with
+	 * respect to every variable it uses, in a single pass.
+	 * @param gradient The differentiable program to run.
+	 * @param partials Receives the partial derivative for each variable
+	 * slot of the program.
+	 * @return The resulting value.
+	 * @throws EvalException When there is a runtime evaluation error.
+	 */
+	public double eval(Gradient gradient, double[] partials)
+			throws EvalException {
+		if (gradient == null)
+			throw new IllegalArgumentException("gradient");
+		Program program = gradient.getProgram();
+		return gradient.run(bindVariables(program), bindFunctions(program),
+				bindDerivatives(program), partials);
+	}
+	
+	/**
+	 * Computes the derivative of an expression with respect to a
+	 * single variable.
+	 * @param gradient The differentiable program to run.
+	 * @param name The variable to differentiate with respect to.
+	 * @return The derivative.
+	 * @throws EvalException When there is a runtime evaluation error.
+	 */
+	public double derivative(Gradient gradient, String name)
+			throws EvalException {
+		if (gradient == null)
+			throw new IllegalArgumentException("gradient");
+		if (name == null)
+			throw new IllegalArgumentException("name");
+		Program program = gradient.getProgram();
+		double[] direction = new double[program.getVariableCount()];
+		for (int i = 0; i < direction.length; i++)
+			if (program.getVariable(i).equals(name))
+				direction[i] = 1.0;
+		return gradient.tangent(bindVariables(program),
+				direction, bindFunctions(program), bindDerivatives(program));
 	}
 
 	@Override
@@ -161,6 +664,10 @@ public final class JCalculator implements ASTVisitor {
 			return left <= right ? 1.0 : 0.0;
 		case GREATER_OR_EQLS:
 			return left >= right ? 1.0 : 0.0;
+		case AND:
+			return left != 0.0 && right != 0.0 ? 1.0 : 0.0;
+		case OR:
+			return left != 0.0 || right != 0.0 ? 1.0 : 0.0;
 		default:
 			throw new EvalException("Illegal binary operation.");
 		}
@@ -189,16 +696,14 @@ public final class JCalculator implements ASTVisitor {
 
 	@Override
 	public double visit(VariableNode node) throws EvalException {
-		String s = node.getIdentifer();
-		if (!variables.containsKey(s))
-			throw new EvalException("No variable '" + s + "' found.");
-		return variables.get(s);
+		return lookup(node.getIdentifer());
 	}
 
 	@Override
 	public double visit(CallNode node) throws EvalException {
 		String s = node.getFunction();
-		if (!functions.containsKey(s))
+		Function f = function(s);
+		if (f == null)
 			throw new EvalException("No function '" + s + "' found.");
 		
 		// Evaluate all the argument expressions.
@@ -206,6 +711,6 @@ public final class JCalculator implements ASTVisitor {
 		for (int i = 0; i < args.length; i++)
 			args[i] = node.getArguments()[i].accept(this);
 		
-		return functions.get(s).call(args);
+		return f.call(args);
 	}
 }
@@ -1,57 +1,82 @@
 package tech.gitpicard.jcalc;
 
-import java.util.Stack;
+import java.util.List;
 
 /**
  * Used to pick out context free tokens from a source
  * expression. These tokens are then used to build an
  * abstract syntax tree that can be evaluated to get a
- * numerical result. 
+ * numerical result. The source can be any character sequence,
+ * such as a {@link java.nio.CharBuffer} over a mapped file, and
+ * tokens refer to ranges of it rather than copying its text.
  */
 public final class Lexer {
 	
-	private Stack<Character> sourceStack;
+	private CharSequence source;
+	private int pos;
+	private int length;
+	private List<SyntaxException> errors;
 	
 	/**
 	 * Create a new lexer that will consume tokens from a string
 	 * containing an expression.
 	 * @param source The expression to tokenize.
 	 */
-	public Lexer(String source) {
+	public Lexer(CharSequence source) {
 		if (source == null)
 			throw new IllegalArgumentException("source");
-		// Convert the expression to a stack that we can easily
-		// move through. The string will need to be pushed on
-		// backwards to put it on the stack in the correct order.
-		sourceStack = new Stack<>();
-		for (int i = source.length() - 1; i >= 0; i--)
-			sourceStack.push(source.charAt(i));
+		this.source = source;
+		pos = 0;
+		length = source.length();
+	}
+	
+	// Create a lexer that records unidentified tokens in a list and
+	// skips them instead of stopping.
+	Lexer(CharSequence source, List<SyntaxException> errors) {
+		this(source);
+		this.errors = errors;
+	}
+	
+	// Carry on from an offset that starts a token or whitespace.
+	void seek(int offset) {
+		pos = offset;
+	}
+	
+	// The offset of the next character in the source.
+	private int position() {
+		return pos;
+	}
+	
+	private boolean empty() {
+		return pos >= length;
+	}
+	
+	private char peek() {
+		return source.charAt(pos);
 	}
 	
 	private boolean isSpace() {
-		if (sourceStack.empty())
+		if (empty())
 			return false;
-		return Character.isWhitespace(sourceStack.peek());
+		return Character.isWhitespace(peek());
 	}
 	
 	private void consumeWhitespace() {
 		while (isSpace())
-			sourceStack.pop();
+			pos++;
 	}
 	
 	private boolean isNumber() {
-		if (sourceStack.empty())
+		if (empty())
 			return false;
-		return Character.isDigit(sourceStack.peek()) ||
-				sourceStack.peek() == '.';
+		return Character.isDigit(peek()) || peek() == '.';
 	}
 	
-	private Token consumeNumber() {
-		StringBuilder num = new StringBuilder();
+	private Token consumeNumber(int start) {
 		boolean point = false;
 		
 		while (isNumber()) {
-			if (sourceStack.peek() == '.') {
+			if (peek() == '.') {
 				// We might have already had the decimal point
 				// in which case this means we hit the end of the
 				// number.
@@ -60,33 +85,58 @@ public final class Lexer {
 				point = true;
 			}
 			
-			num.append(sourceStack.pop());
+			pos++;
 		}
 		
-		return new Token(TokenType.NUMBER, num.toString());
+		// An exponent needs at least one digit, otherwise the 'e'
+		// starts an identifier.
+		if (!empty() && (peek() == 'e' || peek() == 'E')) {
+			int digit = pos + 1;
+			if (digit < length && (source.charAt(digit) == '+' ||
+					source.charAt(digit) == '-'))
+				digit++;
+			if (digit < length && Character.isDigit(source.charAt(digit))) {
+				pos = digit;
+				while (!empty() && Character.isDigit(peek()))
+					pos++;
+			}
+		}
+		
+		return new Token(TokenType.NUMBER, source, start, pos - start);
 	}
 	
 	private boolean isIdent() {
-		if (sourceStack.empty())
+		if (empty())
 			return false;
-		char c = sourceStack.peek();
+		char c = peek();
 		return (Character.isAlphabetic(c) || c == '_');
 	}
 	
-	private Token consumeIdent() {
-		StringBuilder ident = new StringBuilder();
-		
+	// Compare part of the source with a word without copying it.
+	private boolean matches(int start, String word) {
+		if (pos - start != word.length())
+			return false;
+		for (int i = 0; i < word.length(); i++)
+			if (source.charAt(start + i) != word.charAt(i))
+				return false;
+		return true;
+	}
+	
+	private Token consumeIdent(int start) {
 		while (isIdent())
-			ident.append(sourceStack.pop());
+			pos++;
 		
 		// It is possible that this is the true or false literal
 		// instead of an identifier.
-		String str = ident.toString();
-		if (str.compareTo("true") == 0)
-			return new Token(TokenType.TRUE, str);
-		else if (str.compareTo("false") == 0)
-			return new Token(TokenType.FALSE, str);
-		return new Token(TokenType.IDENTIFIER, str);
+		if (matches(start, "true"))
+			return new Token(TokenType.TRUE, source, start, 4);
+		else if (matches(start, "false"))
+			return new Token(TokenType.FALSE, source, start, 5);
+		return new Token(TokenType.IDENTIFIER, source, start, pos - start);
+	}
+	
+	private Token operator(TokenType type, int start) {
+		return new Token(type, source, start, pos - start);
 	}
 	
 	/**
@@ -96,72 +146,82 @@ public final class Lexer {
 	 * @throws SyntaxException Thrown when unable to identifiy a token.
 	 */
 	public Token advance() throws SyntaxException {
+		Token tok = scan();
+		// Unidentified tokens are skipped when they are recorded.
+		while (tok == null)
+			tok = scan();
+		return tok;
+	}
+	
+	private Token scan() throws SyntaxException {
 		// Skip any whitespace that could be at the front.
 		consumeWhitespace();
+		int start = position();
 		
 		if (isNumber())
-			return consumeNumber();
+			return consumeNumber(start);
 		else if (isIdent())
-			return consumeIdent();
-		else if (!sourceStack.empty()) {
+			return consumeIdent(start);
+		else if (!empty()) {
 			// All the operators use only a single character.
-			switch (sourceStack.pop()) {
+			switch (source.charAt(pos++)) {
 			case '+':
-				return new Token(TokenType.PLUS, "+");
+				return operator(TokenType.PLUS, start);
 			case '-':
-				return new Token(TokenType.MINUS, "-");
+				return operator(TokenType.MINUS, start);
 			case '*':
-				return new Token(TokenType.STAR, "*");
+				return operator(TokenType.STAR, start);
 			case '/':
-				return new Token(TokenType.SLASH, "/");
+				return operator(TokenType.SLASH, start);
 			case '%':
-				return new Token(TokenType.MOD, "%");
+				return operator(TokenType.MOD, start);
 			case '^':
-				return new Token(TokenType.CARROT, "^");
+				return operator(TokenType.CARROT, start);
 			case '&':
-				return new Token(TokenType.AND, "&");
+				return operator(TokenType.AND, start);
 			case '|':
-				return new Token(TokenType.OR, "|");
+				return operator(TokenType.OR, start);
 			case '=':
-				return new Token(TokenType.EQLS, "=");
+				return operator(TokenType.EQLS, start);
 			case '<':
 				// It is possible that this is a two-character token.
-				if (!sourceStack.empty() &&
-						sourceStack.peek() == '=') {
-					sourceStack.pop();
-					return new Token(TokenType.LESS_OR_EQLS, "<=");
+				if (!empty() && peek() == '=') {
+					pos++;
+					return operator(TokenType.LESS_OR_EQLS, start);
 				}
-				return new Token(TokenType.LESS, "<");
+				return operator(TokenType.LESS, start);
 			case '>':
 				// It is possible that this is a two-character token.
-				if (!sourceStack.empty() &&
-						sourceStack.peek() == '=') {
-					sourceStack.pop();
-					return new Token(TokenType.GREATER_OR_EQLS, ">=");
+				if (!empty() && peek() == '=') {
+					pos++;
+					return operator(TokenType.GREATER_OR_EQLS, start);
 				}
-				return new Token(TokenType.GREATER, ">");
+				return operator(TokenType.GREATER, start);
 			case '!':
 				// It is possible that this is a two-character token.
-				if (!sourceStack.empty() &&
-						sourceStack.peek() == '=') {
-					sourceStack.pop();
-					return new Token(TokenType.NOT_EQLS, "!=");
+				if (!empty() && peek() == '=') {
+					pos++;
+					return operator(TokenType.NOT_EQLS, start);
 				}				
-				return new Token(TokenType.NOT, "!");
+				return operator(TokenType.NOT, start);
 			case '(':
-				return new Token(TokenType.LEFT_PARENTHESIS, "(");
+				return operator(TokenType.LEFT_PARENTHESIS, start);
 			case ')':
-				return new Token(TokenType.RIGHT_PARENTHESIS, ")");
+				return operator(TokenType.RIGHT_PARENTHESIS, start);
 			case ',':
-				return new Token(TokenType.COMMA, ",");
+				return operator(TokenType.COMMA, start);
 			default:
-				throw new SyntaxException("Unidentified token!");
+				if (errors == null)
+					throw new SyntaxException("Unidentified token!", start);
+				errors.add(new SyntaxException("Unidentified token!", start,
+						false));
+				return null;
 			}
 		}
-		else if (sourceStack.empty()) {
-			return new Token(TokenType.EOF, "\0");
+		else if (empty()) {
+			return new Token(TokenType.EOF, "\0", start);
 		}
 		// If we get this far then we don't know what the token is.
-		throw new SyntaxException("Unidentified token!");
+		throw new SyntaxException("Unidentified token!", start);
 	}
 }
@@ -0,0 +1,230 @@
+package tech.gitpicard.jcalc;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the results of a function so that calling it again
+ * with the same arguments does not run it. Only use this for
+ * functions that always give the same result for the same
+ * arguments. Pass it to {@link JCalculator#setFunction} in place
+ * of the function itself.
+ * <p>
+ * The cache holds a fixed number of results. When it is full the
+ * clock algorithm picks a result to forget, preferring ones that
+ * have not been used since the clock hand last passed them. The
+ * cache is split into segments with their own locks so that it
+ * can be shared by many threads, and the function itself is
+ * called without holding a lock.
+ */
+public final class MemoizedFunction implements Function {
+
+	// Part of the cache, guarded by its own lock. Results are stored
+	// in slots, with the slots for each hash bucket chained
+	// together.
+	private static final class Segment {
+		private final double[][] keys;
+		private final double[] values;
+		private final int[] hashes;
+		private final int[] next;
+		private final boolean[] used;
+		private final int[] buckets;
+		private int size = 0;
+		private int hand = 0;
+
+		Segment(int capacity) {
+			keys = new double[capacity][];
+			values = new double[capacity];
+			hashes = new int[capacity];
+			next = new int[capacity];
+			used = new boolean[capacity];
+			buckets = new int[Integer.highestOneBit(Math.max(capacity, 1)) * 2];
+			Arrays.fill(buckets, -1);
+		}
+
+		int find(double[] args, int hash) {
+			for (int i = buckets[hash & (buckets.length - 1)]; i >= 0; i = next[i])
+				if (hashes[i] == hash && same(keys[i], args))
+					return i;
+			return -1;
+		}
+
+		void put(double[] args, int hash, double value) {
+			if (keys.length == 0 || find(args, hash) >= 0)
+				return;
+			int slot;
+			if (size < keys.length)
+				slot = size++;
+			else {
+				// Give every recently used slot a second chance.
+				while (used[hand]) {
+					used[hand] = false;
+					hand = (hand + 1) % keys.length;
+				}
+				slot = hand;
+				hand = (hand + 1) % keys.length;
+				unlink(slot);
+			}
+			int bucket = hash & (buckets.length - 1);
+			keys[slot] = args.clone();
+			values[slot] = value;
+			hashes[slot] = hash;
+			used[slot] = false;
+			next[slot] = buckets[bucket];
+			buckets[bucket] = slot;
+		}
+
+		private void unlink(int slot) {
+			int bucket = hashes[slot] & (buckets.length - 1);
+			if (buckets[bucket] == slot) {
+				buckets[bucket] = next[slot];
+				return;
+			}
+			for (int i = buckets[bucket]; i >= 0; i = next[i]) {
+				if (next[i] == slot) {
+					next[i] = next[slot];
+					return;
+				}
+			}
+		}
+
+		synchronized void clear() {
+			Arrays.fill(buckets, -1);
+			Arrays.fill(keys, null);
+			size = 0;
+			hand = 0;
+		}
+
+		synchronized int size() {
+			return size;
+		}
+	}
+
+	private final Function func;
+	private final int capacity;
+	private final Segment[] segments;
+	private final LongAdder hits;
+	private final LongAdder misses;
+
+	/**
+	 * Create a cache in front of a function.
+	 * @param func The function to call when a result is not known.
+	 * @param capacity The most results to remember.
+	 */
+	public MemoizedFunction(Function func, int capacity) {
+		if (func == null)
+			throw new IllegalArgumentException("func");
+		if (capacity < 0)
+			throw new IllegalArgumentException("capacity");
+
+		this.func = func;
+		this.capacity = capacity;
+		// Small caches do not need more than one lock.
+		int count = Integer.highestOneBit(Math.max(1, Math.min(16, capacity / 64)));
+		segments = new Segment[count];
+		for (int i = 0; i < count; i++)
+			segments[i] = new Segment(capacity / count + (i < capacity % count ? 1 : 0));
+		hits = new LongAdder();
+		misses = new LongAdder();
+	}
+
+	private static boolean same(double[] a, double[] b) {
+		if (a.length != b.length)
+			return false;
+		for (int i = 0; i < a.length; i++)
+			if (Double.doubleToLongBits(a[i]) != Double.doubleToLongBits(b[i]))
+				return false;
+		return true;
+	}
+
+	private static int hash(double[] args) {
+		long h = args.length;
+		for (double d : args)
+			h = (h ^ Double.doubleToLongBits(d)) * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	@Override
+	public double call(double[] args) throws EvalException {
+		int hash = hash(args);
+		Segment s = segments[(hash >>> 28) & (segments.length - 1)];
+		synchronized (s) {
+			int i = s.find(args, hash);
+			if (i >= 0) {
+				s.used[i] = true;
+				hits.increment();
+				return s.values[i];
+			}
+		}
+
+		misses.increment();
+		double value = func.call(args);
+		synchronized (s) {
+			s.put(args, hash, value);
+		}
+		return value;
+	}
+
+	/**
+	 * Get the function whose results are remembered.
+	 * @return The function.
+	 */
+	public Function getFunction() {
+		return func;
+	}
+
+	/**
+	 * The most results the cache will remember.
+	 * @return The capacity.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * The number of results currently remembered.
+	 * @return The size of the cache.
+	 */
+	public int size() {
+		int n = 0;
+		for (Segment s : segments)
+			n += s.size();
+		return n;
+	}
+
+	/**
+	 * The number of calls answered from the cache.
+	 * @return Number of hits.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * The number of calls that had to run the function.
+	 * @return Number of misses.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * The fraction of calls answered from the cache.
+	 * @return The hit rate, or 0 if there have been no calls.
+	 */
+	public double getHitRate() {
+		long h = hits.sum();
+		long total = h + misses.sum();
+		return total == 0 ? 0.0 : (double) h / total;
+	}
+
+	/**
+	 * Forget every result and reset the statistics.
+	 */
+	public void clear() {
+		for (Segment s : segments)
+			s.clear();
+		hits.reset();
+		misses.reset();
+	}
+}
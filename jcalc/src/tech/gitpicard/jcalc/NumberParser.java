@@ -0,0 +1,233 @@
+package tech.gitpicard.jcalc;
+
+import java.math.BigInteger;
+
+/**
+ * Converts decimal literals to the nearest double directly from
+ * a range of characters, without building a string. Literals
+ * are digits with an optional decimal point and an optional
+ * exponent, such as {@code 12}, {@code .5}, or {@code 1.5e-9}.
+ * <p>
+ * Most literals are converted with one or two 64 bit
+ * multiplications using the Eisel-Lemire algorithm. The rare
+ * literals it cannot round with certainty, such as those with
+ * more than 19 significant digits or very close to halfway
+ * between two doubles, are handed to {@link Double#parseDouble}.
+ * The result is always correctly rounded.
+ */
+public final class NumberParser {
+
+	private static final int MIN_EXPONENT = -342;
+	private static final int MAX_EXPONENT = 308;
+
+	// The top 128 bits of each power of five, scaled so the highest
+	// bit is set. These are also the mantissas of the powers of ten.
+	private static final long[] POWERS_HI;
+	private static final long[] POWERS_LO;
+
+	// Powers of ten that doubles hold exactly.
+	private static final double[] SMALL_POWERS = { 1e0, 1e1, 1e2, 1e3, 1e4,
+			1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15,
+			1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	static {
+		int count = MAX_EXPONENT - MIN_EXPONENT + 1;
+		POWERS_HI = new long[count];
+		POWERS_LO = new long[count];
+		BigInteger five = BigInteger.valueOf(5);
+		for (int q = MIN_EXPONENT; q <= MAX_EXPONENT; q++) {
+			BigInteger c;
+			if (q >= 0) {
+				// Truncate large powers to 128 bits.
+				c = five.pow(q);
+				int shift = c.bitLength() - 128;
+				c = shift > 0 ? c.shiftRight(shift) : c.shiftLeft(-shift);
+			}
+			else {
+				// Negative powers are the reciprocal, rounded up.
+				BigInteger p = five.pow(-q);
+				int z = p.bitLength();
+				int b = q >= -27 ? z + 127 : 2 * z + 128;
+				c = BigInteger.ONE.shiftLeft(b).divide(p).add(BigInteger.ONE);
+				int shift = c.bitLength() - 128;
+				if (shift > 0)
+					c = c.shiftRight(shift);
+			}
+			POWERS_HI[q - MIN_EXPONENT] = c.shiftRight(64).longValue();
+			POWERS_LO[q - MIN_EXPONENT] = c.longValue();
+		}
+	}
+
+	private NumberParser() {
+	}
+
+	/**
+	 * Convert a whole character sequence to a double.
+	 * @param s The literal.
+	 * @return The nearest double.
+	 */
+	public static double parse(CharSequence s) {
+		if (s == null)
+			throw new IllegalArgumentException("s");
+		return parse(s, 0, s.length());
+	}
+
+	/**
+	 * Convert part of a character sequence to a double.
+	 * @param s The characters holding the literal.
+	 * @param start The index of the first character of the literal.
+	 * @param length The number of characters in the literal.
+	 * @return The nearest double.
+	 */
+	public static double parse(CharSequence s, int start, int length) {
+		if (s == null)
+			throw new IllegalArgumentException("s");
+		if (start < 0 || length < 0 || start + length > s.length())
+			throw new IllegalArgumentException("start");
+
+		int end = start + length;
+		int i = start;
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean any = false;
+		boolean truncated = false;
+
+		// Leading zeros are not significant.
+		while (i < end && s.charAt(i) == '0') {
+			i++;
+			any = true;
+		}
+		for (; i < end && isDigit(s.charAt(i)); i++) {
+			any = true;
+			if (digits < 19) {
+				mantissa = mantissa * 10 + (s.charAt(i) - '0');
+				digits++;
+			}
+			else {
+				exponent++;
+				truncated |= s.charAt(i) != '0';
+			}
+		}
+		if (i < end && s.charAt(i) == '.') {
+			i++;
+			// Zeros right after the point only move the exponent until
+			// a significant digit has been seen.
+			if (digits == 0) {
+				while (i < end && s.charAt(i) == '0') {
+					i++;
+					exponent--;
+					any = true;
+				}
+			}
+			for (; i < end && isDigit(s.charAt(i)); i++) {
+				any = true;
+				if (digits < 19) {
+					mantissa = mantissa * 10 + (s.charAt(i) - '0');
+					digits++;
+					exponent--;
+				}
+				else
+					truncated |= s.charAt(i) != '0';
+			}
+		}
+		if (!any)
+			throw new IllegalArgumentException("s");
+
+		if (i < end && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+			i++;
+			boolean negative = false;
+			if (i < end && (s.charAt(i) == '+' || s.charAt(i) == '-'))
+				negative = s.charAt(i++) == '-';
+			if (i == end || !isDigit(s.charAt(i)))
+				throw new IllegalArgumentException("s");
+			int e = 0;
+			for (; i < end && isDigit(s.charAt(i)); i++) {
+				// Far beyond the range of a double, so stop counting.
+				if (e < 100000)
+					e = e * 10 + (s.charAt(i) - '0');
+			}
+			exponent += negative ? -e : e;
+		}
+		if (i != end)
+			throw new IllegalArgumentException("s");
+
+		if (mantissa == 0)
+			return 0.0;
+		if (!truncated) {
+			// Both numbers are exact, so one rounding is correct. Nineteen
+			// digits can overflow a signed long, so the mantissa is
+			// unsigned.
+			if (Long.compareUnsigned(mantissa, 1L << 53) <= 0 &&
+					exponent >= -22 && exponent <= 22)
+				return exponent >= 0 ? mantissa * SMALL_POWERS[exponent] :
+					mantissa / SMALL_POWERS[-exponent];
+			long bits = eiselLemire(mantissa, exponent);
+			if (bits >= 0)
+				return Double.longBitsToDouble(bits);
+		}
+		return Double.parseDouble(s.subSequence(start, end).toString());
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	// The high 64 bits of an unsigned 128 bit product.
+	private static long multiplyHigh(long x, long y) {
+		return Math.multiplyHigh(x, y) + ((x >> 63) & y) + ((y >> 63) & x);
+	}
+
+	// Find the bits of mantissa * 10^exponent, or -1 when the result
+	// cannot be rounded with certainty or is not a normal number.
+	private static long eiselLemire(long mantissa, int exponent) {
+		if (exponent < MIN_EXPONENT || exponent > MAX_EXPONENT)
+			return -1;
+
+		int clz = Long.numberOfLeadingZeros(mantissa);
+		mantissa <<= clz;
+		// 217706 / 2^16 is close to log2(10).
+		long exp2 = ((217706L * exponent) >> 16) + 64 + 1023 - clz;
+
+		long powHi = POWERS_HI[exponent - MIN_EXPONENT];
+		long powLo = POWERS_LO[exponent - MIN_EXPONENT];
+		long hi = multiplyHigh(mantissa, powHi);
+		long lo = mantissa * powHi;
+
+		// Use the low half of the power when the bits that decide the
+		// rounding may not be known yet.
+		if ((hi & 0x1FF) == 0x1FF &&
+				Long.compareUnsigned(lo + mantissa, mantissa) < 0) {
+			long yHi = multiplyHigh(mantissa, powLo);
+			long yLo = mantissa * powLo;
+			long mergedHi = hi;
+			long mergedLo = lo + yHi;
+			if (Long.compareUnsigned(mergedLo, lo) < 0)
+				mergedHi++;
+			if ((mergedHi & 0x1FF) == 0x1FF && mergedLo + 1 == 0 &&
+					Long.compareUnsigned(yLo + mantissa, mantissa) < 0)
+				return -1;
+			hi = mergedHi;
+			lo = mergedLo;
+		}
+
+		long msb = hi >>> 63;
+		long bits = hi >>> (msb + 9);
+		exp2 -= 1 ^ msb;
+
+		// Exactly halfway between two doubles.
+		if (lo == 0 && (hi & 0x1FF) == 0 && (bits & 3) == 1)
+			return -1;
+
+		bits += bits & 1;
+		bits >>>= 1;
+		if ((bits >>> 53) > 0) {
+			bits >>>= 1;
+			exp2++;
+		}
+		// Subnormal numbers and infinity are left to the slow path.
+		if (exp2 <= 0 || exp2 >= 0x7FF)
+			return -1;
+		return (exp2 << 52) | (bits & 0x000FFFFFFFFFFFFFL);
+	}
+}
@@ -32,5 +32,9 @@ public enum Operation {
 	/** Inverts the truth value. */
 	NOT,
 	/** Is the left side not equal to the right? */
-	NOT_EQLS
+	NOT_EQLS,
+	/** Are both values true? */
+	AND,
+	/** Is either value true? */
+	OR
 }
@@ -0,0 +1,306 @@
+package tech.gitpicard.jcalc;
+
+import java.util.Arrays;
+
+import tech.gitpicard.jcalc.ast.BinaryNode;
+import tech.gitpicard.jcalc.ast.CallNode;
+import tech.gitpicard.jcalc.ast.Node;
+import tech.gitpicard.jcalc.ast.UnaryNode;
+
+/**
+ * The operators understood by a parser, with how tightly each one
+ * binds and which way chains of them are grouped. Operators with a
+ * higher precedence bind more tightly. A token can be both a prefix
+ * and a binary operator, the way the minus sign is.
+ * <p>
+ * An operator either builds a node for one of the built in
+ * operations or calls a function with its operands, which lets a
+ * token be given a new meaning without changing the calculator.
+ * Tables cannot be changed; the methods that add or remove an
+ * operator return a new table.
+ */
+public final class OperatorTable {
+
+	/**
+	 * The standard grammar. From loosest to tightest: {@code |},
+	 * {@code &}, equality, ordering, addition, multiplication, power,
+	 * and the prefix operators. All the binary operators are left
+	 * associative and equality has to be wrapped in parenthesis to be
+	 * used as a function argument.
+	 */
+	public static final OperatorTable STANDARD = new OperatorTable(
+			new Entry[TokenType.values().length],
+			new Entry[TokenType.values().length], 4)
+			.withBinary(TokenType.OR, 1, Associativity.LEFT, Operation.OR)
+			.withBinary(TokenType.AND, 2, Associativity.LEFT, Operation.AND)
+			.withBinary(TokenType.EQLS, 3, Associativity.LEFT, Operation.EQLS)
+			.withBinary(TokenType.NOT_EQLS, 3, Associativity.LEFT,
+					Operation.NOT_EQLS)
+			.withBinary(TokenType.LESS, 4, Associativity.LEFT, Operation.LESS)
+			.withBinary(TokenType.GREATER, 4, Associativity.LEFT,
+					Operation.GREATER)
+			.withBinary(TokenType.LESS_OR_EQLS, 4, Associativity.LEFT,
+					Operation.LESS_OR_EQLS)
+			.withBinary(TokenType.GREATER_OR_EQLS, 4, Associativity.LEFT,
+					Operation.GREATER_OR_EQLS)
+			.withBinary(TokenType.PLUS, 5, Associativity.LEFT, Operation.ADD)
+			.withBinary(TokenType.MINUS, 5, Associativity.LEFT, Operation.SUB)
+			.withBinary(TokenType.STAR, 6, Associativity.LEFT, Operation.MULT)
+			.withBinary(TokenType.SLASH, 6, Associativity.LEFT, Operation.DIV)
+			.withBinary(TokenType.MOD, 6, Associativity.LEFT, Operation.MOD)
+			.withBinary(TokenType.CARROT, 7, Associativity.LEFT, Operation.POW)
+			.withPrefix(TokenType.MINUS, 8, Operation.NEGATE)
+			.withPrefix(TokenType.NOT, 8, Operation.NOT);
+
+	// One operator and the node it builds.
+	static final class Entry {
+		final boolean prefix;
+		final int precedence;
+		final boolean right;
+		final Operation op;
+		final String function;
+
+		Entry(boolean prefix, int precedence, boolean right, Operation op,
+				String function) {
+			this.prefix = prefix;
+			this.precedence = precedence;
+			this.right = right;
+			this.op = op;
+			this.function = function;
+		}
+
+		Node build(Node operand) {
+			if (op != null)
+				return new UnaryNode(op, operand);
+			return new CallNode(function, new Node[] { operand });
+		}
+
+		Node build(Node left, Node right) {
+			if (op != null)
+				return new BinaryNode(left, op, right);
+			return new CallNode(function, new Node[] { left, right });
+		}
+	}
+
+	// Indexed by the ordinal of the token.
+	private final Entry[] binary;
+	private final Entry[] prefix;
+	private final int argumentPrecedence;
+
+	private OperatorTable(Entry[] binary, Entry[] prefix,
+			int argumentPrecedence) {
+		this.binary = binary;
+		this.prefix = prefix;
+		this.argumentPrecedence = argumentPrecedence;
+	}
+
+	// Tokens that mean something else to the parser cannot be made
+	// into operators.
+	private static void check(TokenType token, int precedence) {
+		if (token == null)
+			throw new IllegalArgumentException("token");
+		switch (token) {
+		case EOF:
+		case NUMBER:
+		case IDENTIFIER:
+		case TRUE:
+		case FALSE:
+		case LEFT_PARENTHESIS:
+		case RIGHT_PARENTHESIS:
+		case COMMA:
+			throw new IllegalArgumentException("token");
+		default:
+			break;
+		}
+		if (precedence < 1)
+			throw new IllegalArgumentException("precedence");
+	}
+
+	private static boolean unary(Operation op) {
+		return op == Operation.NEGATE || op == Operation.NOT;
+	}
+
+	private OperatorTable with(Entry[] table, TokenType token, Entry e) {
+		Entry[] copy = Arrays.copyOf(table, table.length);
+		copy[token.ordinal()] = e;
+		return table == binary ?
+				new OperatorTable(copy, prefix, argumentPrecedence) :
+				new OperatorTable(binary, copy, argumentPrecedence);
+	}
+
+	/**
+	 * Make a token a binary operator for one of the built in
+	 * operations, replacing what it was before.
+	 * @param token The token of the operator.
+	 * @param precedence How tightly it binds, at least 1.
+	 * @param assoc Which way chains of it are grouped.
+	 * @param op The operation to build.
+	 * @return The new table.
+	 */
+	public OperatorTable withBinary(TokenType token, int precedence,
+			Associativity assoc, Operation op) {
+		check(token, precedence);
+		if (assoc == null)
+			throw new IllegalArgumentException("assoc");
+		if (op == null || unary(op))
+			throw new IllegalArgumentException("op");
+		return with(binary, token, new Entry(false, precedence,
+				assoc == Associativity.RIGHT, op, null));
+	}
+
+	/**
+	 * Make a token a binary operator that calls a function with its
+	 * two operands, replacing what it was before.
+	 * @param token The token of the operator.
+	 * @param precedence How tightly it binds, at least 1.
+	 * @param assoc Which way chains of it are grouped.
+	 * @param function The name of the function to call.
+	 * @return The new table.
+	 */
+	public OperatorTable withBinary(TokenType token, int precedence,
+			Associativity assoc, String function) {
+		check(token, precedence);
+		if (assoc == null)
+			throw new IllegalArgumentException("assoc");
+		if (function == null)
+			throw new IllegalArgumentException("function");
+		return with(binary, token, new Entry(false, precedence,
+				assoc == Associativity.RIGHT, null, function));
+	}
+
+	/**
+	 * Make a token a prefix operator for negation or not, replacing
+	 * what it was before.
+	 * @param token The token of the operator.
+	 * @param precedence How tightly it binds, at least 1.
+	 * @param op The operation to build.
+	 * @return The new table.
+	 */
+	public OperatorTable withPrefix(TokenType token, int precedence,
+			Operation op) {
+		check(token, precedence);
+		if (op == null || !unary(op))
+			throw new IllegalArgumentException("op");
+		return with(prefix, token, new Entry(true, precedence, true, op,
+				null));
+	}
+
+	/**
+	 * Make a token a prefix operator that calls a function with its
+	 * operand, replacing what it was before.
+	 * @param token The token of the operator.
+	 * @param precedence How tightly it binds, at least 1.
+	 * @param function The name of the function to call.
+	 * @return The new table.
+	 */
+	public OperatorTable withPrefix(TokenType token, int precedence,
+			String function) {
+		check(token, precedence);
+		if (function == null)
+			throw new IllegalArgumentException("function");
+		return with(prefix, token, new Entry(true, precedence, true, null,
+				function));
+	}
+
+	/**
+	 * Stop a token from being a binary operator.
+	 * @param token The token of the operator.
+	 * @return The new table.
+	 */
+	public OperatorTable withoutBinary(TokenType token) {
+		check(token, 1);
+		return with(binary, token, null);
+	}
+
+	/**
+	 * Stop a token from being a prefix operator.
+	 * @param token The token of the operator.
+	 * @return The new table.
+	 */
+	public OperatorTable withoutPrefix(TokenType token) {
+		check(token, 1);
+		return with(prefix, token, null);
+	}
+
+	/**
+	 * Set the lowest precedence a binary operator can have and still
+	 * be used in a function argument without parenthesis.
+	 * @param precedence The lowest precedence, 1 allows every operator.
+	 * @return The new table.
+	 */
+	public OperatorTable withArgumentPrecedence(int precedence) {
+		if (precedence < 1)
+			throw new IllegalArgumentException("precedence");
+		return new OperatorTable(binary, prefix, precedence);
+	}
+
+	/**
+	 * Checks to see if a token is a binary operator.
+	 * @param token The token to look up.
+	 * @return True if it is a binary operator.
+	 */
+	public boolean isBinary(TokenType token) {
+		return binary[token.ordinal()] != null;
+	}
+
+	/**
+	 * Checks to see if a token is a prefix operator.
+	 * @param token The token to look up.
+	 * @return True if it is a prefix operator.
+	 */
+	public boolean isPrefix(TokenType token) {
+		return prefix[token.ordinal()] != null;
+	}
+
+	/**
+	 * Get how tightly a binary operator binds.
+	 * @param token The token of the operator.
+	 * @return The precedence, or 0 if it is not a binary operator.
+	 */
+	public int getPrecedence(TokenType token) {
+		Entry e = binary[token.ordinal()];
+		return e == null ? 0 : e.precedence;
+	}
+
+	/**
+	 * Get how tightly a prefix operator binds.
+	 * @param token The token of the operator.
+	 * @return The precedence, or 0 if it is not a prefix operator.
+	 */
+	public int getPrefixPrecedence(TokenType token) {
+		Entry e = prefix[token.ordinal()];
+		return e == null ? 0 : e.precedence;
+	}
+
+	/**
+	 * Get which way chains of a binary operator are grouped.
+	 * @param token The token of the operator.
+	 * @return The associativity, or null if it is not a binary
+	 * operator.
+	 */
+	public Associativity getAssociativity(TokenType token) {
+		Entry e = binary[token.ordinal()];
+		if (e == null)
+			return null;
+		return e.right ? Associativity.RIGHT : Associativity.LEFT;
+	}
+
+	/**
+	 * Get the lowest precedence a binary operator can have and still
+	 * be used in a function argument without parenthesis.
+	 * @return The lowest precedence.
+	 */
+	public int getArgumentPrecedence() {
+		return argumentPrecedence;
+	}
+
+	// The binary operator for a token, or null.
+	Entry binary(TokenType token) {
+		return binary[token.ordinal()];
+	}
+
+	// The prefix operator for a token, or null.
+	Entry prefix(TokenType token) {
+		return prefix[token.ordinal()];
+	}
+}
@@ -1,12 +1,14 @@
 package tech.gitpicard.jcalc;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 
-import tech.gitpicard.jcalc.ast.BinaryNode;
 import tech.gitpicard.jcalc.ast.CallNode;
 import tech.gitpicard.jcalc.ast.LiteralNode;
 import tech.gitpicard.jcalc.ast.Node;
-import tech.gitpicard.jcalc.ast.UnaryNode;
 import tech.gitpicard.jcalc.ast.VariableNode;
 
 /**
@@ -16,9 +18,40 @@ import tech.gitpicard.jcalc.ast.VariableNode;
  */
 public final class Parser {
 	
+	/** The default limit on how deeply expressions may be nested. */
+	public static final int DEFAULT_MAX_DEPTH = 1000000;
+	
 	private Lexer lexer;
 	private int pos;
 	private ArrayList<Token> tokens;
+	private int maxDepth;
+	private int end;
+	private boolean trace;
+	private InternPool pool;
+	private OperatorTable operators;
+	private HashMap<Integer, Span> spans;
+	private int reused;
+	private List<SyntaxException> recovered;
+	// Set by an error that skipping ahead cannot recover from.
+	private boolean fatal;
+	
+	// A parenthesized expression or function call that has already
+	// been parsed, keyed by the index of its first token.
+	static final class Span {
+		final Node node;
+		final int depth;
+		// The index of the token after the closing parenthesis.
+		final int end;
+		// How many groups deep the span nests, itself included.
+		final int height;
+		
+		Span(Node node, int depth, int end, int height) {
+			this.node = node;
+			this.depth = depth;
+			this.end = end;
+			this.height = height;
+		}
+	}
 	
 	/**
 	 * Creates a new parser to generate an abstract syntax tree
@@ -31,6 +64,66 @@ public final class Parser {
 		lexer = lex;
 		pos = 0;
 		tokens = new ArrayList<>();
+		maxDepth = DEFAULT_MAX_DEPTH;
+		end = 0;
+		trace = true;
+		operators = OperatorTable.STANDARD;
+	}
+	
+	// Create a parser over tokens that have already been lexed.
+	Parser(ArrayList<Token> tokens, int end) {
+		pos = 0;
+		this.tokens = tokens;
+		this.end = end;
+		maxDepth = DEFAULT_MAX_DEPTH;
+		trace = true;
+		operators = OperatorTable.STANDARD;
+	}
+	
+	// Reuse the groups found in the spans when their first token is
+	// reached, and record every group parsed into them.
+	void setSpans(HashMap<Integer, Span> spans) {
+		this.spans = spans;
+	}
+	
+	// How many groups were taken from the spans.
+	int reused() {
+		return reused;
+	}
+	
+	// Turn off stack traces for syntax errors when only the message
+	// and position are wanted.
+	void setTrace(boolean trace) {
+		this.trace = trace;
+	}
+	
+	// Record structural errors in the list and skip ahead to the next
+	// comma, closing parenthesis or the end instead of stopping at the
+	// first one. The tree returned means nothing once any were
+	// recorded.
+	void setRecovery(List<SyntaxException> errors) {
+		recovered = errors;
+	}
+	
+	// The tokens read from the lexer.
+	ArrayList<Token> tokens() {
+		return tokens;
+	}
+	
+	// The offset of the next token, or the end of the source.
+	private int here() {
+		return empty() ? end : peek().getOffset();
+	}
+	
+	private SyntaxException error(String s) {
+		if (trace)
+			return new SyntaxException(s, here());
+		return new SyntaxException(s, here(), false);
+	}
+	
+	private SyntaxException tooDeep() {
+		fatal = true;
+		return error("Expression is nested too deeply.");
 	}
 	
 	private Token peek() {
@@ -74,182 +167,210 @@ public final class Parser {
 		return false;
 	}
 	
-	private Node primary() throws SyntaxException {
-		// Look for the true and false constant literals.
-		if (isMatch(TokenType.TRUE))
-			return new LiteralNode(1);
-		else if (isMatch(TokenType.FALSE))
-			return new LiteralNode(0);
-		// A number is the only value type currently supported.
-		else if (isMatch(TokenType.NUMBER)) {
-			double d = Double.parseDouble(previous().getContents());
-			return new LiteralNode(d);
+	// The binary operator at the next token. Function arguments
+	// leave out the loosest operators, so an equality has to be
+	// wrapped in parenthesis.
+	private OperatorTable.Entry binary(Group group) {
+		if (empty())
+			return null;
+		OperatorTable.Entry e = operators.binary(peek().getType());
+		if (e != null && group.call &&
+				e.precedence < operators.getArgumentPrecedence())
+			return null;
+		return e;
+	}
+	
+	// The operators and operands of one level of grouping: the whole
+	// expression, a parenthesized expression, or a function call.
+	private final class Group {
+		private final boolean call;
+		private final String function;
+		private final int start;
+		private int height = 1;
+		// Plain arrays rather than lists so that depths are not boxed
+		// and each token only costs a few array stores.
+		private OperatorTable.Entry[] ops = new OperatorTable.Entry[4];
+		private int opCount = 0;
+		private Node[] operands = new Node[4];
+		private int[] depths = new int[4];
+		private int operandCount = 0;
+		private final ArrayList<Node> args = new ArrayList<>();
+		private int argDepth = 0;
+		
+		Group(boolean call, String function, int start) {
+			this.call = call;
+			this.function = function;
+			this.start = start;
+		}
+		
+		// Finish a group, recording it so that it can be reused.
+		void close(Group parent, Node node, int depth)
+				throws SyntaxException {
+			parent.height = Math.max(parent.height, height + 1);
+			if (spans != null)
+				spans.put(start, new Span(node, depth, pos, height));
+			parent.push(node, depth);
+		}
+		
+		void push(Node node, int depth) throws SyntaxException {
+			if (depth > maxDepth)
+				throw tooDeep();
+			if (operandCount == operands.length) {
+				operands = Arrays.copyOf(operands, operandCount * 2);
+				depths = Arrays.copyOf(depths, operandCount * 2);
+			}
+			operands[operandCount] = node;
+			depths[operandCount++] = depth;
+		}
+		
+		Node popNode() {
+			Node n = operands[--operandCount];
+			operands[operandCount] = null;
+			return n;
+		}
+		
+		// The depth of the operand on top, read before popping it.
+		int topDepth() {
+			return depths[operandCount - 1];
+		}
+		
+		void operator(OperatorTable.Entry e) {
+			if (opCount == ops.length)
+				ops = Arrays.copyOf(ops, opCount * 2);
+			ops[opCount++] = e;
 		}
-		// An identifier which needs to be looked up at runtime.
-		else if (isMatch(TokenType.IDENTIFIER)) {
-			String s = previous().getContents();
-			return new VariableNode(s);
+		
+		// Apply every pending operation that binds more tightly than
+		// the given precedence, or just as tightly when the next
+		// operator groups from the left.
+		void reduce(int prec, boolean right) throws SyntaxException {
+			while (opCount > 0) {
+				OperatorTable.Entry top = ops[opCount - 1];
+				if (top.precedence < prec ||
+						(right && top.precedence == prec))
+					break;
+				ops[--opCount] = null;
+				if (top.prefix) {
+					int d = topDepth();
+					push(top.build(popNode()), d + 1);
+				}
+				else {
+					int rd = topDepth();
+					Node r = popNode();
+					int ld = topDepth();
+					Node l = popNode();
+					push(top.build(l, r), Math.max(ld, rd) + 1);
+				}
+			}
 		}
 		
-		// A left parenthesis means we have to do some grouping...
-		if (isMatch(TokenType.LEFT_PARENTHESIS)) {
-			Node expression = equality();
-			if (pop().getType() != TokenType.RIGHT_PARENTHESIS)
-				throw new SyntaxException("Missing ')' token.");
-			return expression;
+		// Drop the operators and operands of the current expression.
+		void clear() {
+			Arrays.fill(ops, 0, opCount, null);
+			opCount = 0;
+			Arrays.fill(operands, 0, operandCount, null);
+			operandCount = 0;
 		}
 		
-		throw new SyntaxException("Bad expression structure.");
+		// Finish the current function argument.
+		void argument() throws SyntaxException {
+			reduce(0, false);
+			argDepth = Math.max(argDepth, topDepth());
+			args.add(popNode());
+		}
 	}
 	
-	private Node call() throws SyntaxException {
-		// Is it a function call? Functions are not first class
-		// objects so their parsing is handled pretty literally.
-		if (left() >= 2 && peek().getType() == TokenType.IDENTIFIER &&
-				next().getType() == TokenType.LEFT_PARENTHESIS) {
-			String name = peek().getContents();
-			ArrayList<Node> args = new ArrayList<>();
-			
-			pop();
-			
-			while (true) {
-				pop();
-				if (empty())
-					throw new SyntaxException("No closing ')' found.");
-				args.add(comparison());
-				if (empty())
-					throw new SyntaxException("No closing ')' found.");
-				if (peek().getType() == TokenType.RIGHT_PARENTHESIS)
+	// Skip to the next token the group can go on from, which is one of
+	// its own commas or its closing parenthesis, or the end. The group
+	// starts over from a placeholder so the rest of it is checked.
+	private void resync(Group group, boolean top) throws SyntaxException {
+		int depth = 0;
+		while (!empty()) {
+			TokenType t = peek().getType();
+			if (t == TokenType.LEFT_PARENTHESIS)
+				depth++;
+			else if (t == TokenType.RIGHT_PARENTHESIS) {
+				if (depth == 0 && !top)
 					break;
-				if (peek().getType() != TokenType.COMMA)
-					throw new SyntaxException("No closing ')' found.");
+				if (depth > 0)
+					depth--;
 			}
-			
+			else if (t == TokenType.COMMA && depth == 0 && group.call)
+				break;
 			pop();
-			
-			return new CallNode(name,
-					args.toArray(new Node[args.size()]));
 		}
-		// If not then we keep descending in our parser.
-		return primary();
+		group.clear();
+		group.push(new LiteralNode(0), 1);
 	}
 	
-	private Node unary() throws SyntaxException {
-		if (isMatch(TokenType.MINUS, TokenType.NOT)) {
-			Operation op = Operation.NEGATE;
-			if (previous().getType() == TokenType.NOT)
-				op = Operation.NOT;
-			
-			// Allows for chaining with unary expressions.
-			Node right = unary();
-			return new UnaryNode(op, right);
-		}
-		
-		return call();
+	private void checkNesting(ArrayDeque<Group> groups)
+			throws SyntaxException {
+		if (groups.size() >= maxDepth)
+			throw tooDeep();
 	}
 	
-	private Node pow() throws SyntaxException {
-		Node expression = unary();
-		
-		while (isMatch(TokenType.CARROT)) {
-			Operation op = Operation.POW;
-			Node rightSide = unary();
-			expression = new BinaryNode(expression, op, rightSide);
-		}
-		
-		return expression;
+	/**
+	 * Set how deeply the expression may be nested before the parser
+	 * gives up. This counts both the depth of the resulting tree and
+	 * the nesting of parenthesis and function calls.
+	 * @param depth The maximum depth, must be at least one.
+	 */
+	public void setMaxDepth(int depth) {
+		if (depth < 1)
+			throw new IllegalArgumentException("depth");
+		maxDepth = depth;
 	}
 	
-	private Node multDiv() throws SyntaxException {
-		Node expression = pow();
-		
-		while (isMatch(TokenType.STAR, TokenType.SLASH,
-				TokenType.MOD)) {
-			// Translate the token to the correct operation code.
-			Operation op = Operation.MULT;
-			if (previous().getType() == TokenType.SLASH)
-				op = Operation.DIV;
-			else if (previous().getType() == TokenType.MOD)
-				op = Operation.MOD;
-			
-			Node rightSide = pow();
-			expression = new BinaryNode(expression, op, rightSide);
-		}
-		
-		return expression;
+	/**
+	 * Get how deeply the expression may be nested.
+	 * @return The maximum depth.
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
 	}
 	
-	private Node addSub() throws SyntaxException {
-		Node expression = multDiv();
-		
-		while (isMatch(TokenType.PLUS, TokenType.MINUS)) {
-			// Translate the token to the correct operation code.
-			Operation op = Operation.ADD;
-			if (previous().getType() == TokenType.MINUS)
-				op = Operation.SUB;
-			
-			Node rightSide = multDiv();
-			expression = new BinaryNode(expression, op, rightSide);
-		}
-		
-		return expression;
+	/**
+	 * Share names and common literals with other trees through a
+	 * pool instead of creating new ones for every tree.
+	 * @param pool The pool to use, or null to use none.
+	 */
+	public void setInternPool(InternPool pool) {
+		this.pool = pool;
 	}
 	
-	private Node comparison() throws SyntaxException {
-		Node expression = addSub();
-		
-		while (isMatch(TokenType.LESS, TokenType.GREATER,
-				TokenType.LESS_OR_EQLS, TokenType.GREATER_OR_EQLS)) {
-			// Translate token to operation. We don't need to do any
-			// error checking because we are guaranteed to have the
-			// right tokens because of the isMatch call.
-			Operation op = Operation.LESS;
-			switch (previous().getType()) {
-			case LESS:
-				op = Operation.LESS;
-				break;
-			case GREATER:
-				op = Operation.GREATER;
-				break;
-			case LESS_OR_EQLS:
-				op = Operation.LESS_OR_EQLS;
-				break;
-			case GREATER_OR_EQLS:
-				op = Operation.GREATER_OR_EQLS;
-				break;
-			default:
-				break;
-			}
-			
-			Node rightSide = addSub();
-			// Chain together the nodes.
-			expression = new BinaryNode(expression, op, rightSide);
-		}
-		
-		return expression;
+	/**
+	 * Get the pool shared with other trees.
+	 * @return The pool, or null if there is none.
+	 */
+	public InternPool getInternPool() {
+		return pool;
 	}
 	
-	private Node equality() throws SyntaxException {
-		Node expression = comparison();
-		
-		while (isMatch(TokenType.EQLS, TokenType.NOT_EQLS)) {
-			// Translate the token to the correct operation code.
-			Operation op = Operation.EQLS;
-			if (previous().getType() == TokenType.NOT_EQLS)
-				op = Operation.NOT_EQLS;
-			
-			Node rightSide = comparison();
-			
-			// The loop chains together the expressions so that if there
-			// are multiple equals operations in a row, the previous one
-			// will be on the left side of the next one.
-			expression = new BinaryNode(expression, op, rightSide);
-		}
-		
-		// In the case that there is no equality, the while loop never runs
-		// which means we have only the left side causing there to be no
-		// equality node.
-		return expression;
+	/**
+	 * Set the operators the parser understands.
+	 * @param operators The operator table.
+	 */
+	public void setOperators(OperatorTable operators) {
+		if (operators == null)
+			throw new IllegalArgumentException("operators");
+		this.operators = operators;
+	}
+	
+	/**
+	 * Get the operators the parser understands.
+	 * @return The operator table, {@link OperatorTable#STANDARD} by
+	 * default.
+	 */
+	public OperatorTable getOperators() {
+		return operators;
+	}
+	
+	private Node literal(double d) {
+		return pool == null ? new LiteralNode(d) : pool.literal(d);
+	}
+	
+	private String name(String s) {
+		return pool == null ? s : pool.name(s);
 	}
 	
 	/**
@@ -260,20 +381,151 @@ public final class Parser {
 	 */
 	public Node parseTree() throws SyntaxException {
 		// Get a list of all the tokens.
-		Token tok = lexer.advance();
-		while (tok.getType() != TokenType.EOF) {
-			tokens.add(tok);
-			tok = lexer.advance();
+		if (lexer != null) {
+			Token tok = lexer.advance();
+			while (tok.getType() != TokenType.EOF) {
+				tokens.add(tok);
+				tok = lexer.advance();
+			}
+			end = tok.getOffset();
 		}
 		
 		// We don't allow empty expressions.
 		if (empty())
-			throw new SyntaxException("Empty expression!");
+			throw error("Empty expression!");
+		
+		// Rather than recursing for each level of precedence and each
+		// set of parenthesis, the parser keeps its own stack of groups
+		// so that deeply nested expressions cannot overflow the Java
+		// stack.
+		ArrayDeque<Group> groups = new ArrayDeque<>();
+		Group group = new Group(false, null, 0);
+		boolean operand = true;
 		
-		Node expresssion = equality();
-		// If we didn't use all the tokens, something went wrong...
-		if (!empty())
-			throw new SyntaxException("Bad expression structure.");
-		return expresssion;
+		while (true) {
+			try {
+				if (operand) {
+					OperatorTable.Entry prefix = empty() ? null :
+							operators.prefix(peek().getType());
+					if (prefix != null) {
+						// Prefix operations are chained by leaving them
+						// on the operator stack.
+						pop();
+						group.operator(prefix);
+						continue;
+					}
+					Span span = spans == null ? null : spans.get(pos);
+					// A group that has not changed since the last parse is
+					// used as it is, unless it would now nest too deeply.
+					if (span != null && groups.size() + span.height < maxDepth) {
+						group.push(span.node, span.depth);
+						group.height = Math.max(group.height, span.height + 1);
+						pos = span.end;
+						reused++;
+					}
+					// Look for the true and false constant literals.
+					else if (isMatch(TokenType.TRUE))
+						group.push(literal(1), 1);
+					else if (isMatch(TokenType.FALSE))
+						group.push(literal(0), 1);
+					// A number is the only value type currently supported.
+					else if (isMatch(TokenType.NUMBER)) {
+						Token t = previous();
+						double d;
+						try {
+							d = NumberParser.parse(t.text(), t.start(),
+									t.getLength());
+						}
+						catch (IllegalArgumentException e) {
+							// A decimal point on its own is not a number.
+							pos--;
+							throw error("Bad number literal.");
+						}
+						group.push(literal(d), 1);
+					}
+					// Is it a function call? Functions are not first class
+					// objects so their parsing is handled pretty literally.
+					else if (left() >= 2 &&
+							peek().getType() == TokenType.IDENTIFIER &&
+							next().getType() == TokenType.LEFT_PARENTHESIS) {
+						int start = pos;
+						String name = name(pop().getContents());
+						pop();
+						if (empty())
+							throw error("No closing ')' found.");
+						groups.push(group);
+						group = new Group(true, name, start);
+						checkNesting(groups);
+						continue;
+					}
+					// An identifier which needs to be looked up at runtime.
+					else if (isMatch(TokenType.IDENTIFIER))
+						group.push(new VariableNode(
+								name(previous().getContents())), 1);
+					// A left parenthesis means we have to do some grouping...
+					else if (isMatch(TokenType.LEFT_PARENTHESIS)) {
+						groups.push(group);
+						group = new Group(false, null, pos - 1);
+						checkNesting(groups);
+						continue;
+					}
+					else
+						throw error("Bad expression structure.");
+				
+					operand = false;
+					continue;
+				}
+			
+				OperatorTable.Entry op = binary(group);
+				if (op != null) {
+					pop();
+					group.reduce(op.precedence, op.right);
+					group.operator(op);
+					operand = true;
+				}
+				else if (group.call) {
+					group.argument();
+					if (isMatch(TokenType.COMMA)) {
+						if (empty())
+							throw error("No closing ')' found.");
+						operand = true;
+					}
+					else if (isMatch(TokenType.RIGHT_PARENTHESIS)) {
+						Node call = new CallNode(group.function, group.args
+								.toArray(new Node[group.args.size()]));
+						Group parent = groups.pop();
+						group.close(parent, call, group.argDepth + 1);
+						group = parent;
+					}
+					else
+						throw error("No closing ')' found.");
+				}
+				else if (!groups.isEmpty()) {
+					if (!isMatch(TokenType.RIGHT_PARENTHESIS))
+						throw error("Missing ')' token.");
+					group.reduce(0, false);
+					int depth = group.topDepth();
+					Node expression = group.popNode();
+					Group parent = groups.pop();
+					group.close(parent, expression, depth);
+					group = parent;
+				}
+				else {
+					// If we didn't use all the tokens, something went wrong...
+					if (!empty())
+						throw error("Bad expression structure.");
+					group.reduce(0, false);
+					return group.popNode();
+				}
+			}
+			catch (SyntaxException e) {
+				// Nothing more can be found past the end of the input.
+				if (recovered == null || fatal || empty())
+					throw e;
+				recovered.add(e);
+				resync(group, groups.isEmpty());
+				operand = false;
+			}
+		}
 	}
 }
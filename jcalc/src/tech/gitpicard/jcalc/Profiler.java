@@ -0,0 +1,360 @@
+package tech.gitpicard.jcalc;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+
+import tech.gitpicard.jcalc.ast.BinaryNode;
+import tech.gitpicard.jcalc.ast.CallNode;
+import tech.gitpicard.jcalc.ast.LiteralNode;
+import tech.gitpicard.jcalc.ast.Node;
+import tech.gitpicard.jcalc.ast.UnaryNode;
+import tech.gitpicard.jcalc.ast.VariableNode;
+
+/**
+ * Evaluates an expression the same way the calculator does while
+ * measuring every node of its tree: how many times it ran, the time
+ * spent in it and everything under it, the time spent in the node
+ * itself, and for calls the time spent inside the function. The
+ * numbers add up over any number of evaluations, and
+ * {@link #explain()} prints the tree with them.
+ * <p>
+ * Reading the clock for every node makes evaluation several times
+ * slower, so the times are best compared with each other rather
+ * than with an evaluation that is not profiled. Nodes that appear
+ * in more than one place, such as literals shared through an
+ * {@link InternPool}, are counted together. The tree is walked with
+ * an explicit stack, so very deep trees can be profiled.
+ */
+public final class Profiler {
+
+	// The numbers kept for one node.
+	private static final class Stats {
+		long count;
+		long total;
+		long self;
+		long function;
+	}
+
+	private final JCalculator env;
+	private final Node root;
+	private final IdentityHashMap<Node, Stats> stats;
+	// A node being evaluated, with the time it started and how many of
+	// its children have been pushed.
+	private static final class Frame {
+		final Node node;
+		final Node[] children;
+		final long outer;
+		final Function function;
+		final long start;
+		int next;
+
+		Frame(Node node, long outer, Function function, long start) {
+			this.node = node;
+			this.outer = outer;
+			this.function = function;
+			this.start = start;
+			children = children(node);
+		}
+	}
+
+	// The time spent in the children of the node being evaluated.
+	private long children;
+	private long evaluations;
+
+	/**
+	 * Prepare to profile an expression.
+	 * @param env The calculator to take variables and functions from.
+	 * @param source The expression to profile.
+	 * @throws SyntaxException When there is a syntax error.
+	 */
+	public Profiler(JCalculator env, String source) throws SyntaxException {
+		this(env, parse(env, source));
+	}
+
+	/**
+	 * Prepare to profile a tree that has already been parsed.
+	 * @param env The calculator to take variables and functions from.
+	 * @param root The root of the tree to profile.
+	 */
+	public Profiler(JCalculator env, Node root) {
+		if (env == null)
+			throw new IllegalArgumentException("env");
+		if (root == null)
+			throw new IllegalArgumentException("root");
+		this.env = env;
+		this.root = root;
+		stats = new IdentityHashMap<>();
+	}
+
+	private static Node parse(JCalculator env, String source)
+			throws SyntaxException {
+		if (env == null)
+			throw new IllegalArgumentException("env");
+		return env.parse(source);
+	}
+
+	/**
+	 * Get the tree being profiled.
+	 * @return The root of the tree.
+	 */
+	public Node getTree() {
+		return root;
+	}
+
+	/**
+	 * Evaluate the expression once, adding to the numbers kept for
+	 * each node.
+	 * @return The resulting value.
+	 * @throws EvalException When there is a runtime evaluation error.
+	 */
+	public double eval() throws EvalException {
+		children = 0;
+		evaluations++;
+		ArrayDeque<Frame> work = new ArrayDeque<>();
+		double[] values = new double[16];
+		int size = 0;
+		work.push(enter(root));
+		while (!work.isEmpty()) {
+			Frame f = work.peek();
+			if (f.next < f.children.length) {
+				work.push(enter(f.children[f.next++]));
+				continue;
+			}
+			work.pop();
+			size -= f.children.length;
+			double value = leave(f, values, size);
+			if (size == values.length)
+				values = Arrays.copyOf(values, size * 2);
+			values[size++] = value;
+		}
+		return values[0];
+	}
+
+	// Start timing a node, keeping the time spent under the node that
+	// is evaluating it. A call finds its function before its arguments
+	// are evaluated, like the calculator does.
+	private Frame enter(Node node) throws EvalException {
+		long outer = children;
+		children = 0;
+		long start = System.nanoTime();
+		Function f = null;
+		if (node instanceof CallNode) {
+			String s = ((CallNode) node).getFunction();
+			f = env.function(s);
+			if (f == null)
+				throw new EvalException("No function '" + s + "' found.");
+		}
+		return new Frame(node, outer, f, start);
+	}
+
+	// Compute a node from the values of its children, which start at
+	// the given index, and record its time.
+	private double leave(Frame f, double[] values, int at)
+			throws EvalException {
+		Node node = f.node;
+		if (node instanceof CallNode) {
+			double[] args = Arrays.copyOfRange(values, at,
+					at + f.children.length);
+			long called = System.nanoTime();
+			double value = f.function.call(args);
+			long function = System.nanoTime() - called;
+			record(node, f.start, f.outer).function += function;
+			return value;
+		}
+
+		double value;
+		if (node instanceof BinaryNode)
+			value = Program.binary(Program.opcode(
+					((BinaryNode) node).getOperation()), values[at],
+					values[at + 1]);
+		else if (node instanceof UnaryNode) {
+			Operation op = ((UnaryNode) node).getOperation();
+			if (op == Operation.NEGATE)
+				value = -values[at];
+			else if (op == Operation.NOT)
+				value = values[at] == 0.0 ? 1.0 : 0.0;
+			else
+				throw new EvalException("Illegal unary operation.");
+		}
+		else if (node instanceof LiteralNode)
+			value = ((LiteralNode) node).getValue();
+		else
+			value = env.lookup(((VariableNode) node).getIdentifer());
+		record(node, f.start, f.outer);
+		return value;
+	}
+
+	/**
+	 * Forget the numbers from every evaluation so far.
+	 */
+	public void reset() {
+		stats.clear();
+		evaluations = 0;
+	}
+
+	/**
+	 * The number of times the expression has been evaluated.
+	 * @return Number of evaluations.
+	 */
+	public long getEvaluationCount() {
+		return evaluations;
+	}
+
+	/**
+	 * The number of times a node ran.
+	 * @param node A node of the tree.
+	 * @return Number of times it ran.
+	 */
+	public long getCount(Node node) {
+		return get(node).count;
+	}
+
+	/**
+	 * The time spent in a node and everything under it.
+	 * @param node A node of the tree.
+	 * @return The time in nanoseconds.
+	 */
+	public long getTotalTime(Node node) {
+		return get(node).total;
+	}
+
+	/**
+	 * The time spent in a node but not under it, including the time
+	 * spent inside a function it calls.
+	 * @param node A node of the tree.
+	 * @return The time in nanoseconds.
+	 */
+	public long getSelfTime(Node node) {
+		return get(node).self;
+	}
+
+	/**
+	 * The time spent inside the function a call node calls.
+	 * @param node A node of the tree.
+	 * @return The time in nanoseconds, or 0 if it is not a call.
+	 */
+	public long getFunctionTime(Node node) {
+		return get(node).function;
+	}
+
+	private Stats get(Node node) {
+		if (node == null)
+			throw new IllegalArgumentException("node");
+		Stats s = stats.get(node);
+		return s == null ? new Stats() : s;
+	}
+
+	// Record a node that started at the given time, restoring the
+	// time spent under the node that is evaluating it.
+	private Stats record(Node node, long start, long outer) {
+		long total = System.nanoTime() - start;
+		Stats s = stats.get(node);
+		if (s == null) {
+			s = new Stats();
+			stats.put(node, s);
+		}
+		s.count++;
+		s.total += total;
+		s.self += total - children;
+		children = outer + total;
+		return s;
+	}
+
+	/**
+	 * Print the tree with the numbers kept for each node, one node to
+	 * a line and each child indented under its parent. Times are in
+	 * milliseconds, followed by the share of the total time spent in
+	 * the node itself.
+	 * @return The annotated tree.
+	 */
+	public String explain() {
+		StringBuilder out = new StringBuilder();
+		Stats top = get(root);
+		out.append(String.format(Locale.ROOT,
+				"%d evaluations, %.3f ms%n", evaluations, top.total / 1e6));
+		out.append(String.format(Locale.ROOT, "%-32s %10s %10s %10s %6s%n",
+				"node", "count", "total ms", "self ms", "self%"));
+
+		ArrayDeque<Node> work = new ArrayDeque<>();
+		ArrayDeque<Integer> depths = new ArrayDeque<>();
+		work.push(root);
+		depths.push(0);
+		while (!work.isEmpty()) {
+			Node node = work.pop();
+			int depth = depths.pop();
+			Stats s = get(node);
+			String label = "  ".repeat(depth) + label(node);
+			out.append(String.format(Locale.ROOT,
+					"%-32s %10d %10.3f %10.3f %5.1f%%", label, s.count,
+					s.total / 1e6, s.self / 1e6,
+					top.total == 0 ? 0.0 : 100.0 * s.self / top.total));
+			if (node instanceof CallNode)
+				out.append(String.format(Locale.ROOT, "  in function %.3f ms",
+						s.function / 1e6));
+			out.append(System.lineSeparator());
+
+			Node[] children = children(node);
+			for (int i = children.length - 1; i >= 0; i--) {
+				work.push(children[i]);
+				depths.push(depth + 1);
+			}
+		}
+		return out.toString();
+	}
+
+	private static Node[] children(Node node) {
+		if (node instanceof BinaryNode) {
+			BinaryNode b = (BinaryNode) node;
+			return new Node[] { b.getLeft(), b.getRight() };
+		}
+		else if (node instanceof UnaryNode)
+			return new Node[] { ((UnaryNode) node).getRight() };
+		else if (node instanceof CallNode)
+			return ((CallNode) node).getArguments();
+		return new Node[0];
+	}
+
+	private static String label(Node node) {
+		if (node instanceof LiteralNode)
+			return Double.toString(((LiteralNode) node).getValue());
+		else if (node instanceof VariableNode)
+			return ((VariableNode) node).getIdentifer();
+		else if (node instanceof CallNode)
+			return ((CallNode) node).getFunction() + "()";
+		else if (node instanceof UnaryNode)
+			return ((UnaryNode) node).getOperation() == Operation.NEGATE ?
+					"-" : "!";
+		switch (((BinaryNode) node).getOperation()) {
+		case ADD:
+			return "+";
+		case SUB:
+			return "-";
+		case MULT:
+			return "*";
+		case DIV:
+			return "/";
+		case POW:
+			return "^";
+		case MOD:
+			return "%";
+		case EQLS:
+			return "=";
+		case NOT_EQLS:
+			return "!=";
+		case LESS:
+			return "<";
+		case GREATER:
+			return ">";
+		case LESS_OR_EQLS:
+			return "<=";
+		case GREATER_OR_EQLS:
+			return ">=";
+		case AND:
+			return "&";
+		default:
+			return "|";
+		}
+	}
+}
@@ -0,0 +1,851 @@
+package tech.gitpicard.jcalc;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import tech.gitpicard.jcalc.ast.ASTFolder;
+import tech.gitpicard.jcalc.ast.BinaryNode;
+import tech.gitpicard.jcalc.ast.CallNode;
+import tech.gitpicard.jcalc.ast.LiteralNode;
+import tech.gitpicard.jcalc.ast.Node;
+import tech.gitpicard.jcalc.ast.UnaryNode;
+import tech.gitpicard.jcalc.ast.VariableNode;
+
+/**
+ * An expression compiled down to a flat list of postfix
+ * instructions for a small stack machine. Running a program
+ * does not recurse through the tree so it avoids a virtual call
+ * and a Java frame for every node. Variables and functions are
+ * referred to by slot numbers which are bound when the program
+ * is run.
+ */
+public final class Program {
+
+	// The instruction set. Instructions that need an operand
+	// store it in the next element of the code array.
+	static final int CONST = 0;
+	static final int LOAD = 1;
+	static final int CALL = 2;
+	static final int ADD = 3;
+	static final int SUB = 4;
+	static final int MULT = 5;
+	static final int DIV = 6;
+	static final int POW = 7;
+	static final int MOD = 8;
+	static final int EQLS = 9;
+	static final int NOT_EQLS = 10;
+	static final int LESS = 11;
+	static final int GREATER = 12;
+	static final int LESS_OR_EQLS = 13;
+	static final int GREATER_OR_EQLS = 14;
+	static final int NEGATE = 15;
+	static final int NOT = 16;
+	// Integer instructions work on a separate stack of longs. Each
+	// operation is numbered 16 above its double form.
+	static final int ICONST = 17;
+	static final int ILOAD = 18;
+	static final int IADD = 19;
+	static final int ISUB = 20;
+	static final int IMULT = 21;
+	static final int IPOW = 23;
+	static final int IMOD = 24;
+	static final int IEQLS = 25;
+	static final int INOT_EQLS = 26;
+	static final int ILESS = 27;
+	static final int IGREATER = 28;
+	static final int ILESS_OR_EQLS = 29;
+	static final int IGREATER_OR_EQLS = 30;
+	static final int INEGATE = 31;
+	static final int INOT = 32;
+	// Moves the top of the integer stack onto the double stack.
+	static final int I2D = 33;
+	static final int AND = 34;
+	static final int OR = 35;
+	static final int IAND = 50;
+	static final int IOR = 51;
+
+	// Thrown when an integer instruction cannot give the exact
+	// answer, including a zero that would be negative as a double,
+	// so that the program is run again with doubles.
+	private static final class Overflow extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		Overflow() {
+			super(null, null, false, false);
+		}
+	}
+
+	private static final Overflow OVERFLOW = new Overflow();
+
+	// Scheduled while compiling to convert an integer to a double.
+	private static final Node CONVERT = new LiteralNode(0.0);
+
+	private final int[] code;
+	private final double[] constants;
+	private final long[] longs;
+	private final String[] variables;
+	private final String[] functions;
+	private final int maxStack;
+	private final int maxLongStack;
+	// The same expression using only doubles, when this program
+	// has integer instructions.
+	private final Program fallback;
+	// The functions a calculator last bound to the slots, so that
+	// running the program with it again does no lookups.
+	volatile Binding binding;
+
+	// A binding is replaced rather than changed, so it can be read
+	// from any thread.
+	static final class Binding {
+		final Object generation;
+		final Function[] functions;
+
+		Binding(Object generation, Function[] functions) {
+			this.generation = generation;
+			this.functions = functions;
+		}
+	}
+
+	private Program(int[] code, double[] constants, long[] longs,
+			String[] variables, String[] functions, int maxStack,
+			int maxLongStack, Program fallback) {
+		this.code = code;
+		this.constants = constants;
+		this.longs = longs;
+		this.variables = variables;
+		this.functions = functions;
+		this.maxStack = maxStack;
+		this.maxLongStack = maxLongStack;
+		this.fallback = fallback;
+	}
+
+	/**
+	 * Compile an abstract syntax tree into a program. The tree is
+	 * walked with an explicit stack so that very deep trees can
+	 * be compiled.
+	 * @param root The root of the tree to compile.
+	 * @return The compiled program.
+	 */
+	public static Program compile(Node root) {
+		if (root == null)
+			throw new IllegalArgumentException("root");
+		return emit(root, null, null);
+	}
+
+	/**
+	 * Compile an abstract syntax tree, running the parts of it that
+	 * can only produce whole numbers with exact 64 bit integer
+	 * arithmetic. Whole number literals and the given variables
+	 * are integers, and so is the sum, difference, product, power,
+	 * modulus, comparison, logical operation, negation, or not of
+	 * integers. Division and function calls always use doubles.
+	 * <p>
+	 * When one of the variables does not hold a whole number, or an
+	 * integer result would overflow or is not whole, the program
+	 * falls back to running the expression with doubles only. The
+	 * functions it calls may then be called a second time. Integer
+	 * results are exact where doubles might have rounded, and never
+	 * produce a negative zero.
+	 * @param root The root of the tree to compile.
+	 * @param integers The names of the variables that only ever hold
+	 * whole numbers.
+	 * @return The compiled program.
+	 */
+	public static Program compile(Node root, Set<String> integers) {
+		if (root == null)
+			throw new IllegalArgumentException("root");
+		if (integers == null)
+			throw new IllegalArgumentException("integers");
+
+		Program plain = emit(root, null, null);
+		IdentityHashMap<Node, Boolean> types = infer(root, integers);
+		if (types.isEmpty())
+			return plain;
+		return emit(root, types, plain);
+	}
+
+	// Work out which nodes can be run with integers. Leaves are only
+	// marked when they feed an integer operation, so a double
+	// operation never has to convert them.
+	private static IdentityHashMap<Node, Boolean> infer(Node root,
+			Set<String> integers) {
+		IdentityHashMap<Node, Boolean> types = new IdentityHashMap<>();
+		try {
+			root.fold(new ASTFolder<Boolean>() {
+				private boolean mark(Node node, Node left, Node right) {
+					types.put(node, true);
+					types.put(left, true);
+					if (right != null)
+						types.put(right, true);
+					return true;
+				}
+
+				@Override
+				public Boolean fold(BinaryNode node, Boolean left,
+						Boolean right) {
+					if (left && right && node.getOperation() != Operation.DIV)
+						return mark(node, node.getLeft(), node.getRight());
+					return false;
+				}
+
+				@Override
+				public Boolean fold(UnaryNode node, Boolean right) {
+					if (right)
+						return mark(node, node.getRight(), null);
+					return false;
+				}
+
+				@Override
+				public Boolean fold(LiteralNode node) {
+					return whole(node.getValue());
+				}
+
+				@Override
+				public Boolean fold(VariableNode node) {
+					return integers.contains(node.getIdentifer());
+				}
+
+				@Override
+				public Boolean fold(CallNode node, List<Boolean> args) {
+					return false;
+				}
+			});
+		}
+		catch (EvalException e) {
+			// The folder above never throws.
+			throw new IllegalStateException(e);
+		}
+		return types;
+	}
+
+	// Whether a literal is a whole number that fits in a long.
+	private static boolean whole(double d) {
+		return d >= -0x1p63 && d < 0x1p63 && d == Math.rint(d) &&
+				Double.doubleToRawLongBits(d) != Double.doubleToRawLongBits(-0.0);
+	}
+
+	// Schedule a child node, converting its value when it is an
+	// integer feeding a double operation.
+	private static void schedule(ArrayDeque<Node> work,
+			ArrayDeque<Boolean> expanded, Node child, boolean parent,
+			IdentityHashMap<Node, Boolean> types) {
+		if (!parent && types != null && types.containsKey(child)) {
+			work.push(CONVERT);
+			expanded.push(true);
+		}
+		work.push(child);
+		expanded.push(false);
+	}
+
+	// Emit the instructions for a tree. Nodes in the types map are
+	// emitted as integer instructions.
+	private static Program emit(Node root,
+			IdentityHashMap<Node, Boolean> types, Program fallback) {
+		Builder b = new Builder();
+		// Each node is pushed once to schedule its children and a
+		// second time (flagged) to emit its own instruction after
+		// the children have been emitted.
+		ArrayDeque<Node> work = new ArrayDeque<>();
+		ArrayDeque<Boolean> expanded = new ArrayDeque<>();
+		schedule(work, expanded, root, false, types);
+
+		while (!work.isEmpty()) {
+			Node node = work.pop();
+			boolean done = expanded.pop();
+			if (node == CONVERT) {
+				b.convert();
+				continue;
+			}
+			boolean whole = types != null && types.containsKey(node);
+
+			if (node instanceof LiteralNode) {
+				double d = ((LiteralNode) node).getValue();
+				if (whole)
+					b.constant((long) d);
+				else
+					b.constant(d);
+			}
+			else if (node instanceof VariableNode)
+				b.load(((VariableNode) node).getIdentifer(), whole);
+			else if (node instanceof BinaryNode) {
+				BinaryNode bin = (BinaryNode) node;
+				if (done)
+					b.op(opcode(bin.getOperation()), -1, whole);
+				else {
+					work.push(node);
+					expanded.push(true);
+					schedule(work, expanded, bin.getRight(), whole, types);
+					schedule(work, expanded, bin.getLeft(), whole, types);
+				}
+			}
+			else if (node instanceof UnaryNode) {
+				UnaryNode un = (UnaryNode) node;
+				if (done)
+					b.op(opcode(un.getOperation()), 0, whole);
+				else {
+					work.push(node);
+					expanded.push(true);
+					schedule(work, expanded, un.getRight(), whole, types);
+				}
+			}
+			else if (node instanceof CallNode) {
+				CallNode call = (CallNode) node;
+				Node[] args = call.getArguments();
+				if (done)
+					b.call(call.getFunction(), args.length);
+				else {
+					work.push(node);
+					expanded.push(true);
+					// Push backwards so the first argument is
+					// emitted first.
+					for (int i = args.length - 1; i >= 0; i--)
+						schedule(work, expanded, args[i], false, types);
+				}
+			}
+			else
+				throw new IllegalArgumentException("root");
+		}
+
+		return b.build(fallback);
+	}
+
+	// The double instruction for an operation.
+	static int opcode(Operation op) {
+		switch (op) {
+		case ADD:
+			return ADD;
+		case SUB:
+			return SUB;
+		case MULT:
+			return MULT;
+		case DIV:
+			return DIV;
+		case POW:
+			return POW;
+		case MOD:
+			return MOD;
+		case EQLS:
+			return EQLS;
+		case NOT_EQLS:
+			return NOT_EQLS;
+		case LESS:
+			return LESS;
+		case GREATER:
+			return GREATER;
+		case LESS_OR_EQLS:
+			return LESS_OR_EQLS;
+		case GREATER_OR_EQLS:
+			return GREATER_OR_EQLS;
+		case NEGATE:
+			return NEGATE;
+		case NOT:
+			return NOT;
+		case AND:
+			return AND;
+		case OR:
+			return OR;
+		default:
+			throw new IllegalArgumentException("op");
+		}
+	}
+
+	/**
+	 * The number of variable slots used by the program.
+	 * @return Number of distinct variables.
+	 */
+	public int getVariableCount() {
+		return variables.length;
+	}
+
+	/**
+	 * Get the name of the variable bound to a slot.
+	 * @param slot The slot number.
+	 * @return The name of the variable.
+	 */
+	public String getVariable(int slot) {
+		return variables[slot];
+	}
+
+	/**
+	 * The number of function slots used by the program.
+	 * @return Number of distinct functions.
+	 */
+	public int getFunctionCount() {
+		return functions.length;
+	}
+
+	/**
+	 * Get the name of the function bound to a slot.
+	 * @param slot The slot number.
+	 * @return The name of the function.
+	 */
+	public String getFunction(int slot) {
+		return functions[slot];
+	}
+
+	/**
+	 * Checks to see if part of the program runs with integers.
+	 * @return True if the program has integer instructions.
+	 */
+	public boolean isSpecialized() {
+		return fallback != null;
+	}
+
+	// The raw instructions using only doubles, for tools that
+	// translate programs.
+	int[] code() {
+		return fallback != null ? fallback.code : code;
+	}
+	
+	// The constant table matching code().
+	double[] constants() {
+		return fallback != null ? fallback.constants : constants;
+	}
+
+	/**
+	 * Run the program with the values and functions bound to
+	 * each slot.
+	 * @param vars The value of each variable slot.
+	 * @param funcs The function for each function slot.
+	 * @return The result of the expression.
+	 * @throws EvalException When a function has a runtime error.
+	 */
+	public double run(double[] vars, Function[] funcs)
+			throws EvalException {
+		if (vars == null || vars.length < variables.length)
+			throw new IllegalArgumentException("vars");
+		if (funcs == null || funcs.length < functions.length)
+			throw new IllegalArgumentException("funcs");
+
+		return run(vars, funcs, new double[stackSize()],
+				new long[maxLongStack]);
+	}
+
+	// How large the operand stacks passed to run have to be.
+	int stackSize() {
+		return fallback == null ? maxStack :
+				Math.max(maxStack, fallback.maxStack);
+	}
+
+	int longStackSize() {
+		return maxLongStack;
+	}
+
+	// Run with operand stacks from the caller, so that running many
+	// times does not allocate them again.
+	double run(double[] vars, Function[] funcs, double[] stack, long[] ints)
+			throws EvalException {
+		if (fallback == null)
+			return execute(vars, funcs, stack, ints);
+		try {
+			return execute(vars, funcs, stack, ints);
+		}
+		catch (Overflow e) {
+			return fallback.execute(vars, funcs, stack, ints);
+		}
+	}
+
+	private double execute(double[] vars, Function[] funcs,
+			final double[] stack, final long[] ints) throws EvalException {
+		final int[] code = this.code;
+		int sp = 0;
+		int lp = 0;
+		int pc = 0;
+
+		while (pc < code.length) {
+			switch (code[pc++]) {
+			case CONST:
+				stack[sp++] = constants[code[pc++]];
+				break;
+			case LOAD:
+				stack[sp++] = vars[code[pc++]];
+				break;
+			case CALL: {
+				Function f = funcs[code[pc++]];
+				int argc = code[pc++];
+				double[] args = new double[argc];
+				sp -= argc;
+				System.arraycopy(stack, sp, args, 0, argc);
+				stack[sp++] = f.call(args);
+				break;
+			}
+			case ADD:
+				sp--;
+				stack[sp - 1] = stack[sp - 1] + stack[sp];
+				break;
+			case SUB:
+				sp--;
+				stack[sp - 1] = stack[sp - 1] - stack[sp];
+				break;
+			case MULT:
+				sp--;
+				stack[sp - 1] = stack[sp - 1] * stack[sp];
+				break;
+			case DIV:
+				sp--;
+				stack[sp - 1] = stack[sp - 1] / stack[sp];
+				break;
+			case POW:
+				sp--;
+				stack[sp - 1] = Math.pow(stack[sp - 1], stack[sp]);
+				break;
+			case MOD:
+				sp--;
+				stack[sp - 1] = stack[sp - 1] % stack[sp];
+				break;
+			case EQLS:
+				sp--;
+				stack[sp - 1] = stack[sp - 1] == stack[sp] ? 1.0 : 0.0;
+				break;
+			case NOT_EQLS:
+				sp--;
+				stack[sp - 1] = stack[sp - 1] != stack[sp] ? 1.0 : 0.0;
+				break;
+			case LESS:
+				sp--;
+				stack[sp - 1] = stack[sp - 1] < stack[sp] ? 1.0 : 0.0;
+				break;
+			case GREATER:
+				sp--;
+				stack[sp - 1] = stack[sp - 1] > stack[sp] ? 1.0 : 0.0;
+				break;
+			case LESS_OR_EQLS:
+				sp--;
+				stack[sp - 1] = stack[sp - 1] <= stack[sp] ? 1.0 : 0.0;
+				break;
+			case GREATER_OR_EQLS:
+				sp--;
+				stack[sp - 1] = stack[sp - 1] >= stack[sp] ? 1.0 : 0.0;
+				break;
+			case NEGATE:
+				stack[sp - 1] = -stack[sp - 1];
+				break;
+			case NOT:
+				// Only the value 0 is considered false.
+				stack[sp - 1] = stack[sp - 1] == 0.0 ? 1.0 : 0.0;
+				break;
+			case AND:
+				sp--;
+				stack[sp - 1] = stack[sp - 1] != 0.0 && stack[sp] != 0.0 ?
+						1.0 : 0.0;
+				break;
+			case OR:
+				sp--;
+				stack[sp - 1] = stack[sp - 1] != 0.0 || stack[sp] != 0.0 ?
+						1.0 : 0.0;
+				break;
+			case ICONST:
+				ints[lp++] = longs[code[pc++]];
+				break;
+			case ILOAD:
+				ints[lp++] = integer(vars[code[pc++]]);
+				break;
+			case IADD:
+				lp--;
+				ints[lp - 1] = add(ints[lp - 1], ints[lp]);
+				break;
+			case ISUB:
+				lp--;
+				ints[lp - 1] = subtract(ints[lp - 1], ints[lp]);
+				break;
+			case IMULT:
+				lp--;
+				ints[lp - 1] = multiply(ints[lp - 1], ints[lp]);
+				break;
+			case IPOW:
+				lp--;
+				ints[lp - 1] = power(ints[lp - 1], ints[lp]);
+				break;
+			case IMOD:
+				lp--;
+				// A zero divisor gives NaN, which is not an integer.
+				if (ints[lp] == 0)
+					throw OVERFLOW;
+				ints[lp - 1] = modulo(ints[lp - 1], ints[lp]);
+				break;
+			case IEQLS:
+				lp--;
+				ints[lp - 1] = ints[lp - 1] == ints[lp] ? 1 : 0;
+				break;
+			case INOT_EQLS:
+				lp--;
+				ints[lp - 1] = ints[lp - 1] != ints[lp] ? 1 : 0;
+				break;
+			case ILESS:
+				lp--;
+				ints[lp - 1] = ints[lp - 1] < ints[lp] ? 1 : 0;
+				break;
+			case IGREATER:
+				lp--;
+				ints[lp - 1] = ints[lp - 1] > ints[lp] ? 1 : 0;
+				break;
+			case ILESS_OR_EQLS:
+				lp--;
+				ints[lp - 1] = ints[lp - 1] <= ints[lp] ? 1 : 0;
+				break;
+			case IGREATER_OR_EQLS:
+				lp--;
+				ints[lp - 1] = ints[lp - 1] >= ints[lp] ? 1 : 0;
+				break;
+			case INEGATE:
+				// Negating zero gives -0.0.
+				if (ints[lp - 1] == Long.MIN_VALUE || ints[lp - 1] == 0)
+					throw OVERFLOW;
+				ints[lp - 1] = -ints[lp - 1];
+				break;
+			case INOT:
+				ints[lp - 1] = ints[lp - 1] == 0 ? 1 : 0;
+				break;
+			case IAND:
+				lp--;
+				ints[lp - 1] = ints[lp - 1] != 0 && ints[lp] != 0 ? 1 : 0;
+				break;
+			case IOR:
+				lp--;
+				ints[lp - 1] = ints[lp - 1] != 0 || ints[lp] != 0 ? 1 : 0;
+				break;
+			case I2D:
+				stack[sp++] = ints[--lp];
+				break;
+			default:
+				throw new EvalException("Illegal instruction.");
+			}
+		}
+
+		return stack[0];
+	}
+
+	// Apply a binary instruction to two doubles, for tools that
+	// work through programs one instruction at a time.
+	static double binary(int op, double x, double y)
+			throws EvalException {
+		switch (op) {
+		case ADD:
+			return x + y;
+		case SUB:
+			return x - y;
+		case MULT:
+			return x * y;
+		case DIV:
+			return x / y;
+		case POW:
+			return Math.pow(x, y);
+		case MOD:
+			return x % y;
+		case EQLS:
+			return x == y ? 1.0 : 0.0;
+		case NOT_EQLS:
+			return x != y ? 1.0 : 0.0;
+		case LESS:
+			return x < y ? 1.0 : 0.0;
+		case GREATER:
+			return x > y ? 1.0 : 0.0;
+		case LESS_OR_EQLS:
+			return x <= y ? 1.0 : 0.0;
+		case GREATER_OR_EQLS:
+			return x >= y ? 1.0 : 0.0;
+		case AND:
+			return x != 0.0 && y != 0.0 ? 1.0 : 0.0;
+		case OR:
+			return x != 0.0 || y != 0.0 ? 1.0 : 0.0;
+		default:
+			throw new EvalException("Illegal instruction.");
+		}
+	}
+
+	// Convert a variable to an integer, giving up if it is not a
+	// whole number that fits.
+	private static long integer(double d) {
+		if (!(d >= -0x1p63 && d < 0x1p63))
+			throw OVERFLOW;
+		long l = (long) d;
+		if (l != d || (l == 0 && Double.doubleToRawLongBits(d) != 0))
+			throw OVERFLOW;
+		return l;
+	}
+
+	private static long add(long x, long y) {
+		long r = x + y;
+		if (((x ^ r) & (y ^ r)) < 0)
+			throw OVERFLOW;
+		return r;
+	}
+
+	private static long subtract(long x, long y) {
+		long r = x - y;
+		if (((x ^ y) & (x ^ r)) < 0)
+			throw OVERFLOW;
+		return r;
+	}
+
+	private static long multiply(long x, long y) {
+		long r = x * y;
+		if (Math.multiplyHigh(x, y) != (r >> 63))
+			throw OVERFLOW;
+		// Zero times a negative number gives -0.0.
+		if (r == 0 && (x < 0 || y < 0))
+			throw OVERFLOW;
+		return r;
+	}
+
+	// The remainder takes the sign of the dividend, so a negative
+	// dividend with no remainder gives -0.0.
+	private static long modulo(long x, long y) {
+		long r = x % y;
+		if (r == 0 && x < 0)
+			throw OVERFLOW;
+		return r;
+	}
+
+	// Exponentiation by squaring. A negative exponent gives a
+	// fraction, so it is left to the doubles.
+	private static long power(long x, long y) {
+		if (y < 0)
+			throw OVERFLOW;
+		if (x == 0)
+			return y == 0 ? 1 : 0;
+		if (x == 1)
+			return 1;
+		if (x == -1)
+			return (y & 1) == 0 ? 1 : -1;
+
+		long r = 1;
+		while (true) {
+			if ((y & 1) != 0)
+				r = multiply(r, x);
+			y >>= 1;
+			if (y == 0)
+				return r;
+			x = multiply(x, x);
+		}
+	}
+
+	// Accumulates instructions and the constant, variable, and
+	// function tables while compiling.
+	private static final class Builder {
+		private int[] code = new int[16];
+		private int length = 0;
+		private int depth = 0;
+		private int maxDepth = 0;
+		private int longDepth = 0;
+		private int maxLongDepth = 0;
+		private ArrayList<Double> constants = new ArrayList<>();
+		private HashMap<Double, Integer> constantSlots = new HashMap<>();
+		private ArrayList<Long> longs = new ArrayList<>();
+		private HashMap<Long, Integer> longSlots = new HashMap<>();
+		private ArrayList<String> variables = new ArrayList<>();
+		private HashMap<String, Integer> variableSlots = new HashMap<>();
+		private ArrayList<String> functions = new ArrayList<>();
+		private HashMap<String, Integer> functionSlots = new HashMap<>();
+
+		private void emit(int i) {
+			if (length == code.length)
+				code = Arrays.copyOf(code, length * 2);
+			code[length++] = i;
+		}
+
+		private void grow(int delta) {
+			depth += delta;
+			if (depth > maxDepth)
+				maxDepth = depth;
+		}
+
+		private void growLong(int delta) {
+			longDepth += delta;
+			if (longDepth > maxLongDepth)
+				maxLongDepth = longDepth;
+		}
+
+		void constant(double d) {
+			Integer slot = constantSlots.get(d);
+			if (slot == null) {
+				slot = constants.size();
+				constants.add(d);
+				constantSlots.put(d, slot);
+			}
+			emit(CONST);
+			emit(slot);
+			grow(1);
+		}
+
+		void constant(long l) {
+			Integer slot = longSlots.get(l);
+			if (slot == null) {
+				slot = longs.size();
+				longs.add(l);
+				longSlots.put(l, slot);
+			}
+			emit(ICONST);
+			emit(slot);
+			growLong(1);
+		}
+
+		void load(String name, boolean whole) {
+			Integer slot = variableSlots.get(name);
+			if (slot == null) {
+				slot = variables.size();
+				variables.add(name);
+				variableSlots.put(name, slot);
+			}
+			if (whole) {
+				emit(ILOAD);
+				growLong(1);
+			}
+			else {
+				emit(LOAD);
+				grow(1);
+			}
+			emit(slot);
+		}
+
+		void call(String name, int argc) {
+			Integer slot = functionSlots.get(name);
+			if (slot == null) {
+				slot = functions.size();
+				functions.add(name);
+				functionSlots.put(name, slot);
+			}
+			emit(CALL);
+			emit(slot);
+			emit(argc);
+			grow(1 - argc);
+		}
+
+		void op(int opcode, int delta, boolean whole) {
+			if (whole) {
+				// The integer form of each operation is 16 above.
+				emit(opcode + 16);
+				growLong(delta);
+			}
+			else {
+				emit(opcode);
+				grow(delta);
+			}
+		}
+
+		void convert() {
+			emit(I2D);
+			longDepth--;
+			grow(1);
+		}
+
+		Program build(Program fallback) {
+			double[] c = new double[constants.size()];
+			for (int i = 0; i < c.length; i++)
+				c[i] = constants.get(i);
+			long[] l = new long[longs.size()];
+			for (int i = 0; i < l.length; i++)
+				l[i] = longs.get(i);
+			return new Program(Arrays.copyOf(code, length), c, l,
+					variables.toArray(new String[variables.size()]),
+					functions.toArray(new String[functions.size()]),
+					// A call with no arguments still needs one slot.
+					Math.max(maxDepth, 1), maxLongDepth, fallback);
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package tech.gitpicard.jcalc;
+
+/**
+ * The rows with the highest results from
+ * {@link ColumnEvaluator#top(int, int)}, highest first. Rows with the
+ * same result are ordered by their row number.
+ */
+public final class Ranking {
+
+	private final int[] rows;
+	private final double[] scores;
+
+	Ranking(int[] rows, double[] scores) {
+		this.rows = rows;
+		this.scores = scores;
+	}
+
+	/**
+	 * The number of rows kept, which is less than asked for when there
+	 * were fewer rows that did not give NaN.
+	 * @return Number of rows.
+	 */
+	public int size() {
+		return rows.length;
+	}
+
+	/**
+	 * Get the number of a row.
+	 * @param rank The place of the row, 0 for the highest.
+	 * @return The row number.
+	 */
+	public int getRow(int rank) {
+		if (rank < 0 || rank >= rows.length)
+			throw new IllegalArgumentException("rank");
+		return rows[rank];
+	}
+
+	/**
+	 * Get the result of a row.
+	 * @param rank The place of the row, 0 for the highest.
+	 * @return The result.
+	 */
+	public double getScore(int rank) {
+		if (rank < 0 || rank >= scores.length)
+			throw new IllegalArgumentException("rank");
+		return scores[rank];
+	}
+}
@@ -0,0 +1,372 @@
+package tech.gitpicard.jcalc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import tech.gitpicard.jcalc.ast.BinaryNode;
+import tech.gitpicard.jcalc.ast.LiteralNode;
+import tech.gitpicard.jcalc.ast.Node;
+import tech.gitpicard.jcalc.ast.VariableNode;
+
+/**
+ * A large set of rule expressions that can be matched against the
+ * variables of a calculator. A rule matches when it evaluates to
+ * anything other than 0.
+ * <p>
+ * Rules that simply compare a variable against a literal, such as
+ * {@code temp > 80} or {@code load >= 0.9 = true}, are kept in sorted
+ * tables for each variable so that matching them only costs a binary
+ * search. All other rules are evaluated one by one. A rule that uses
+ * a variable the calculator does not define, and its resolver cannot
+ * supply, never matches.
+ * <p>
+ * Once every rule has been added, a set can be matched from many
+ * threads at once. Rules must not be added while it is being matched.
+ */
+public final class RuleSet {
+
+	// A rule comparing a variable against a threshold.
+	private static final class Entry {
+		private final int kind;
+		private final double threshold;
+		private final int rule;
+
+		Entry(int kind, double threshold, int rule) {
+			this.kind = kind;
+			this.threshold = threshold;
+			this.rule = rule;
+		}
+	}
+
+	// The indexed rules that test a single variable.
+	private static final class Index {
+		private final ArrayList<Entry> entries = new ArrayList<>();
+		// Indexed by the comparison kind below, each holding rule
+		// numbers sorted by their threshold.
+		private final double[][] thresholds = new double[4][];
+		private final int[][] rules = new int[4][];
+		private final HashMap<Double, ArrayList<Integer>> equal =
+				new HashMap<>();
+		private final ArrayList<Integer> notEqual = new ArrayList<>();
+		private final HashMap<Double, HashSet<Integer>> notEqualAt =
+				new HashMap<>();
+		private boolean dirty = true;
+	}
+
+	private static final int GREATER = 0;
+	private static final int GREATER_OR_EQLS = 1;
+	private static final int LESS = 2;
+	private static final int LESS_OR_EQLS = 3;
+
+	private final ArrayList<Program> programs;
+	private final ArrayList<Boolean> indexed;
+	private final HashMap<String, Index> indices;
+	private final ArrayList<Integer> general;
+
+	/**
+	 * Create an empty rule set.
+	 */
+	public RuleSet() {
+		programs = new ArrayList<>();
+		indexed = new ArrayList<>();
+		indices = new HashMap<>();
+		general = new ArrayList<>();
+	}
+
+	/**
+	 * Parse a rule and add it to the set.
+	 * @param source The rule expression.
+	 * @return The number of the rule, counting up from 0.
+	 * @throws SyntaxException When there is a syntax error.
+	 */
+	public int add(String source) throws SyntaxException {
+		return add(new Parser(new Lexer(source)).parseTree());
+	}
+
+	/**
+	 * Add a rule to the set.
+	 * @param rule The root of the rule expression.
+	 * @return The number of the rule, counting up from 0.
+	 */
+	public int add(Node rule) {
+		if (rule == null)
+			throw new IllegalArgumentException("rule");
+
+		int id = programs.size();
+		programs.add(Program.compile(rule));
+		boolean simple = index(id, rule);
+		indexed.add(simple);
+		if (!simple)
+			general.add(id);
+		return id;
+	}
+
+	/**
+	 * The number of rules in the set.
+	 * @return Number of rules.
+	 */
+	public int size() {
+		return programs.size();
+	}
+
+	/**
+	 * Checks to see if a rule is matched through the index rather
+	 * than by evaluating it.
+	 * @param rule The number of the rule.
+	 * @return True if the rule is indexed.
+	 */
+	public boolean isIndexed(int rule) {
+		return indexed.get(rule);
+	}
+
+	// Try to add the rule to the index. Returns false if the rule is
+	// not a simple comparison.
+	private boolean index(int id, Node rule) {
+		// Comparing a comparison with true does not change it.
+		while (rule instanceof BinaryNode) {
+			BinaryNode b = (BinaryNode) rule;
+			if (!comparison(b.getLeft()) ||
+					!(b.getRight() instanceof LiteralNode))
+				break;
+			double d = ((LiteralNode) b.getRight()).getValue();
+			if ((b.getOperation() == Operation.EQLS && d == 1.0) ||
+					(b.getOperation() == Operation.NOT_EQLS && d == 0.0))
+				rule = b.getLeft();
+			else
+				break;
+		}
+
+		if (!comparison(rule))
+			return false;
+		BinaryNode b = (BinaryNode) rule;
+		Operation op = b.getOperation();
+		Node var = b.getLeft();
+		Node lit = b.getRight();
+		// Put the variable on the left side.
+		if (var instanceof LiteralNode) {
+			var = b.getRight();
+			lit = b.getLeft();
+			op = flip(op);
+		}
+		if (!(var instanceof VariableNode) || !(lit instanceof LiteralNode))
+			return false;
+		double t = ((LiteralNode) lit).getValue();
+		if (Double.isNaN(t))
+			return false;
+		// Fold negative zero into zero so that sorting agrees with
+		// the comparisons.
+		t += 0.0;
+
+		String name = ((VariableNode) var).getIdentifer();
+		Index index = indices.get(name);
+		if (index == null) {
+			index = new Index();
+			indices.put(name, index);
+		}
+
+		switch (op) {
+		case EQLS:
+			index.equal.computeIfAbsent(t, (k) -> new ArrayList<>()).add(id);
+			break;
+		case NOT_EQLS:
+			index.notEqual.add(id);
+			index.notEqualAt.computeIfAbsent(t,
+					(k) -> new HashSet<>()).add(id);
+			break;
+		default:
+			index.entries.add(new Entry(kind(op), t, id));
+			index.dirty = true;
+			break;
+		}
+		return true;
+	}
+
+	private static boolean comparison(Node n) {
+		if (!(n instanceof BinaryNode))
+			return false;
+		switch (((BinaryNode) n).getOperation()) {
+		case EQLS:
+		case NOT_EQLS:
+		case LESS:
+		case GREATER:
+		case LESS_OR_EQLS:
+		case GREATER_OR_EQLS:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static Operation flip(Operation op) {
+		switch (op) {
+		case LESS:
+			return Operation.GREATER;
+		case GREATER:
+			return Operation.LESS;
+		case LESS_OR_EQLS:
+			return Operation.GREATER_OR_EQLS;
+		case GREATER_OR_EQLS:
+			return Operation.LESS_OR_EQLS;
+		default:
+			return op;
+		}
+	}
+
+	private static int kind(Operation op) {
+		switch (op) {
+		case GREATER:
+			return GREATER;
+		case GREATER_OR_EQLS:
+			return GREATER_OR_EQLS;
+		case LESS:
+			return LESS;
+		default:
+			return LESS_OR_EQLS;
+		}
+	}
+
+	// Sort the tables of every variable that had rules added since the
+	// last match. Holding the lock also makes the sorted tables visible
+	// to every thread that matches afterwards.
+	private synchronized void prepare() {
+		for (Index index : indices.values())
+			if (index.dirty)
+				build(index);
+	}
+
+	// Sort the thresholds of every comparison kind.
+	private static void build(Index index) {
+		ArrayList<Entry> sorted = new ArrayList<>(index.entries);
+		sorted.sort((x, y) -> Double.compare(x.threshold, y.threshold));
+		for (int k = 0; k < 4; k++) {
+			int count = 0;
+			for (Entry e : sorted)
+				if (e.kind == k)
+					count++;
+			index.thresholds[k] = new double[count];
+			index.rules[k] = new int[count];
+			int i = 0;
+			for (Entry e : sorted) {
+				if (e.kind == k) {
+					index.thresholds[k][i] = e.threshold;
+					index.rules[k][i++] = e.rule;
+				}
+			}
+		}
+		index.dirty = false;
+	}
+
+	// The first position holding a threshold of at least x, or with
+	// strict set, greater than x.
+	private static int search(double[] t, double x, boolean strict) {
+		int lo = 0;
+		int hi = t.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (t[mid] < x || (strict && t[mid] == x))
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	private static void addRange(ArrayList<Integer> out, int[] rules,
+			int from, int to) {
+		for (int i = from; i < to; i++)
+			out.add(rules[i]);
+	}
+
+	// The value of a variable from the calculator or its resolver,
+	// looked up once for each match, or null if it is not defined.
+	private static Double value(JCalculator env, HashMap<String, Double> values,
+			String name) {
+		if (values.containsKey(name))
+			return values.get(name);
+		Double value;
+		try {
+			value = env.lookup(name);
+		}
+		catch (EvalException e) {
+			value = null;
+		}
+		values.put(name, value);
+		return value;
+	}
+
+	/**
+	 * Find every rule that matches the variables currently defined in
+	 * a calculator, or supplied by its resolver.
+	 * @param env The calculator holding the variables and functions.
+	 * @return The numbers of the matching rules, in increasing order.
+	 * @throws EvalException When a rule has a runtime error.
+	 */
+	public int[] match(JCalculator env) throws EvalException {
+		if (env == null)
+			throw new IllegalArgumentException("env");
+
+		ArrayList<Integer> out = new ArrayList<>();
+		prepare();
+		HashMap<String, Double> values = new HashMap<>();
+		for (Map.Entry<String, Index> e : indices.entrySet()) {
+			Double value = value(env, values, e.getKey());
+			if (value == null)
+				continue;
+			double x = value + 0.0;
+			Index index = e.getValue();
+
+			// NaN is not equal to anything, and so is never less or
+			// greater either.
+			if (Double.isNaN(x)) {
+				out.addAll(index.notEqual);
+				continue;
+			}
+
+			double[][] t = index.thresholds;
+			int[][] r = index.rules;
+			// x > t holds for every threshold below x.
+			addRange(out, r[GREATER], 0, search(t[GREATER], x, false));
+			addRange(out, r[GREATER_OR_EQLS], 0,
+					search(t[GREATER_OR_EQLS], x, true));
+			addRange(out, r[LESS], search(t[LESS], x, true),
+					r[LESS].length);
+			addRange(out, r[LESS_OR_EQLS], search(t[LESS_OR_EQLS], x, false),
+					r[LESS_OR_EQLS].length);
+
+			ArrayList<Integer> eq = index.equal.get(x);
+			if (eq != null)
+				out.addAll(eq);
+			HashSet<Integer> skip = index.notEqualAt.get(x);
+			if (skip == null)
+				out.addAll(index.notEqual);
+			else
+				for (Integer id : index.notEqual)
+					if (!skip.contains(id))
+						out.add(id);
+		}
+
+		// Everything else has to be evaluated.
+		for (Integer id : general) {
+			Program p = programs.get(id);
+			double[] vars = new double[p.getVariableCount()];
+			boolean defined = true;
+			for (int i = 0; i < vars.length && defined; i++) {
+				Double value = value(env, values, p.getVariable(i));
+				defined = value != null;
+				if (defined)
+					vars[i] = value;
+			}
+			if (defined && p.run(vars, env.bindFunctions(p)) != 0.0)
+				out.add(id);
+		}
+
+		int[] ids = new int[out.size()];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = out.get(i);
+		Arrays.sort(ids);
+		return ids;
+	}
+}
@@ -0,0 +1,105 @@
+package tech.gitpicard.jcalc;
+
+import java.util.List;
+import java.util.Map;
+
+import tech.gitpicard.jcalc.ast.ASTFolder;
+import tech.gitpicard.jcalc.ast.BinaryNode;
+import tech.gitpicard.jcalc.ast.CallNode;
+import tech.gitpicard.jcalc.ast.LiteralNode;
+import tech.gitpicard.jcalc.ast.Node;
+import tech.gitpicard.jcalc.ast.UnaryNode;
+import tech.gitpicard.jcalc.ast.VariableNode;
+
+/**
+ * Rebuilds a tree with some variables replaced by their values,
+ * folding the parts that no longer depend on anything into
+ * literals. Only rewrites that give the same result for every
+ * double, including NaN and negative zero, are applied. Function
+ * calls are never folded. Subtrees that do not change are shared
+ * with the original tree.
+ */
+final class Specializer implements ASTFolder<Node> {
+
+	private final Map<String, Double> fixed;
+	private final JCalculator calc;
+
+	Specializer(Map<String, Double> fixed, JCalculator calc) {
+		this.fixed = fixed;
+		this.calc = calc;
+	}
+
+	// Checks for a literal with exactly this value, telling zero and
+	// negative zero apart.
+	private static boolean isLiteral(Node n, double d) {
+		return n instanceof LiteralNode &&
+				Double.doubleToRawLongBits(((LiteralNode) n).getValue()) ==
+				Double.doubleToRawLongBits(d);
+	}
+
+	@Override
+	public Node fold(BinaryNode node, Node left, Node right)
+			throws EvalException {
+		if (left != node.getLeft() || right != node.getRight())
+			node = new BinaryNode(left, node.getOperation(), right);
+		if (left instanceof LiteralNode && right instanceof LiteralNode)
+			return new LiteralNode(node.accept(calc));
+
+		switch (node.getOperation()) {
+		case MULT:
+			if (isLiteral(left, 1.0))
+				return right;
+			if (isLiteral(right, 1.0))
+				return left;
+			break;
+		case DIV:
+		case POW:
+			if (isLiteral(right, 1.0))
+				return left;
+			break;
+		case SUB:
+			if (isLiteral(right, 0.0))
+				return left;
+			break;
+		default:
+			break;
+		}
+		return node;
+	}
+
+	@Override
+	public Node fold(UnaryNode node, Node right) throws EvalException {
+		if (right != node.getRight())
+			node = new UnaryNode(node.getOperation(), right);
+		if (right instanceof LiteralNode)
+			return new LiteralNode(node.accept(calc));
+		// Negating twice gives back the same value.
+		if (node.getOperation() == Operation.NEGATE &&
+				right instanceof UnaryNode &&
+				((UnaryNode) right).getOperation() == Operation.NEGATE)
+			return ((UnaryNode) right).getRight();
+		return node;
+	}
+
+	@Override
+	public Node fold(LiteralNode node) {
+		return node;
+	}
+
+	@Override
+	public Node fold(VariableNode node) {
+		Double value = fixed.get(node.getIdentifer());
+		return value == null ? node : new LiteralNode(value);
+	}
+
+	@Override
+	public Node fold(CallNode node, List<Node> args) {
+		Node[] old = node.getArguments();
+		boolean changed = false;
+		for (int i = 0; i < old.length; i++)
+			changed |= args.get(i) != old[i];
+		if (!changed)
+			return node;
+		return new CallNode(node.getFunction(), args.toArray(new Node[args.size()]));
+	}
+}
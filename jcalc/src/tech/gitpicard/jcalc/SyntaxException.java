@@ -4,12 +4,42 @@ package tech.gitpicard.jcalc;
  * An exception caused by illegal expression syntax.
  */
 public class SyntaxException extends Exception {
+	
+	private final int offset;
+	
 	/**
 	 * Create a new exception resulting from an illegal expression
 	 * being passed in.
 	 * @param s A short error message.
 	 */
 	public SyntaxException(String s) {
+		this(s, -1);
+	}
+	
+	/**
+	 * Create a new exception for an error at a position in the
+	 * expression.
+	 * @param s A short error message.
+	 * @param offset The position of the error in the source.
+	 */
+	public SyntaxException(String s, int offset) {
 		super(s);
+		this.offset = offset;
+	}
+	
+	// Used when validating, where only the message and position
+	// matter and filling in the stack trace would cost more than
+	// the parse.
+	SyntaxException(String s, int offset, boolean trace) {
+		super(s, null, false, trace);
+		this.offset = offset;
+	}
+	
+	/**
+	 * Get the position in the source where the error was found.
+	 * @return The offset of the error, or -1 if unknown.
+	 */
+	public int getOffset() {
+		return offset;
 	}
 }
@@ -0,0 +1,241 @@
+package tech.gitpicard.jcalc;
+
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import tech.gitpicard.jcalc.ast.ASTFolder;
+import tech.gitpicard.jcalc.ast.BinaryNode;
+import tech.gitpicard.jcalc.ast.CallNode;
+import tech.gitpicard.jcalc.ast.LiteralNode;
+import tech.gitpicard.jcalc.ast.Node;
+import tech.gitpicard.jcalc.ast.UnaryNode;
+import tech.gitpicard.jcalc.ast.VariableNode;
+
+/**
+ * An expression that starts out cheap and gets faster if it is used
+ * a lot. It is first evaluated by walking its tree with the
+ * calculator, which costs nothing up front, and the tree is walked
+ * without recursion so any depth of expression can be evaluated.
+ * Once it has been evaluated as many times as its
+ * {@link TieredPolicy} says, it is compiled into a {@link Program}
+ * in the background, and every evaluation after the program is
+ * ready runs the program instead.
+ * Evaluations never wait for the compiling.
+ * <p>
+ * An expression can be evaluated from many threads at once, as long
+ * as the calculator is not changed at the same time.
+ */
+public final class TieredExpression {
+
+	/**
+	 * How an expression is being evaluated.
+	 */
+	public enum Tier {
+		/** Walking the tree. */
+		INTERPRETED,
+		/** Walking the tree while it is compiled in the background. */
+		COMPILING,
+		/** Running the compiled program. */
+		COMPILED
+	}
+
+	// Held by tier alongside the public tiers once compiling failed,
+	// so that it is not tried again.
+	private static final int FAILED = Tier.values().length;
+
+	private final JCalculator env;
+	private final Node tree;
+	private final TieredPolicy policy;
+	private final AtomicInteger tier;
+	private final AtomicLong interpreted;
+	private final LongAdder compiled;
+	private final Interpreter interpreter;
+	// Set once by the compiling, after which it never changes.
+	private volatile Program program;
+
+	/**
+	 * Parse an expression to be evaluated in tiers.
+	 * @param env The calculator to take variables and functions from.
+	 * @param source The expression.
+	 * @param policy Decides when the expression is compiled.
+	 * @throws SyntaxException When there is a syntax error.
+	 */
+	public TieredExpression(JCalculator env, String source,
+			TieredPolicy policy) throws SyntaxException {
+		this(env, parse(env, source), policy);
+	}
+
+	/**
+	 * Evaluate a tree that has already been parsed in tiers.
+	 * @param env The calculator to take variables and functions from.
+	 * @param tree The root of the tree.
+	 * @param policy Decides when the expression is compiled.
+	 */
+	public TieredExpression(JCalculator env, Node tree, TieredPolicy policy) {
+		if (env == null)
+			throw new IllegalArgumentException("env");
+		if (tree == null)
+			throw new IllegalArgumentException("tree");
+		if (policy == null)
+			throw new IllegalArgumentException("policy");
+		this.env = env;
+		this.tree = tree;
+		this.policy = policy;
+		tier = new AtomicInteger(Tier.INTERPRETED.ordinal());
+		interpreted = new AtomicLong();
+		compiled = new LongAdder();
+		interpreter = new Interpreter();
+	}
+
+	private static Node parse(JCalculator env, String source)
+			throws SyntaxException {
+		if (env == null)
+			throw new IllegalArgumentException("env");
+		return env.parse(source);
+	}
+
+	/**
+	 * Evaluate the expression with the variables and functions
+	 * currently defined in the calculator.
+	 * @return The resulting value.
+	 * @throws EvalException When there is a runtime evaluation error.
+	 */
+	public double eval() throws EvalException {
+		Program p = program;
+		if (p != null) {
+			compiled.increment();
+			return env.eval(p);
+		}
+		if (interpreted.incrementAndGet() >= policy.getThreshold() &&
+				tier.get() == Tier.INTERPRETED.ordinal())
+			promote();
+		return tree.fold(interpreter);
+	}
+
+	// Evaluates the tree bottom up the same way the calculator does.
+	// It keeps no state, so it is shared by every thread.
+	private final class Interpreter implements ASTFolder<Double> {
+		@Override
+		public Double fold(BinaryNode node, Double left, Double right)
+				throws EvalException {
+			return Program.binary(Program.opcode(node.getOperation()),
+					left, right);
+		}
+
+		@Override
+		public Double fold(UnaryNode node, Double right)
+				throws EvalException {
+			if (node.getOperation() == Operation.NEGATE)
+				return -right;
+			else if (node.getOperation() == Operation.NOT)
+				return right == 0.0 ? 1.0 : 0.0;
+			throw new EvalException("Illegal unary operation.");
+		}
+
+		@Override
+		public Double fold(LiteralNode node) {
+			return node.getValue();
+		}
+
+		@Override
+		public Double fold(VariableNode node) throws EvalException {
+			return env.lookup(node.getIdentifer());
+		}
+
+		@Override
+		public Double fold(CallNode node, List<Double> args)
+				throws EvalException {
+			String s = node.getFunction();
+			Function f = env.function(s);
+			if (f == null)
+				throw new EvalException("No function '" + s + "' found.");
+			double[] values = new double[args.size()];
+			for (int i = 0; i < values.length; i++)
+				values[i] = args.get(i);
+			return f.call(values);
+		}
+	}
+
+	// Compile in the background, only ever once.
+	private void promote() {
+		if (!tier.compareAndSet(Tier.INTERPRETED.ordinal(),
+				Tier.COMPILING.ordinal()))
+			return;
+		try {
+			policy.getExecutor().execute(this::compile);
+		}
+		catch (RejectedExecutionException e) {
+			// Try again on the next evaluation.
+			tier.set(Tier.INTERPRETED.ordinal());
+		}
+	}
+
+	private void compile() {
+		long start = System.nanoTime();
+		Program p;
+		try {
+			p = Program.compile(tree);
+		}
+		catch (RuntimeException e) {
+			// Keep walking the tree, which still works.
+			policy.failed(System.nanoTime() - start);
+			tier.set(FAILED);
+			return;
+		}
+		policy.compiled(System.nanoTime() - start);
+		program = p;
+		tier.set(Tier.COMPILED.ordinal());
+	}
+
+	/**
+	 * Get the tree of the expression.
+	 * @return The root of the tree.
+	 */
+	public Node getTree() {
+		return tree;
+	}
+
+	/**
+	 * Get the policy deciding when the expression is compiled.
+	 * @return The policy.
+	 */
+	public TieredPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Get how the expression is being evaluated right now.
+	 * @return The tier.
+	 */
+	public Tier getTier() {
+		int t = tier.get();
+		return t == FAILED ? Tier.INTERPRETED : Tier.values()[t];
+	}
+
+	/**
+	 * Get the compiled program.
+	 * @return The program, or null if it is not ready.
+	 */
+	public Program getProgram() {
+		return program;
+	}
+
+	/**
+	 * The number of evaluations that walked the tree.
+	 * @return Number of evaluations.
+	 */
+	public long getInterpretedCount() {
+		return interpreted.get();
+	}
+
+	/**
+	 * The number of evaluations that ran the compiled program.
+	 * @return Number of evaluations.
+	 */
+	public long getCompiledCount() {
+		return compiled.sum();
+	}
+}
@@ -0,0 +1,100 @@
+package tech.gitpicard.jcalc;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides when a {@link TieredExpression} stops walking its tree and
+ * is compiled, and keeps count of the compiling done for every
+ * expression that shares it. An expression is compiled in the
+ * background once it has been evaluated a set number of times, so
+ * expressions that are rarely used never pay for compiling.
+ */
+public final class TieredPolicy {
+
+	private final int threshold;
+	private final Executor executor;
+	private final LongAdder compiled;
+	private final LongAdder failed;
+	private final LongAdder nanos;
+
+	/**
+	 * Create a policy that compiles on the common fork join pool.
+	 * @param threshold How many evaluations an expression has before
+	 * it is compiled, at least 1.
+	 */
+	public TieredPolicy(int threshold) {
+		this(threshold, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Create a policy.
+	 * @param threshold How many evaluations an expression has before
+	 * it is compiled, at least 1.
+	 * @param executor Runs the compiling.
+	 */
+	public TieredPolicy(int threshold, Executor executor) {
+		if (threshold < 1)
+			throw new IllegalArgumentException("threshold");
+		if (executor == null)
+			throw new IllegalArgumentException("executor");
+		this.threshold = threshold;
+		this.executor = executor;
+		compiled = new LongAdder();
+		failed = new LongAdder();
+		nanos = new LongAdder();
+	}
+
+	/**
+	 * Get how many evaluations an expression has before it is
+	 * compiled.
+	 * @return The threshold.
+	 */
+	public int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Get what runs the compiling.
+	 * @return The executor.
+	 */
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * The number of expressions that have been compiled.
+	 * @return Number of expressions compiled.
+	 */
+	public long getCompiledCount() {
+		return compiled.sum();
+	}
+
+	/**
+	 * The number of expressions that could not be compiled and keep
+	 * walking their tree.
+	 * @return Number of failures.
+	 */
+	public long getFailedCount() {
+		return failed.sum();
+	}
+
+	/**
+	 * The time spent compiling, over every expression.
+	 * @return The time in nanoseconds.
+	 */
+	public long getCompileTime() {
+		return nanos.sum();
+	}
+
+	void compiled(long time) {
+		compiled.increment();
+		nanos.add(time);
+	}
+
+	void failed(long time) {
+		failed.increment();
+		nanos.add(time);
+	}
+}
@@ -3,12 +3,18 @@ package tech.gitpicard.jcalc;
 /**
  * Represents a literal in the stream of source text. Used
  * to parse an expression into a list of tokens which are built
- * into an abstract syntax tree.
+ * into an abstract syntax tree. A token refers to its characters
+ * in the original input rather than holding a copy of them.
  */
 public class Token {
 	
 	private final TokenType type;
-	private final String contents;
+	private final CharSequence source;
+	// Where the characters are in the source, which is not the same
+	// as the offset when the token holds its own copy of them.
+	private final int start;
+	private final int length;
+	private final int offset;
 	
 	/**
 	 * Create a new token and set the data it is representing.
@@ -16,8 +22,41 @@ public class Token {
 	 * @param contents The plain-text token.
 	 */
 	public Token(TokenType type, String contents) {
+		this(type, contents, -1);
+	}
+	
+	/**
+	 * Create a new token found at a position in the source.
+	 * @param type The type of token encountered.
+	 * @param contents The plain-text token.
+	 * @param offset The position of its first character.
+	 */
+	public Token(TokenType type, String contents, int offset) {
+		this.type = type;
+		this.source = contents;
+		this.start = 0;
+		this.length = contents.length();
+		this.offset = offset;
+	}
+	
+	/**
+	 * Create a new token that refers to a range of the input.
+	 * @param type The type of token encountered.
+	 * @param source The whole input.
+	 * @param offset The position of its first character.
+	 * @param length The number of characters in the token.
+	 */
+	public Token(TokenType type, CharSequence source, int offset,
+			int length) {
+		if (source == null)
+			throw new IllegalArgumentException("source");
+		if (offset < 0 || length < 0 || offset + length > source.length())
+			throw new IllegalArgumentException("offset");
 		this.type = type;
-		this.contents = contents;
+		this.source = source;
+		this.start = offset;
+		this.length = length;
+		this.offset = offset;
 	}
 	
 	/**
@@ -29,10 +68,48 @@ public class Token {
 	}
 	
 	/**
-	 * Get a plain-text string storing the token literal.
+	 * Get a plain-text string storing the token literal. The string
+	 * is copied out of the input each time this is called.
 	 * @return The plain-text for this token.
 	 */
 	public String getContents() {
-		return contents;
+		return source.subSequence(start, start + length).toString();
+	}
+	
+	/**
+	 * Get the position of the token in the source.
+	 * @return The offset of its first character, or -1 if unknown.
+	 */
+	public int getOffset() {
+		return offset;
+	}
+	
+	/**
+	 * Get the number of characters in the token.
+	 * @return The length of the token.
+	 */
+	public int getLength() {
+		return length;
+	}
+	
+	/**
+	 * Get a character of the token without copying the token.
+	 * @param index The index of the character within the token.
+	 * @return The character.
+	 */
+	public char charAt(int index) {
+		if (index < 0 || index >= length)
+			throw new IllegalArgumentException("index");
+		return source.charAt(start + index);
+	}
+	
+	// The text holding the token and where the token starts in it,
+	// for reading the token without copying it.
+	CharSequence text() {
+		return source;
+	}
+	
+	int start() {
+		return start;
 	}
 }
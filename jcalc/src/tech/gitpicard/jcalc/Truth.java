@@ -0,0 +1,14 @@
+package tech.gitpicard.jcalc;
+
+/**
+ * The outcome of testing a predicate over a range of inputs
+ * rather than a single input.
+ */
+public enum Truth {
+	/** The predicate holds for every input in the range. */
+	TRUE,
+	/** The predicate holds for no input in the range. */
+	FALSE,
+	/** The predicate may hold for some inputs but not others. */
+	UNKNOWN
+}
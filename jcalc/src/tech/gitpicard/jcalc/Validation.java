@@ -0,0 +1,55 @@
+package tech.gitpicard.jcalc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import tech.gitpicard.jcalc.ast.Node;
+
+/**
+ * The result of validating an expression. Every problem that
+ * was found is listed with its position, rather than stopping at
+ * the first one. Unidentified characters are skipped and
+ * reported individually. After an error in the structure of the
+ * expression, checking resumes at the next argument separator,
+ * closing parenthesis or the end of the expression, so several
+ * structural errors can be reported at once.
+ */
+public final class Validation {
+
+	private final List<Diagnostic> diagnostics;
+	private final Node tree;
+
+	Validation(List<Diagnostic> diagnostics, Node tree) {
+		ArrayList<Diagnostic> sorted = new ArrayList<>(diagnostics);
+		sorted.sort((x, y) -> Integer.compare(x.getOffset(), y.getOffset()));
+		this.diagnostics = Collections.unmodifiableList(sorted);
+		this.tree = tree;
+	}
+
+	/**
+	 * Checks to see if no problems were found.
+	 * @return True if the expression is valid.
+	 */
+	public boolean isValid() {
+		return diagnostics.isEmpty();
+	}
+
+	/**
+	 * Get every problem that was found.
+	 * @return The diagnostics, ordered by position.
+	 */
+	public List<Diagnostic> getDiagnostics() {
+		return diagnostics;
+	}
+
+	/**
+	 * Get the parsed expression, so that a valid expression does not
+	 * need to be parsed again.
+	 * @return The root of the tree, or null if it could not be
+	 * parsed.
+	 */
+	public Node getTree() {
+		return tree;
+	}
+}
@@ -0,0 +1,16 @@
+package tech.gitpicard.jcalc;
+
+/**
+ * Supplies the value of a variable when an expression reads it,
+ * so that values only need to be fetched when they are used.
+ */
+public interface VariableResolver {
+	/**
+	 * Called by the calculator when an expression reads a variable
+	 * that has not been set on the calculator.
+	 * @param name The name of the variable.
+	 * @return The value of the variable.
+	 * @throws EvalException When the variable does not exist.
+	 */
+	double resolve(String name) throws EvalException;
+}
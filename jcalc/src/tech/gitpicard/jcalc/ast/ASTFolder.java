@@ -0,0 +1,55 @@
+package tech.gitpicard.jcalc.ast;
+
+import java.util.List;
+
+import tech.gitpicard.jcalc.EvalException;
+
+/**
+ * Implement this interface to compute a value of any type for each
+ * node of the abstract syntax tree, bottom up. Unlike
+ * {@link ASTVisitor}, the children have already been folded when a
+ * node is reached, so the tree can be walked without recursion by
+ * {@link Node#fold(ASTFolder)}.
+ * @param <T> The type computed for each node.
+ */
+public interface ASTFolder<T> {
+	/**
+	 * Combine the results of both sides of a binary node.
+	 * @param node The binary node.
+	 * @param left The result for the left side.
+	 * @param right The result for the right side.
+	 * @return The result for the node.
+	 * @throws EvalException When unable to compute the result.
+	 */
+	T fold(BinaryNode node, T left, T right) throws EvalException;
+	/**
+	 * Compute the result of a unary node from its child.
+	 * @param node The unary node.
+	 * @param right The result for the child expression.
+	 * @return The result for the node.
+	 * @throws EvalException When unable to compute the result.
+	 */
+	T fold(UnaryNode node, T right) throws EvalException;
+	/**
+	 * Compute the result of a literal value.
+	 * @param node The literal node.
+	 * @return The result for the node.
+	 * @throws EvalException When unable to compute the result.
+	 */
+	T fold(LiteralNode node) throws EvalException;
+	/**
+	 * Compute the result of a variable reference.
+	 * @param node The variable node.
+	 * @return The result for the node.
+	 * @throws EvalException When unable to compute the result.
+	 */
+	T fold(VariableNode node) throws EvalException;
+	/**
+	 * Combine the results of the arguments of a function call.
+	 * @param node The function call node.
+	 * @param args The result for each argument, in order.
+	 * @return The result for the node.
+	 * @throws EvalException When unable to compute the result.
+	 */
+	T fold(CallNode node, List<T> args) throws EvalException;
+}
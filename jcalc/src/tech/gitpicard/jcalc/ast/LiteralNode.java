@@ -7,7 +7,7 @@ import tech.gitpicard.jcalc.EvalException;
  */
 public final class LiteralNode extends Node {
 
-	private double value;
+	private final double value;
 	
 	/**
 	 * Create a new literal that holds a constant value.
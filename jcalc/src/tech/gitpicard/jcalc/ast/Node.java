@@ -1,5 +1,9 @@
 package tech.gitpicard.jcalc.ast;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
 import tech.gitpicard.jcalc.EvalException;
 
 /**
@@ -14,4 +18,84 @@ public abstract class Node {
 	 * @throws EvalException When there is a runtime error.
 	 */
 	public abstract double accept(ASTVisitor visitor) throws EvalException;
+
+	/**
+	 * Fold the tree under this node, children first. The tree is
+	 * walked with an explicit stack so that very deep trees can be
+	 * folded without overflowing the Java stack.
+	 * @param <T> The type computed for each node.
+	 * @param folder The computation to apply to each node.
+	 * @return The result for this node.
+	 * @throws EvalException When the folder fails.
+	 */
+	public final <T> T fold(ASTFolder<T> folder) throws EvalException {
+		if (folder == null)
+			throw new IllegalArgumentException("folder");
+
+		// Each node is pushed once to schedule its children and a
+		// second time (flagged) to combine their results.
+		ArrayDeque<Node> work = new ArrayDeque<>();
+		ArrayDeque<Boolean> expanded = new ArrayDeque<>();
+		ArrayList<T> results = new ArrayList<>();
+		work.push(this);
+		expanded.push(false);
+
+		while (!work.isEmpty()) {
+			Node node = work.pop();
+			boolean done = expanded.pop();
+
+			if (node instanceof LiteralNode)
+				results.add(folder.fold((LiteralNode) node));
+			else if (node instanceof VariableNode)
+				results.add(folder.fold((VariableNode) node));
+			else if (!(node instanceof BinaryNode) &&
+					!(node instanceof UnaryNode) &&
+					!(node instanceof CallNode))
+				throw new IllegalArgumentException("node");
+			else if (done && node instanceof BinaryNode) {
+				T right = results.remove(results.size() - 1);
+				T left = results.remove(results.size() - 1);
+				results.add(folder.fold((BinaryNode) node, left, right));
+			}
+			else if (done && node instanceof UnaryNode) {
+				T right = results.remove(results.size() - 1);
+				results.add(folder.fold((UnaryNode) node, right));
+			}
+			else if (done) {
+				CallNode call = (CallNode) node;
+				List<T> tail = results.subList(
+						results.size() - call.getArguments().length,
+						results.size());
+				List<T> args = new ArrayList<>(tail);
+				tail.clear();
+				results.add(folder.fold(call, args));
+			}
+			else {
+				work.push(node);
+				expanded.push(true);
+				// Push the children backwards so the leftmost child
+				// is folded first.
+				Node[] children = node.children();
+				for (int i = children.length - 1; i >= 0; i--) {
+					work.push(children[i]);
+					expanded.push(false);
+				}
+			}
+		}
+
+		return results.get(0);
+	}
+
+	// The direct children of this node, from left to right.
+	Node[] children() {
+		if (this instanceof BinaryNode) {
+			BinaryNode b = (BinaryNode) this;
+			return new Node[] { b.getLeft(), b.getRight() };
+		}
+		else if (this instanceof UnaryNode)
+			return new Node[] { ((UnaryNode) this).getRight() };
+		else if (this instanceof CallNode)
+			return ((CallNode) this).getArguments();
+		return new Node[0];
+	}
 }
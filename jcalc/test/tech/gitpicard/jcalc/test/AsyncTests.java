@@ -0,0 +1,162 @@
+package tech.gitpicard.jcalc.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import tech.gitpicard.jcalc.AsyncFunction;
+import tech.gitpicard.jcalc.EvalException;
+import tech.gitpicard.jcalc.JCalculator;
+import tech.gitpicard.jcalc.SyntaxException;
+
+class AsyncTests {
+
+	ExecutorService pool;
+
+	@BeforeEach
+	void setUp() {
+		pool = Executors.newCachedThreadPool();
+	}
+
+	@AfterEach
+	void tearDown() {
+		pool.shutdownNow();
+	}
+
+	// A lookup that records every batch it is sent.
+	static final class Lookup implements AsyncFunction {
+		final List<Integer> batches = new ArrayList<>();
+
+		@Override
+		public CompletableFuture<Double> call(double[] args) {
+			return CompletableFuture.completedFuture(args[0] * 10);
+		}
+
+		@Override
+		public CompletableFuture<double[]> callAll(double[][] args) {
+			synchronized (batches) {
+				batches.add(args.length);
+			}
+			return AsyncFunction.super.callAll(args);
+		}
+	}
+
+	@Test
+	void testValue() throws Exception {
+		JCalculator cal = new JCalculator();
+		cal.setVariable("x", 2);
+		cal.setFunction("add", (args) -> args[0] + args[1]);
+		String src = "add(x, 3) * add(add(1, 2), x ^ 2) - -x % 3";
+		assertEquals(cal.eval(src), cal.evalAsync(src, pool).get());
+		assertEquals(4.0, cal.evalAsync("x * 2", pool).get());
+	}
+
+	@Test
+	void testConcurrent() throws Exception {
+		JCalculator cal = new JCalculator();
+		// Each call only returns once all three are running.
+		CountDownLatch latch = new CountDownLatch(3);
+		cal.setFunction("slow", (args) -> {
+			latch.countDown();
+			try {
+				if (!latch.await(10, TimeUnit.SECONDS))
+					throw new EvalException("Calls were not concurrent.");
+			}
+			catch (InterruptedException e) {
+				throw new EvalException("Interrupted.");
+			}
+			return args[0];
+		});
+		assertEquals(6.0, cal.evalAsync("slow(1) + slow(2) + slow(3)", pool)
+				.get(20, TimeUnit.SECONDS));
+	}
+
+	// A call waits only for its own arguments, not for slow calls
+	// elsewhere in the expression.
+	@Test
+	void testNoRounds() throws Exception {
+		JCalculator cal = new JCalculator();
+		CountDownLatch started = new CountDownLatch(1);
+		cal.setVariable("x", 2);
+		cal.setFunction("g", (args) -> args[0] + 1);
+		cal.setFunction("f", (args) -> {
+			started.countDown();
+			return args[0] * 2;
+		});
+		cal.setFunction("h", (args) -> {
+			try {
+				if (!started.await(10, TimeUnit.SECONDS))
+					throw new EvalException("f waited for h.");
+			}
+			catch (InterruptedException e) {
+				throw new EvalException("Interrupted.");
+			}
+			return args[0];
+		});
+		assertEquals(8.0, cal.evalAsync("f(g(x)) + h(x)", pool)
+				.get(20, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void testBatches() throws Exception {
+		JCalculator cal = new JCalculator();
+		Lookup lookup = new Lookup();
+		cal.setAsyncFunction("price", lookup);
+		// The nested call has to wait for the ones inside it, and the
+		// repeated call is only made once.
+		String src = "price(1) + price(2) + price(price(3) / 10) + price(2)";
+		assertEquals(cal.eval(src), cal.evalAsync(src, pool).get());
+		assertEquals(List.of(3), lookup.batches);
+		lookup.batches.clear();
+		src = "price(price(1) + price(2)) + price(5)";
+		assertEquals(350.0, cal.evalAsync(src, pool).get());
+		assertEquals(List.of(3, 1), lookup.batches);
+	}
+
+	@Test
+	void testMixed() throws Exception {
+		JCalculator cal = new JCalculator();
+		AtomicInteger blocking = new AtomicInteger();
+		cal.setAsyncFunction("price", new Lookup());
+		cal.setFunction("tax", (args) -> {
+			blocking.incrementAndGet();
+			return args[0] * 0.5;
+		});
+		assertEquals(15.0, cal.evalAsync("tax(price(2)) + tax(price(2) - 10)", pool).get());
+		assertEquals(2, blocking.get());
+		// Asynchronous functions still work outside of evalAsync.
+		assertEquals(20.0, cal.eval("price(2)"));
+		assertEquals(20.0, cal.eval(cal.compile("price(2)")));
+	}
+
+	@Test
+	void testErrors() throws SyntaxException {
+		JCalculator cal = new JCalculator();
+		cal.setAsyncFunction("fail", (args) ->
+			CompletableFuture.failedFuture(new EvalException("Lookup failed.")));
+		cal.setFunction("bad", (args) -> { throw new EvalException("Bad."); });
+		ExecutionException e = assertThrows(ExecutionException.class, () ->
+			cal.evalAsync("1 + fail(2)", pool).get());
+		assertTrue(e.getCause() instanceof EvalException);
+		e = assertThrows(ExecutionException.class, () ->
+			cal.evalAsync("bad(1) * 2", pool).get());
+		assertEquals("Bad.", e.getCause().getMessage());
+		e = assertThrows(ExecutionException.class, () ->
+			cal.evalAsync("missing(1) + y", pool).get());
+		assertTrue(e.getCause() instanceof EvalException);
+		assertThrows(EvalException.class, () -> cal.eval("fail(1)"));
+		assertThrows(SyntaxException.class, () -> cal.evalAsync("1 +", pool));
+	}
+}
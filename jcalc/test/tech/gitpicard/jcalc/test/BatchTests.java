@@ -0,0 +1,83 @@
+package tech.gitpicard.jcalc.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import tech.gitpicard.jcalc.CommandLine;
+import tech.gitpicard.jcalc.EvalException;
+import tech.gitpicard.jcalc.ExpressionBatch;
+import tech.gitpicard.jcalc.JCalculator;
+
+class BatchTests {
+
+	// Helper function that runs the command-line tool over the
+	// input and returns what it wrote to standard output.
+	String run(String input, int status, String... args) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		int s = CommandLine.run(args,
+				new ByteArrayInputStream(
+						input.getBytes(StandardCharsets.UTF_8)),
+				new PrintStream(out), new PrintStream(err));
+		assertEquals(status, s);
+		return out.toString();
+	}
+
+	@Test
+	void testBatchErrors() {
+		ExpressionBatch batch = ExpressionBatch.parse(
+				Arrays.asList("1 + 2", "12 +", "", "f(x, 2)", "**"));
+		assertEquals(5, batch.size());
+		assertEquals(2, batch.getErrorCount());
+		assertNotNull(batch.getTree(0));
+		assertNotNull(batch.getError(1));
+		assertNull(batch.getTree(2));
+		assertNull(batch.getError(2));
+		assertNotNull(batch.getTree(3));
+		assertNotNull(batch.getError(4));
+	}
+
+	@Test
+	void testBatchLarge() throws EvalException {
+		ArrayList<String> lines = new ArrayList<>();
+		for (int i = 0; i < 20000; i++)
+			lines.add(i + " * 2");
+		ExpressionBatch batch = ExpressionBatch.parse(lines);
+		assertEquals(0, batch.getErrorCount());
+		JCalculator cal = new JCalculator();
+		for (int i = 0; i < lines.size(); i++)
+			assertEquals(i * 2, batch.getTree(i).accept(cal));
+	}
+
+	@Test
+	void testExpressions() {
+		assertEquals("3.0\n\n8.0\n".replace("\n", System.lineSeparator()),
+				run("1 + 2\n3 +\n2 ^ 3\n", 1));
+	}
+
+	@Test
+	void testRows() {
+		assertEquals("5.0\n25.0\n\n".replace("\n", System.lineSeparator()),
+				run("x, y\n3, 4\n15, 20\n1, oops\n", 1,
+						"-e", "(x ^ 2 + y ^ 2) ^ 0.5"));
+	}
+
+	@Test
+	void testMissingColumn() {
+		run("a,b\n1,2\n", 1, "-e", "c + 1");
+	}
+
+	@Test
+	void testUsage() {
+		run("", 2, "-x");
+		run("", 2, "-e", "1 +");
+	}
+}
@@ -2,10 +2,15 @@ package tech.gitpicard.jcalc.test;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.jupiter.api.Test;
 
 import tech.gitpicard.jcalc.EvalException;
 import tech.gitpicard.jcalc.JCalculator;
+import tech.gitpicard.jcalc.Lexer;
+import tech.gitpicard.jcalc.Parser;
 import tech.gitpicard.jcalc.SyntaxException;
 
 class CalculatorTests {
@@ -230,4 +235,36 @@ class CalculatorTests {
 		assertThrows(EvalException.class, () ->
 		new JCalculator().eval("no"));
 	}
+	
+	@Test
+	void testResolver() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		ArrayList<String> asked = new ArrayList<>();
+		cal.setResolver((name) -> {
+			asked.add(name);
+			if (name.equals("missing"))
+				throw new EvalException("No variable '" + name + "' found.");
+			return name.length();
+		});
+		cal.setVariable("set", 100);
+		assertEquals(105.0, cal.eval("set + width"));
+		assertEquals(List.of("width"), asked);
+		assertEquals(105.0, cal.eval(cal.compile("set + width")));
+		assertEquals(106.0, new Parser(new Lexer("set + height"))
+				.parseTree().accept(cal));
+		assertThrows(EvalException.class, () -> cal.eval("missing"));
+		cal.setResolver(null);
+		assertThrows(EvalException.class, () -> cal.eval("width"));
+	}
+	
+	@Test
+	void testReferencedVariables() throws SyntaxException {
+		JCalculator cal = new JCalculator();
+		cal.setFunction("f", (args) -> args[0]);
+		assertEquals(List.of("b", "a", "c"), new ArrayList<>(
+				cal.getReferencedVariables("b * f(a, b) + c - a")));
+		assertTrue(cal.getReferencedVariables("1 + f(2)").isEmpty());
+		assertThrows(SyntaxException.class, () ->
+			cal.getReferencedVariables("a +"));
+	}
 }
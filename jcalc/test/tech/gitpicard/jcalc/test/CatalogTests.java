@@ -0,0 +1,134 @@
+package tech.gitpicard.jcalc.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import tech.gitpicard.jcalc.CanonicalForm;
+import tech.gitpicard.jcalc.EvalException;
+import tech.gitpicard.jcalc.ExpressionCatalog;
+import tech.gitpicard.jcalc.JCalculator;
+import tech.gitpicard.jcalc.Lexer;
+import tech.gitpicard.jcalc.Operation;
+import tech.gitpicard.jcalc.Parser;
+import tech.gitpicard.jcalc.SyntaxException;
+import tech.gitpicard.jcalc.ast.BinaryNode;
+import tech.gitpicard.jcalc.ast.LiteralNode;
+import tech.gitpicard.jcalc.ast.Node;
+
+class CatalogTests {
+
+	CanonicalForm form(String src) throws SyntaxException {
+		return CanonicalForm.of(new Parser(new Lexer(src)).parseTree());
+	}
+
+	void same(String a, String b) throws SyntaxException {
+		CanonicalForm x = form(a);
+		CanonicalForm y = form(b);
+		assertEquals(x, y, a + " and " + b);
+		assertEquals(x.getHash(), y.getHash());
+	}
+
+	void different(String a, String b) throws SyntaxException {
+		CanonicalForm x = form(a);
+		CanonicalForm y = form(b);
+		assertNotEquals(x, y, a + " and " + b);
+		assertNotEquals(x.getHash(), y.getHash());
+	}
+
+	@Test
+	void testCanonical() throws SyntaxException {
+		same("a*b+c", "c + b*a");
+		same("((a)) * (b)", "b * a");
+		same("x > 1", "1 < x");
+		same("f(y, x) >= 2 & z", "z & 2 <= f(y, x)");
+		same("a = b | a != c", "c != a | b = a");
+		same("-2 * x", "x * -2");
+		same("true + x", "x + 1");
+
+		// Regrouping can change how a sum rounds.
+		different("(a + b) + c", "a + (b + c)");
+		different("a - b", "b - a");
+		different("a / b", "b / a");
+		different("f(x, y)", "f(y, x)");
+		different("0 * x", "-0 * x");
+		different("x", "y");
+		different("f(x)", "g(x)");
+		different("a < b", "a <= b");
+	}
+
+	@Test
+	void testTree() throws SyntaxException {
+		Node tree = form("y > 3").getTree();
+		BinaryNode b = (BinaryNode) tree;
+		assertEquals(3.0, ((LiteralNode) b.getLeft()).getValue());
+		CanonicalForm nan = CanonicalForm.of(new LiteralNode(
+				Double.longBitsToDouble(0x7FF8000000000001L)));
+		assertEquals(CanonicalForm.of(new LiteralNode(Double.NaN)), nan);
+		assertEquals(0x7FF8000000000000L, Double.doubleToRawLongBits(
+				((LiteralNode) nan.getTree()).getValue()));
+	}
+
+	// A canonical tree evaluates to exactly what the original does.
+	@Test
+	void testValues() throws SyntaxException, EvalException {
+		String[] sources = { "a*b+c", "a > b", "b >= a & c", "-3 * a ^ b",
+				"(a + b) * (c + a) = b", "!(a | b) + c % a" };
+		JCalculator cal = new JCalculator();
+		Random random = new Random(48);
+		double[] special = { 0.0, -0.0, Double.NaN, 1e308,
+				Double.POSITIVE_INFINITY, -1 };
+		for (int i = 0; i < 500; i++) {
+			for (String name : new String[] { "a", "b", "c" })
+				cal.setVariable(name, random.nextInt(4) == 0 ?
+						special[random.nextInt(special.length)] :
+						random.nextGaussian() * 10);
+			for (String src : sources) {
+				double expected = cal.eval(src);
+				double actual = form(src).getTree().accept(cal);
+				assertEquals(Double.doubleToLongBits(expected),
+						Double.doubleToLongBits(actual), src);
+			}
+		}
+	}
+
+	@Test
+	void testDeep() {
+		Node tree = new LiteralNode(1);
+		for (int i = 0; i < 100000; i++)
+			tree = new BinaryNode(new LiteralNode(i), Operation.ADD, tree);
+		assertEquals(CanonicalForm.of(tree), CanonicalForm.of(tree));
+	}
+
+	@Test
+	void testCatalog() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		int[] calls = new int[1];
+		cal.setFunction("f", (args) -> {
+			calls[0]++;
+			return args[0] * 10;
+		});
+		cal.setVariable("a", 2);
+		cal.setVariable("b", 3);
+
+		ExpressionCatalog c = new ExpressionCatalog();
+		assertEquals(0, c.add("f(a) + b"));
+		assertEquals(1, c.add("b + f(a)"));
+		assertEquals(2, c.add("a * b"));
+		assertEquals(3, c.add("(b) * a"));
+		assertEquals(4, c.add("f(a) - b"));
+		assertEquals(5, c.size());
+		assertEquals(3, c.getFormulaCount());
+		assertEquals(0, c.getFormula(1));
+		assertEquals(1, c.getFormula(3));
+		assertEquals(2, c.getFormula(4));
+		assertEquals(form("f(a) + b"), c.getForm(0));
+
+		assertArrayEquals(new double[] { 23, 23, 6, 6, 17 }, c.eval(cal));
+		assertEquals(2, calls[0]);
+		assertThrows(IllegalArgumentException.class, () -> c.getFormula(5));
+		assertThrows(IllegalArgumentException.class, () -> c.getForm(3));
+	}
+}
@@ -0,0 +1,204 @@
+package tech.gitpicard.jcalc.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import tech.gitpicard.jcalc.ColumnEvaluator;
+import tech.gitpicard.jcalc.EvalException;
+import tech.gitpicard.jcalc.JCalculator;
+import tech.gitpicard.jcalc.Ranking;
+import tech.gitpicard.jcalc.SyntaxException;
+
+class ColumnTests {
+
+	DoubleBuffer direct(int size) {
+		return ByteBuffer.allocateDirect(size * Double.BYTES)
+				.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+	}
+
+	@Test
+	void testColumns() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		cal.setVariable("rate", 0.5);
+		cal.setFunction("max", (args) -> Math.max(args[0], args[1]));
+		ColumnEvaluator e = new ColumnEvaluator(cal,
+				cal.compile("max(x, y) * rate"));
+		DoubleBuffer x = direct(4);
+		DoubleBuffer y = DoubleBuffer.wrap(new double[] { 4, 3, 2, 1 });
+		for (int i = 0; i < 4; i++)
+			x.put(i, i);
+		e.setColumn("x", x);
+		e.setColumn("y", y);
+		assertTrue(e.isColumn("x"));
+		DoubleBuffer out = direct(4);
+		e.run(out, 4);
+		assertEquals(2.0, out.get(0));
+		assertEquals(1.5, out.get(1));
+		assertEquals(1.0, out.get(2));
+		assertEquals(1.5, out.get(3));
+		assertEquals(0, out.position());
+	}
+
+	// Rows of three fields stored one after another, with the result
+	// written back into the spare third field.
+	@Test
+	void testStride() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		int rows = 1000;
+		DoubleBuffer table = direct(rows * 3);
+		for (int i = 0; i < rows; i++) {
+			table.put(i * 3, i);
+			table.put(i * 3 + 1, i % 7);
+		}
+		ColumnEvaluator e = new ColumnEvaluator(cal, cal.compile("a * 2 - b"));
+		e.setColumn("a", table, 0, 3);
+		e.setColumn("b", table, 1, 3);
+		e.run(table, 2, 3, rows);
+		for (int i = 0; i < rows; i++)
+			assertEquals(i * 2 - i % 7, table.get(i * 3 + 2));
+
+		// Integer programs fall back to doubles row by row.
+		e = new ColumnEvaluator(cal, cal.compile("a ^ 40 + b",
+				Set.of("a", "b")));
+		e.setColumn("a", table, 0, 3);
+		e.setColumn("b", table, 1, 3);
+		e.run(table, 2, 3, rows);
+		assertEquals(Math.pow(999, 40) + 999 % 7, table.get(999 * 3 + 2));
+		assertEquals(2.0, table.get(1 * 3 + 2));
+	}
+
+	@Test
+	void testMapped() throws IOException, SyntaxException, EvalException {
+		Path file = Files.createTempFile("columns", ".bin");
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_WRITE,
+					0, 200 * Double.BYTES);
+			DoubleBuffer data = bytes.order(ByteOrder.LITTLE_ENDIAN)
+					.asDoubleBuffer();
+			for (int i = 0; i < 100; i++)
+				data.put(i, i * 0.5);
+			JCalculator cal = new JCalculator();
+			ColumnEvaluator e = new ColumnEvaluator(cal, cal.compile("v * v"));
+			e.setColumn("v", data);
+			e.run(data.slice(100, 100), 100);
+			assertEquals(49.5 * 49.5, data.get(199));
+		}
+		finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	void testIllegal() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		ColumnEvaluator e = new ColumnEvaluator(cal, cal.compile("x + f(y)"));
+		DoubleBuffer x = DoubleBuffer.allocate(10);
+		assertThrows(IllegalArgumentException.class, () -> e.setColumn("x", x, -1, 1));
+		assertThrows(IllegalArgumentException.class, () -> e.setColumn("x", x, 0, 0));
+		e.setColumn("x", x, 1, 3);
+		DoubleBuffer out = DoubleBuffer.allocate(10);
+		assertThrows(EvalException.class, () -> e.run(out, 3));
+		cal.setVariable("y", 1);
+		assertThrows(EvalException.class, () -> e.run(out, 3));
+		cal.setFunction("f", (args) -> args[0]);
+		assertThrows(IllegalArgumentException.class, () -> e.run(out, 4));
+		assertThrows(IllegalArgumentException.class, () -> e.run(out, 0, 4, 4));
+		assertThrows(IllegalArgumentException.class,
+				() -> e.run(out.asReadOnlyBuffer(), 3));
+		assertDoesNotThrow(() -> e.run(out, 3));
+		assertDoesNotThrow(() -> e.run(out, 0));
+		e.removeColumn("x");
+		assertThrows(EvalException.class, () -> e.run(out, 3));
+		cal.setResolver((name) -> 4);
+		e.run(out, 3);
+		assertEquals(5.0, out.get(2));
+	}
+
+	// The best rows must be the same as sorting every result, with
+	// ties going to the lower row, however the rows are split.
+	@Test
+	void testTop() throws SyntaxException, EvalException, InterruptedException {
+		JCalculator cal = new JCalculator();
+		cal.setFunction("bucket", (args) -> Math.floor(args[0] * 50));
+		int rows = 100000;
+		DoubleBuffer x = direct(rows);
+		DoubleBuffer y = direct(rows);
+		Random random = new Random(49);
+		for (int i = 0; i < rows; i++) {
+			x.put(i, random.nextDouble());
+			y.put(i, i % 1000 == 0 ? Double.NaN : random.nextDouble());
+		}
+		ColumnEvaluator e = new ColumnEvaluator(cal,
+				cal.compile("bucket(x) + y * 0 - (y > 0.9)"));
+		e.setColumn("x", x);
+		e.setColumn("y", y);
+
+		DoubleBuffer all = DoubleBuffer.allocate(rows);
+		e.run(all, rows);
+		Integer[] order = new Integer[rows];
+		for (int i = 0; i < rows; i++)
+			order[i] = i;
+		Arrays.sort(order, (a, b) -> {
+			int c = Double.compare(all.get(b), all.get(a));
+			return c != 0 ? c : Integer.compare(a, b);
+		});
+		ArrayList<Integer> expected = new ArrayList<>();
+		for (Integer i : order)
+			if (!Double.isNaN(all.get(i)))
+				expected.add(i);
+
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			for (int k : new int[] { 0, 1, 100, 5000 }) {
+				Ranking[] rankings = { e.top(k, rows),
+						e.top(k, rows, pool, 1), e.top(k, rows, pool, 7),
+						e.top(k, rows, pool, 64) };
+				for (Ranking r : rankings) {
+					assertEquals(k, r.size());
+					for (int i = 0; i < k; i++) {
+						assertEquals(expected.get(i), r.getRow(i));
+						assertEquals(all.get(expected.get(i)), r.getScore(i));
+					}
+				}
+			}
+			// Row 0 gives NaN and is left out.
+			Ranking few = e.top(100, 5, pool, 8);
+			assertEquals(4, few.size());
+			assertThrows(IllegalArgumentException.class, () -> few.getRow(4));
+
+			cal.setFunction("bucket", (args) -> {
+				if (args[0] > 0.99)
+					throw new EvalException("too big");
+				return args[0];
+			});
+			assertThrows(EvalException.class, () -> e.top(10, rows, pool, 4));
+			assertThrows(EvalException.class, () -> e.top(10, rows));
+			assertThrows(IllegalArgumentException.class, () -> e.top(-1, rows));
+			assertThrows(IllegalArgumentException.class,
+					() -> e.top(1, rows + 1));
+		}
+		finally {
+			pool.shutdown();
+			pool.awaitTermination(10, TimeUnit.SECONDS);
+		}
+	}
+}
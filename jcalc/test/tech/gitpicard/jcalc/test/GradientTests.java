@@ -0,0 +1,99 @@
+package tech.gitpicard.jcalc.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import tech.gitpicard.jcalc.EvalException;
+import tech.gitpicard.jcalc.Gradient;
+import tech.gitpicard.jcalc.JCalculator;
+import tech.gitpicard.jcalc.SyntaxException;
+
+class GradientTests {
+
+	// Helper function that checks every partial derivative against
+	// a central finite difference.
+	void check(JCalculator cal, String src, String... names)
+			throws SyntaxException, EvalException {
+		Gradient g = cal.differentiate(src);
+		double[] partials = new double[names.length];
+		assertEquals(cal.eval(src), cal.eval(g, partials));
+
+		for (int i = 0; i < names.length; i++) {
+			String name = g.getProgram().getVariable(i);
+			double x = cal.getVariable(name);
+			double h = 1e-6 * Math.max(1.0, Math.abs(x));
+			cal.setVariable(name, x + h);
+			double up = cal.eval(src);
+			cal.setVariable(name, x - h);
+			double down = cal.eval(src);
+			cal.setVariable(name, x);
+
+			double expected = (up - down) / (2 * h);
+			assertEquals(expected, partials[i], 1e-5 * Math.max(1.0,
+					Math.abs(expected)), src + " d/d" + name);
+			// Forward mode must agree with reverse mode.
+			assertEquals(partials[i], cal.derivative(g, name), 1e-12 *
+					Math.max(1.0, Math.abs(partials[i])));
+		}
+	}
+
+	@Test
+	void testOperators() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		cal.setVariable("x", 1.7);
+		cal.setVariable("y", -0.6);
+		check(cal, "x + y", "x", "y");
+		check(cal, "x - y", "x", "y");
+		check(cal, "x * y", "x", "y");
+		check(cal, "x / y", "x", "y");
+		check(cal, "x ^ y", "x", "y");
+		check(cal, "y ^ 3", "y");
+		check(cal, "x % y", "x", "y");
+		check(cal, "-x * (x < y) + !y", "x", "y");
+		check(cal, "x * (x & y | 0)", "x", "y");
+		check(cal, "(x * y - x ^ 2) / (1 + y ^ 2) ^ 0.5", "x", "y");
+	}
+
+	@Test
+	void testExactValues() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		cal.setVariable("x", 3);
+		cal.setVariable("y", 2);
+		double[] p = new double[2];
+		assertEquals(18, cal.eval(cal.differentiate("x ^ 2 * y"), p));
+		assertArrayEquals(new double[] { 12, 9 }, p);
+	}
+
+	@Test
+	void testFunctions() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		cal.setFunction("sin", (args) -> Math.sin(args[0]));
+		cal.setDerivative("sin", (args, i) -> Math.cos(args[0]));
+		cal.setFunction("mul", (args) -> args[0] * args[1]);
+		cal.setDerivative("mul", (args, i) -> args[1 - i]);
+		cal.setVariable("x", 0.3);
+		cal.setVariable("y", 2.5);
+		check(cal, "sin(x * y) + mul(x, sin(y))", "x", "y");
+	}
+
+	@Test
+	void testMissingDerivative() {
+		JCalculator cal = new JCalculator();
+		cal.setFunction("f", (args) -> args[0]);
+		cal.setVariable("x", 1);
+		assertThrows(EvalException.class, () ->
+			cal.eval(cal.differentiate("f(x)"), new double[1]));
+	}
+
+	@Test
+	void testUnusedDerivative() throws SyntaxException, EvalException {
+		// A function of constants is never differentiated.
+		JCalculator cal = new JCalculator();
+		cal.setFunction("f", (args) -> args[0]);
+		cal.setVariable("x", 2);
+		double[] p = new double[1];
+		assertEquals(6, cal.eval(cal.differentiate("x * f(3)"), p));
+		assertEquals(3, p[0]);
+	}
+}
@@ -0,0 +1,113 @@
+package tech.gitpicard.jcalc.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import tech.gitpicard.jcalc.EvalException;
+import tech.gitpicard.jcalc.IncrementalEvaluator;
+import tech.gitpicard.jcalc.JCalculator;
+import tech.gitpicard.jcalc.SyntaxException;
+
+class IncrementalEvalTests {
+
+	@Test
+	void testPath() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		cal.setVariable("a", 1);
+		cal.setVariable("b", 2);
+		cal.setVariable("c", 3);
+		cal.setVariable("d", 4);
+		IncrementalEvaluator e = cal.prepare("(a + b) * (c - d) + a * 10");
+		assertEquals(7.0, e.eval());
+		assertEquals(0, e.getRecomputedCount());
+
+		// c, c - d, the product and the sum.
+		e.setVariable("c", 5);
+		assertEquals(13.0, e.eval());
+		assertEquals(4, e.getRecomputedCount());
+		assertEquals(5.0, e.getVariable("c"));
+
+		// Both reads of a, sharing the final sum.
+		e.setVariable("a", 2);
+		assertEquals(24.0, e.eval());
+		assertEquals(6, e.getRecomputedCount());
+
+		e.setVariable("unused", 7);
+		assertEquals(24.0, e.eval());
+		assertEquals(0, e.getRecomputedCount());
+		assertThrows(IllegalArgumentException.class, () -> e.getVariable("unused"));
+	}
+
+	@Test
+	void testCutoff() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		int[] calls = new int[1];
+		cal.setFunction("f", (args) -> {
+			calls[0]++;
+			return args[0] * 2;
+		});
+		cal.setVariable("x", 1);
+		cal.setVariable("y", 3);
+		IncrementalEvaluator e = cal.prepare("f(x > 0) + f(y)");
+		assertEquals(8.0, e.eval());
+		assertEquals(2, calls[0]);
+
+		// The comparison does not flip, so nothing above it runs.
+		e.setVariable("x", 5);
+		assertEquals(8.0, e.eval());
+		assertEquals(2, e.getRecomputedCount());
+		assertEquals(2, calls[0]);
+
+		e.setVariable("x", -1);
+		assertEquals(6.0, e.eval());
+		assertEquals(3, calls[0]);
+	}
+
+	@Test
+	void testErrors() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		cal.setFunction("check", (args) -> {
+			if (args[0] < 0)
+				throw new EvalException("negative");
+			return args[0];
+		});
+		cal.setVariable("x", 1);
+		cal.setVariable("y", 2);
+		IncrementalEvaluator e = cal.prepare("check(x) + y");
+		e.setVariable("x", -1);
+		e.setVariable("y", 5);
+		assertThrows(EvalException.class, () -> e.eval());
+		e.setVariable("x", 2);
+		assertEquals(7.0, e.eval());
+
+		assertThrows(EvalException.class, () -> cal.prepare("z + 1"));
+		assertThrows(EvalException.class, () -> cal.prepare("g(x)"));
+	}
+
+	// Many single changes must always agree with evaluating the
+	// whole expression again.
+	@Test
+	void testRandom() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		cal.setFunction("max", (args) -> Math.max(args[0], args[1]));
+		String[] names = { "a", "b", "c", "d" };
+		for (String name : names)
+			cal.setVariable(name, 1);
+		String src = "max(a * b - c, d / (a + 1)) ^ 2 + (b < c & d != 0) " +
+				"- a % (c + 3) + -max(b, !d)";
+		IncrementalEvaluator e = cal.prepare(src);
+		Random random = new Random(45);
+		for (int i = 0; i < 2000; i++) {
+			String name = names[random.nextInt(names.length)];
+			double value = random.nextInt(7) - 3;
+			if (random.nextBoolean())
+				value += random.nextDouble();
+			cal.setVariable(name, value);
+			e.setVariable(name, value);
+			assertEquals(cal.eval(src), e.eval(), src);
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package tech.gitpicard.jcalc.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import tech.gitpicard.jcalc.IncrementalParser;
+import tech.gitpicard.jcalc.Lexer;
+import tech.gitpicard.jcalc.Parser;
+import tech.gitpicard.jcalc.SyntaxException;
+import tech.gitpicard.jcalc.ast.BinaryNode;
+import tech.gitpicard.jcalc.ast.CallNode;
+import tech.gitpicard.jcalc.ast.LiteralNode;
+import tech.gitpicard.jcalc.ast.Node;
+import tech.gitpicard.jcalc.ast.UnaryNode;
+import tech.gitpicard.jcalc.ast.VariableNode;
+
+class IncrementalTests {
+
+	// Helper function that writes out the tree, or the syntax error,
+	// so that the results of both parsers can be compared.
+	String shape(Node n) {
+		if (n instanceof BinaryNode) {
+			BinaryNode b = (BinaryNode) n;
+			return "(" + shape(b.getLeft()) + " " + b.getOperation() +
+					" " + shape(b.getRight()) + ")";
+		}
+		else if (n instanceof UnaryNode) {
+			UnaryNode u = (UnaryNode) n;
+			return "(" + u.getOperation() + " " + shape(u.getRight()) + ")";
+		}
+		else if (n instanceof CallNode) {
+			CallNode c = (CallNode) n;
+			StringBuilder sb = new StringBuilder(c.getFunction() + "[");
+			for (Node arg : c.getArguments())
+				sb.append(shape(arg)).append(";");
+			return sb.append("]").toString();
+		}
+		else if (n instanceof VariableNode)
+			return ((VariableNode) n).getIdentifer();
+		return Double.toString(((LiteralNode) n).getValue());
+	}
+
+	String full(String src) {
+		try {
+			return shape(new Parser(new Lexer(src)).parseTree());
+		}
+		catch (SyntaxException e) {
+			return e.getOffset() + ": " + e.getMessage();
+		}
+	}
+
+	String incremental(IncrementalParser p) {
+		try {
+			return shape(p.parse());
+		}
+		catch (SyntaxException e) {
+			return e.getOffset() + ": " + e.getMessage();
+		}
+	}
+
+	@Test
+	void testReuse() throws SyntaxException {
+		IncrementalParser p = new IncrementalParser(
+				"f(a + 1) * (b - 2) + (c * 3)");
+		BinaryNode before = (BinaryNode) p.parse();
+		assertEquals(0, p.getReusedCount());
+		Node call = ((BinaryNode) before.getLeft()).getLeft();
+		Node last = before.getRight();
+
+		// Change b - 2 into b - 25.
+		p.edit(17, 0, "5");
+		assertEquals("f(a + 1) * (b - 25) + (c * 3)", p.getSource());
+		BinaryNode after = (BinaryNode) p.parse();
+		assertEquals(2, p.getReusedCount());
+		assertSame(call, ((BinaryNode) after.getLeft()).getLeft());
+		assertSame(last, after.getRight());
+		assertEquals(full(p.getSource()), shape(after));
+		// Nothing changed, so the same tree comes back.
+		assertSame(after, p.parse());
+	}
+
+	@Test
+	void testErrors() throws SyntaxException {
+		IncrementalParser p = new IncrementalParser("1 + (2 * 3)");
+		p.edit(3, 0, " $");
+		assertThrows(SyntaxException.class, () -> p.parse());
+		assertEquals(full(p.getSource()), incremental(p));
+		p.edit(4, 1, "");
+		assertEquals("1 +  (2 * 3)", p.getSource());
+		assertEquals(full(p.getSource()), shape(p.parse()));
+		p.edit(p.getSource().length(), 0, " *");
+		assertEquals(full(p.getSource()), incremental(p));
+	}
+
+	@Test
+	void testMergeTokens() throws SyntaxException {
+		IncrementalParser p = new IncrementalParser("1e + x < y");
+		p.edit(2, 1, "");
+		p.edit(3, 0, "5");
+		assertEquals("1e+5 x < y", p.getSource());
+		assertEquals(full(p.getSource()), incremental(p));
+		p.edit(4, 1, "");
+		p.edit(7, 0, "=");
+		assertEquals("1e+5x <= y", p.getSource());
+		assertEquals(full(p.getSource()), incremental(p));
+	}
+
+	@Test
+	void testIllegal() {
+		IncrementalParser p = new IncrementalParser("1 + 2");
+		assertThrows(IllegalArgumentException.class, () -> p.edit(6, 0, ""));
+		assertThrows(IllegalArgumentException.class, () -> p.edit(3, 3, ""));
+		assertThrows(IllegalArgumentException.class, () -> p.edit(0, 0, null));
+	}
+
+	// Apply random edits and check every version against parsing the
+	// whole text from scratch.
+	@Test
+	void testRandomEdits() {
+		String[] pieces = { "(", ")", "f(", ",", " ", "1", "2.5", "e", "x",
+				"y", "+", "-", "*", "^", "=", "<", "!", "&", "|", "$", "7)",
+				"(a + b)", "g(1, 2)" };
+		Random rand = new Random(3);
+		for (int run = 0; run < 200; run++) {
+			IncrementalParser p = new IncrementalParser("f(x) + (y * 2)");
+			for (int step = 0; step < 60; step++) {
+				String src = p.getSource();
+				int offset = rand.nextInt(src.length() + 1);
+				int removed = rand.nextInt(4) == 0 ?
+						rand.nextInt(src.length() - offset + 1) : 0;
+				StringBuilder ins = new StringBuilder();
+				for (int i = rand.nextInt(3); i >= 0; i--)
+					ins.append(pieces[rand.nextInt(pieces.length)]);
+				p.edit(offset, removed, ins.toString());
+				if (rand.nextBoolean())
+					assertEquals(full(p.getSource()), incremental(p),
+							p.getSource());
+			}
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package tech.gitpicard.jcalc.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import tech.gitpicard.jcalc.EvalException;
+import tech.gitpicard.jcalc.JCalculator;
+import tech.gitpicard.jcalc.Program;
+import tech.gitpicard.jcalc.SyntaxException;
+
+class IntegerTests {
+
+	@Test
+	void testSpecialized() throws SyntaxException {
+		JCalculator cal = new JCalculator();
+		Set<String> ints = Set.of("n", "m");
+		assertTrue(cal.compile("n % 3 = 0", ints).isSpecialized());
+		assertTrue(cal.compile("2 ^ 10", ints).isSpecialized());
+		assertTrue(cal.compile("(n + 1) / 2", ints).isSpecialized());
+		assertFalse(cal.compile("n / 2", ints).isSpecialized());
+		assertFalse(cal.compile("x + 1", ints).isSpecialized());
+		assertFalse(cal.compile("n + 0.5", ints).isSpecialized());
+		assertFalse(cal.compile("n", ints).isSpecialized());
+		assertFalse(cal.compile("n % 3 = 0").isSpecialized());
+	}
+
+	@Test
+	void testExact() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		Set<String> ints = Set.of("n");
+		// Math.pow is allowed to be off by one ulp, squaring is not.
+		assertEquals(Math.scalb(1.0, 62), cal.eval(cal.compile("2 ^ 62", ints)));
+		assertEquals((double) 4052555153018976267L,
+				cal.eval(cal.compile("3 ^ 39", ints)));
+		// Intermediate values above 2^53 do not round.
+		cal.setVariable("n", 1L << 60);
+		assertEquals(1.0, cal.eval(cal.compile("(n + 1) - n", ints)));
+		assertEquals(0.0, cal.eval("(n + 1) - n"));
+	}
+
+	@Test
+	void testFallback() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		Set<String> ints = Set.of("n");
+		cal.setVariable("n", 2.5);
+		Program p = cal.compile("n * 2 + n % 2", ints);
+		assertEquals(5.5, cal.eval(p));
+		cal.setVariable("n", 3);
+		assertEquals(7.0, cal.eval(p));
+		// Overflow, fractions, and NaN all go back to doubles.
+		assertEquals(Math.pow(10, 30), cal.eval(cal.compile("10 ^ 30", ints)));
+		assertEquals(0.25, cal.eval(cal.compile("n ^ -2 + 1 / 7 * 0 + 2 ^ -2 - n ^ -2", ints)));
+		assertTrue(Double.isNaN(cal.eval(cal.compile("n % 0", ints))));
+		assertEquals(-9.223372036854776E18,
+				cal.eval(cal.compile("-(2 ^ 62) * 2", ints)));
+		assertEquals(9.223372036854776E18,
+				cal.eval(cal.compile("2 ^ 62 * 2", ints)));
+		cal.setVariable("n", Double.NaN);
+		assertEquals(1.0, cal.eval(cal.compile("n != n", ints)));
+	}
+
+	@Test
+	void testNegativeZero() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		Set<String> ints = Set.of("n");
+		cal.setVariable("n", 3);
+		assertEquals(-0.0, cal.eval(cal.compile("n * 0 * -1", ints)));
+		assertEquals(Double.NEGATIVE_INFINITY,
+				cal.eval(cal.compile("1 / (n * 0 * -1)", ints)));
+		assertEquals(-0.0, cal.eval(cal.compile("-(n - 3)", ints)));
+		assertEquals(-0.0, cal.eval(cal.compile("-n % 3", ints)));
+		cal.setVariable("n", -0.0);
+		assertEquals(-0.0, cal.eval(cal.compile("n + n", ints)));
+		assertEquals(0.0, cal.eval(cal.compile("n * 0 - n * 0", ints)));
+	}
+
+	@Test
+	void testFunctionsOnce() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		int[] calls = new int[1];
+		cal.setFunction("f", (args) -> { calls[0]++; return args[0]; });
+		cal.setVariable("n", 4);
+		assertEquals(17.0, cal.eval(cal.compile("f(n ^ 2) + 1", Set.of("n"))));
+		assertEquals(1, calls[0]);
+	}
+
+	// Random integer expressions must agree with doubles whenever
+	// doubles are exact.
+	@Test
+	void testAgrees() throws SyntaxException, EvalException {
+		String[] sources = { "a + b", "a - b", "a * b", "a % b", "a ^ 3",
+				"a = b", "a != b", "a < b", "a > b", "a <= b", "a >= b",
+				"-a", "!a", "(a * b + 7) % (b - 3)", "a / b + a % b",
+				"(a ^ 2 + b ^ 2) % 10 = a % 10", "!(a < b) * -b",
+				"a ^ b", "a ^ 2.5 + b", "a & b", "a | b + 1" };
+		Random rand = new Random(7);
+		JCalculator cal = new JCalculator();
+		Set<String> ints = Set.of("a", "b");
+		for (String src : sources) {
+			Program special = cal.compile(src, ints);
+			Program plain = cal.compile(src);
+			for (int i = 0; i < 500; i++) {
+				cal.setVariable("a", rand.nextInt(2001) - 1000);
+				cal.setVariable("b", rand.nextInt(21) - 10);
+				double expect = cal.eval(plain);
+				double got = cal.eval(special);
+				// Bit for bit, so a negative zero must match too.
+				assertEquals(expect, got, src);
+			}
+		}
+	}
+}
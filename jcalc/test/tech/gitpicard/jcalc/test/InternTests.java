@@ -0,0 +1,158 @@
+package tech.gitpicard.jcalc.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import tech.gitpicard.jcalc.EvalException;
+import tech.gitpicard.jcalc.ExpressionBatch;
+import tech.gitpicard.jcalc.InternPool;
+import tech.gitpicard.jcalc.JCalculator;
+import tech.gitpicard.jcalc.Lexer;
+import tech.gitpicard.jcalc.Parser;
+import tech.gitpicard.jcalc.SyntaxException;
+import tech.gitpicard.jcalc.ast.ASTFolder;
+import tech.gitpicard.jcalc.ast.BinaryNode;
+import tech.gitpicard.jcalc.ast.CallNode;
+import tech.gitpicard.jcalc.ast.LiteralNode;
+import tech.gitpicard.jcalc.ast.Node;
+import tech.gitpicard.jcalc.ast.UnaryNode;
+import tech.gitpicard.jcalc.ast.VariableNode;
+
+class InternTests {
+
+	// Collects the distinct name strings and literal nodes held by
+	// a set of trees, which is what the pool saves.
+	static final class Census implements ASTFolder<Void> {
+		final IdentityHashMap<Object, Boolean> names = new IdentityHashMap<>();
+		final IdentityHashMap<Object, Boolean> literals = new IdentityHashMap<>();
+
+		@Override
+		public Void fold(BinaryNode node, Void left, Void right) {
+			return null;
+		}
+
+		@Override
+		public Void fold(UnaryNode node, Void right) {
+			return null;
+		}
+
+		@Override
+		public Void fold(LiteralNode node) {
+			literals.put(node, true);
+			return null;
+		}
+
+		@Override
+		public Void fold(VariableNode node) {
+			names.put(node.getIdentifer(), true);
+			return null;
+		}
+
+		@Override
+		public Void fold(CallNode node, List<Void> args) {
+			names.put(node.getFunction(), true);
+			return null;
+		}
+
+		// A rough size in bytes: a literal node has a header and a
+		// double, and a short string has a header, fields, and array.
+		long bytes() {
+			return literals.size() * 24L + names.size() * 56L;
+		}
+	}
+
+	static List<String> catalog(int count) {
+		String[] vars = { "price", "qty", "rate", "discount", "tax" };
+		String[] consts = { "0", "1", "100", "2", "12.5", "true", "false" };
+		Random rand = new Random(3);
+		ArrayList<String> lines = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			StringBuilder b = new StringBuilder();
+			for (int k = 0; k < 6; k++) {
+				if (k > 0)
+					b.append(k % 2 == 0 ? " + " : " * ");
+				if (rand.nextBoolean())
+					b.append(vars[rand.nextInt(vars.length)]);
+				else if (rand.nextInt(4) == 0)
+					b.append("round(" + vars[rand.nextInt(vars.length)] + ")");
+				else
+					b.append(consts[rand.nextInt(consts.length)]);
+			}
+			lines.add(b.toString());
+		}
+		return lines;
+	}
+
+	Census census(ExpressionBatch batch) throws EvalException {
+		Census c = new Census();
+		for (int i = 0; i < batch.size(); i++)
+			batch.getTree(i).fold(c);
+		return c;
+	}
+
+	@Test
+	void testFootprint() throws EvalException {
+		List<String> lines = catalog(20000);
+		Census plain = census(ExpressionBatch.parse(lines));
+		InternPool pool = new InternPool();
+		Census shared = census(ExpressionBatch.parse(lines,
+				Parser.DEFAULT_MAX_DEPTH, pool));
+
+		// Only the names and the one non-whole literal are left.
+		assertEquals(6, shared.names.size());
+		assertEquals(6, pool.size());
+		assertTrue(shared.literals.size() <= 7 + countOf(lines, "12.5"));
+		assertTrue(plain.names.size() > 50000);
+		assertTrue(shared.bytes() * 4 < plain.bytes(),
+				"shared " + shared.bytes() + " plain " + plain.bytes());
+	}
+
+	private static int countOf(List<String> lines, String s) {
+		int n = 0;
+		for (String line : lines)
+			for (int i = line.indexOf(s); i >= 0; i = line.indexOf(s, i + 1))
+				n++;
+		return n;
+	}
+
+	@Test
+	void testShared() throws SyntaxException, EvalException {
+		InternPool pool = new InternPool();
+		Parser a = new Parser(new Lexer("true + count * 100"));
+		a.setInternPool(pool);
+		Parser b = new Parser(new Lexer("count - 1 + 100"));
+		b.setInternPool(pool);
+		Census c = new Census();
+		a.parseTree().fold(c);
+		b.parseTree().fold(c);
+		assertEquals(1, c.names.size());
+		// One node each for 1 and 100.
+		assertEquals(2, c.literals.size());
+		assertSame(pool.literal(1), pool.literal(1.0));
+		assertNotSame(pool.literal(-0.0), pool.literal(0));
+		assertNotSame(pool.literal(0.5), pool.literal(0.5));
+	}
+
+	@Test
+	void testSameResults() throws SyntaxException, EvalException {
+		JCalculator plain = new JCalculator();
+		JCalculator shared = new JCalculator();
+		shared.setInternPool(new InternPool());
+		for (JCalculator cal : new JCalculator[] { plain, shared }) {
+			cal.setVariable("price", 3);
+			cal.setVariable("qty", 4);
+			cal.setVariable("rate", 0.5);
+			cal.setVariable("discount", 1);
+			cal.setVariable("tax", 0.25);
+			cal.setFunction("round", (args) -> Math.rint(args[0]));
+		}
+		for (String line : catalog(200))
+			assertEquals(plain.eval(line), shared.eval(line), line);
+	}
+}
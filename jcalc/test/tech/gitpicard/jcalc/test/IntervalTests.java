@@ -0,0 +1,159 @@
+package tech.gitpicard.jcalc.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import tech.gitpicard.jcalc.EvalException;
+import tech.gitpicard.jcalc.Interval;
+import tech.gitpicard.jcalc.IntervalEvaluator;
+import tech.gitpicard.jcalc.JCalculator;
+import tech.gitpicard.jcalc.Lexer;
+import tech.gitpicard.jcalc.Parser;
+import tech.gitpicard.jcalc.SyntaxException;
+import tech.gitpicard.jcalc.Truth;
+import tech.gitpicard.jcalc.ast.Node;
+
+class IntervalTests {
+
+	Node parse(String src) throws SyntaxException {
+		return new Parser(new Lexer(src)).parseTree();
+	}
+
+	Truth test(String src, double lo, double hi)
+			throws SyntaxException, EvalException {
+		IntervalEvaluator ev = new IntervalEvaluator();
+		ev.setBounds("x", lo, hi);
+		return ev.test(parse(src));
+	}
+
+	@Test
+	void testFilter() throws SyntaxException, EvalException {
+		IntervalEvaluator ev = new IntervalEvaluator();
+		Node filter = parse("price * qty > 1000 = true");
+		ev.setBounds("price", 10, 20);
+		ev.setBounds("qty", 1, 5);
+		assertEquals(Truth.FALSE, ev.test(filter));
+		ev.setBounds("qty", 200, 300);
+		assertEquals(Truth.TRUE, ev.test(filter));
+		ev.setBounds("qty", 50, 150);
+		assertEquals(Truth.UNKNOWN, ev.test(filter));
+	}
+
+	@Test
+	void testComparisons() throws SyntaxException, EvalException {
+		assertEquals(Truth.TRUE, test("x < 5", 0, 4));
+		assertEquals(Truth.FALSE, test("x < 5", 5, 9));
+		assertEquals(Truth.TRUE, test("x <= 5", 0, 5));
+		assertEquals(Truth.TRUE, test("x >= 5", 5, 9));
+		assertEquals(Truth.FALSE, test("x > 5", 0, 5));
+		assertEquals(Truth.TRUE, test("x = 3", 3, 3));
+		assertEquals(Truth.FALSE, test("x = 3", 4, 9));
+		assertEquals(Truth.TRUE, test("x != 3", 4, 9));
+		assertEquals(Truth.UNKNOWN, test("x != 3", 0, 9));
+		assertEquals(Truth.TRUE, test("!(x < 0)", 0, 9));
+	}
+
+	@Test
+	void testPowAndMod() throws SyntaxException, EvalException {
+		IntervalEvaluator ev = new IntervalEvaluator();
+		ev.setBounds("x", -3, 2);
+		assertEquals(Interval.of(0, 9), ev.eval(parse("x ^ 2")));
+		assertEquals(Interval.of(-27, 8), ev.eval(parse("x ^ 3")));
+		assertTrue(ev.eval(parse("x ^ 0.5")).isNaNPossible());
+		ev.setBounds("x", 0, 100);
+		assertEquals(Interval.of(0, Math.nextDown(7.0)),
+				ev.eval(parse("x % 7")));
+		assertEquals(Truth.TRUE, ev.test(parse("x % 7 < 7")));
+		ev.setBounds("x", 1, 3);
+		assertEquals(Interval.of(1, 3), ev.eval(parse("x % 7")));
+	}
+
+	@Test
+	void testNaN() throws SyntaxException, EvalException {
+		IntervalEvaluator ev = new IntervalEvaluator();
+		ev.setBounds("x", -1, 1);
+		assertTrue(ev.eval(parse("x / x")).isNaNPossible());
+		assertTrue(ev.eval(parse("x % x")).isNaNPossible());
+		// A NaN never compares less than anything.
+		assertEquals(Truth.UNKNOWN, ev.test(parse("x / x < 2")));
+		// Zero times an infinity is NaN, but zero times the finite
+		// values is still zero.
+		assertEquals(Truth.UNKNOWN, test("0 * (1 / x) = 0", -5, 5));
+		ev.setBounds("x", 1, Double.POSITIVE_INFINITY);
+		assertTrue(ev.eval(parse("-x ^ 2.5")).contains(Double.POSITIVE_INFINITY));
+	}
+
+	@Test
+	void testMissingBounds() {
+		assertThrows(EvalException.class, () ->
+			new IntervalEvaluator().eval(parse("y + 1")));
+	}
+
+	// Evaluate random points inside random boxes and make sure the
+	// interval always holds the calculator's result.
+	@Test
+	void testSound() throws SyntaxException, EvalException {
+		String[] sources = { "x + y", "x - y", "x * y", "x / y", "x ^ y",
+				"x % y", "x = y", "x != y", "x < y", "x > y", "x <= y",
+				"x >= y", "-x", "!x", "x ^ 2", "x ^ 3", "x ^ -1", "x ^ -2",
+				"(x - y) * (x + y) / (y ^ 2 + 1)", "x % 3", "2 ^ x",
+				"x * x - y % (x + 1)", "x & y", "x | y", "x > 0 & y < 1",
+				// A zero meeting an infinity must not lose the zero.
+				"0 * (1 / x)", "(0 >= x) * (2 / y)", "x / (y * 0 + 1 / 0)",
+				"-x ^ 2.5", "-x ^ -2.5", "x ^ 0.5" };
+		double[] edges = { Double.NEGATIVE_INFINITY, -100, -3, -1, -0.5,
+				-0.0, 0, 0.5, 1, 2, 3, 100, Double.POSITIVE_INFINITY };
+		Random rand = new Random(42);
+		JCalculator cal = new JCalculator();
+		IntervalEvaluator ev = new IntervalEvaluator();
+
+		for (String src : sources) {
+			Node tree = parse(src);
+			for (int box = 0; box < 300; box++) {
+				double[] x = bounds(rand, edges);
+				double[] y = bounds(rand, edges);
+				ev.setBounds("x", x[0], x[1]);
+				ev.setBounds("y", y[0], y[1]);
+				Interval range = ev.eval(tree);
+				for (int i = 0; i < 30; i++) {
+					cal.setVariable("x", sample(rand, x));
+					cal.setVariable("y", sample(rand, y));
+					double d = tree.accept(cal);
+					assertTrue(range.contains(d), src + " x=" +
+							cal.getVariable("x") + " y=" +
+							cal.getVariable("y") + " gave " + d +
+							" outside " + range);
+				}
+			}
+		}
+	}
+
+	private double[] bounds(Random rand, double[] edges) {
+		double a = edges[rand.nextInt(edges.length)];
+		double b = edges[rand.nextInt(edges.length)];
+		if (rand.nextBoolean())
+			a = Math.floor(rand.nextGaussian() * 10);
+		return new double[] { Math.min(a, b), Math.max(a, b) };
+	}
+
+	private double sample(Random rand, double[] b) {
+		switch (rand.nextInt(4)) {
+		case 0:
+			return b[0];
+		case 1:
+			return b[1];
+		default:
+			double lo = Math.max(b[0], -1e3);
+			double hi = Math.min(b[1], 1e3);
+			if (lo > hi)
+				return b[rand.nextInt(2)];
+			double d = lo + (hi - lo) * rand.nextDouble();
+			// Whole numbers matter for powers of negative bases.
+			return rand.nextBoolean() && Math.rint(d) >= b[0] &&
+					Math.rint(d) <= b[1] ? Math.rint(d) : d;
+		}
+	}
+}
@@ -2,9 +2,13 @@ package tech.gitpicard.jcalc.test;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.nio.CharBuffer;
+
 import org.junit.jupiter.api.Test;
 
+import tech.gitpicard.jcalc.JCalculator;
 import tech.gitpicard.jcalc.Lexer;
+import tech.gitpicard.jcalc.Parser;
 import tech.gitpicard.jcalc.SyntaxException;
 import tech.gitpicard.jcalc.Token;
 import tech.gitpicard.jcalc.TokenType;
@@ -130,4 +134,46 @@ public class LexerTests {
 			while (lex.advance().getType() != TokenType.EOF);
 		});
 	}
+	
+	@Test
+	public void testCharBuffer() throws Exception {
+		// Only part of the buffer is the expression.
+		CharBuffer buf = CharBuffer.wrap("ignored; rate * (12 + x_1)");
+		buf.position(9);
+		Lexer lex = new Lexer(buf.slice());
+		Token tok = lex.advance();
+		assertEquals(TokenType.IDENTIFIER, tok.getType());
+		assertEquals("rate", tok.getContents());
+		assertEquals(0, tok.getOffset());
+		assertEquals(4, tok.getLength());
+		assertEquals('t', tok.charAt(2));
+		assertEquals(TokenType.STAR, lex.advance().getType());
+		assertEquals(TokenType.LEFT_PARENTHESIS, lex.advance().getType());
+		tok = lex.advance();
+		assertEquals("12", tok.getContents());
+		assertEquals(8, tok.getOffset());
+		
+		JCalculator cal = new JCalculator();
+		cal.setVariable("rate", 2);
+		cal.setVariable("x_", 1);
+		assertEquals(26.0, new Parser(new Lexer(
+				CharBuffer.wrap("rate * (12 + x_)"))).parseTree().accept(cal));
+	}
+	
+	@Test
+	public void testRanges() throws SyntaxException {
+		StringBuilder src = new StringBuilder("abc <= 3.25 != false");
+		Lexer lex = new Lexer(src);
+		int[][] expect = { { 0, 3 }, { 4, 2 }, { 7, 4 }, { 12, 2 },
+				{ 15, 5 } };
+		for (int[] e : expect) {
+			Token tok = lex.advance();
+			assertEquals(e[0], tok.getOffset());
+			assertEquals(e[1], tok.getLength());
+			assertEquals(src.substring(e[0], e[0] + e[1]), tok.getContents());
+		}
+		assertEquals(TokenType.EOF, lex.advance().getType());
+		assertThrows(IllegalArgumentException.class, () ->
+			new Token(TokenType.NUMBER, src, 18, 5));
+	}
 }
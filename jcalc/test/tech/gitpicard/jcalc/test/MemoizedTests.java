@@ -0,0 +1,128 @@
+package tech.gitpicard.jcalc.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import tech.gitpicard.jcalc.EvalException;
+import tech.gitpicard.jcalc.JCalculator;
+import tech.gitpicard.jcalc.MemoizedFunction;
+import tech.gitpicard.jcalc.SyntaxException;
+
+class MemoizedTests {
+
+	@Test
+	void testHits() throws SyntaxException, EvalException {
+		AtomicInteger calls = new AtomicInteger();
+		MemoizedFunction f = new MemoizedFunction((args) -> {
+			calls.incrementAndGet();
+			return args[0] * args[1];
+		}, 100);
+		JCalculator cal = new JCalculator();
+		cal.setFunction("rate", f);
+		for (int i = 0; i < 10; i++)
+			assertEquals(6.0, cal.eval("rate(2, 3)"));
+		assertEquals(1, calls.get());
+		assertEquals(9, f.getHits());
+		assertEquals(1, f.getMisses());
+		assertEquals(0.9, f.getHitRate(), 1e-12);
+		// The whole argument list is the key.
+		assertEquals(8.0, cal.eval("rate(2, 4)"));
+		assertEquals(2, calls.get());
+		assertEquals(2, f.size());
+		f.clear();
+		assertEquals(0, f.size());
+		assertEquals(0.0, f.getHitRate());
+	}
+
+	@Test
+	void testKeys() throws EvalException {
+		AtomicInteger calls = new AtomicInteger();
+		MemoizedFunction f = new MemoizedFunction((args) -> {
+			calls.incrementAndGet();
+			return 1 / args[0];
+		}, 10);
+		assertEquals(Double.POSITIVE_INFINITY, f.call(new double[] { 0.0 }));
+		assertEquals(Double.NEGATIVE_INFINITY, f.call(new double[] { -0.0 }));
+		assertTrue(Double.isNaN(f.call(new double[] { Double.NaN })));
+		assertTrue(Double.isNaN(f.call(new double[] { Double.NaN })));
+		assertEquals(3, calls.get());
+		// Changing the caller's array does not change the key.
+		double[] args = { 4 };
+		f.call(args);
+		args[0] = 5;
+		assertEquals(0.2, f.call(args));
+		assertEquals(5, calls.get());
+	}
+
+	@Test
+	void testEviction() throws EvalException {
+		AtomicInteger calls = new AtomicInteger();
+		MemoizedFunction f = new MemoizedFunction((args) -> {
+			calls.incrementAndGet();
+			return args[0];
+		}, 4);
+		for (int i = 0; i < 4; i++)
+			f.call(new double[] { i });
+		// Keep using 0 so that it survives.
+		for (int i = 4; i < 50; i++) {
+			f.call(new double[] { 0 });
+			f.call(new double[] { i });
+			assertEquals(4, f.size());
+		}
+		int before = calls.get();
+		f.call(new double[] { 0 });
+		assertEquals(before, calls.get());
+		assertEquals(4, f.getCapacity());
+	}
+
+	@Test
+	void testErrors() {
+		AtomicInteger calls = new AtomicInteger();
+		MemoizedFunction f = new MemoizedFunction((args) -> {
+			calls.incrementAndGet();
+			throw new EvalException("Out of range.");
+		}, 10);
+		assertThrows(EvalException.class, () -> f.call(new double[] { 1 }));
+		assertThrows(EvalException.class, () -> f.call(new double[] { 1 }));
+		assertEquals(2, calls.get());
+		assertEquals(0, f.size());
+		assertThrows(IllegalArgumentException.class, () ->
+			new MemoizedFunction(null, 10));
+		assertThrows(IllegalArgumentException.class, () ->
+			new MemoizedFunction((args) -> 0, -1));
+	}
+
+	@Test
+	void testThreads() throws InterruptedException {
+		MemoizedFunction f = new MemoizedFunction((args) ->
+			args[0] * 2 + args.length, 1000);
+		ArrayList<Thread> threads = new ArrayList<>();
+		AtomicInteger wrong = new AtomicInteger();
+		for (int t = 0; t < 8; t++) {
+			final int seed = t;
+			Thread thread = new Thread(() -> {
+				for (int i = 0; i < 20000; i++) {
+					double x = (i * 31 + seed) % 3000;
+					try {
+						if (f.call(new double[] { x }) != x * 2 + 1)
+							wrong.incrementAndGet();
+					}
+					catch (EvalException e) {
+						wrong.incrementAndGet();
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		assertEquals(0, wrong.get());
+		assertEquals(8 * 20000, f.getHits() + f.getMisses());
+		assertTrue(f.size() <= 1000);
+	}
+}
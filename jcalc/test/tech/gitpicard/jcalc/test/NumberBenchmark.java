@@ -0,0 +1,82 @@
+package tech.gitpicard.jcalc.test;
+
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Random;
+
+import tech.gitpicard.jcalc.NumberParser;
+
+/**
+ * Compares the literal parser with copying each literal into a
+ * string for Double.parseDouble, on a literal dense input. This is
+ * run by hand rather than with the tests, since its timings depend
+ * on the machine:
+ * <pre>
+ * java -cp main:test tech.gitpicard.jcalc.test.NumberBenchmark [rounds]
+ * </pre>
+ */
+final class NumberBenchmark {
+
+	private NumberBenchmark() {
+	}
+
+	public static void main(String[] args) {
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+
+		// Integers, plain decimals and exponent literals, as a
+		// generator would write them, all in one long text.
+		Random rand = new Random(1);
+		StringBuilder src = new StringBuilder();
+		ArrayList<int[]> ranges = new ArrayList<>();
+		for (int i = 0; i < 100000; i++) {
+			String lit;
+			switch (i % 3) {
+			case 0:
+				lit = Integer.toString(rand.nextInt(100000));
+				break;
+			case 1:
+				lit = String.format(Locale.ROOT, "%.6f",
+						rand.nextDouble() * 1000);
+				break;
+			default:
+				lit = String.format(Locale.ROOT, "%.9e", rand.nextGaussian());
+				lit = lit.replace("-", "");
+				break;
+			}
+			ranges.add(new int[] { src.length(), lit.length() });
+			src.append(lit).append(" + ");
+		}
+		String text = src.toString();
+
+		// The first rounds only warm up the JIT and are not counted.
+		double fast = 0;
+		double slow = 0;
+		long fastTime = Long.MAX_VALUE;
+		long slowTime = Long.MAX_VALUE;
+		for (int round = -5; round < rounds; round++) {
+			fast = 0;
+			slow = 0;
+			long t0 = System.nanoTime();
+			for (int[] r : ranges)
+				fast += NumberParser.parse(text, r[0], r[1]);
+			long t1 = System.nanoTime();
+			for (int[] r : ranges)
+				slow += Double.parseDouble(text.substring(r[0], r[0] + r[1]));
+			long t2 = System.nanoTime();
+			if (round >= 0) {
+				fastTime = Math.min(fastTime, t1 - t0);
+				slowTime = Math.min(slowTime, t2 - t1);
+			}
+		}
+
+		// The sums keep the parsing from being optimized away, and
+		// show that both give the same values.
+		if (fast != slow)
+			throw new IllegalStateException("sums differ: " + fast + " "
+					+ slow);
+		System.out.printf(Locale.ROOT, "NumberParser: %.1f ns/literal%n",
+				fastTime / (double) ranges.size());
+		System.out.printf(Locale.ROOT, "Double.parseDouble: %.1f ns/literal%n",
+				slowTime / (double) ranges.size());
+	}
+}
@@ -0,0 +1,127 @@
+package tech.gitpicard.jcalc.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import tech.gitpicard.jcalc.EvalException;
+import tech.gitpicard.jcalc.JCalculator;
+import tech.gitpicard.jcalc.Lexer;
+import tech.gitpicard.jcalc.NumberParser;
+import tech.gitpicard.jcalc.SyntaxException;
+import tech.gitpicard.jcalc.TokenType;
+
+class NumberTests {
+
+	void same(String s) {
+		assertEquals(Double.doubleToRawLongBits(Double.parseDouble(s)),
+				Double.doubleToRawLongBits(NumberParser.parse(s)), s);
+	}
+
+	@Test
+	void testHardCases() {
+		String[] cases = { "0", "0.0", "000", ".5", "5.", "1", "9007199254740993",
+				"9007199254740992", "9007199254740991", "123456789012345678901234567890",
+				"0.1", "0.30000000000000004", "2.2250738585072011e-308",
+				"2.2250738585072014E-308", "4.9e-324", "2.4703282292062327e-324",
+				"1e-400", "1e400", "1.7976931348623157e308", "1.7976931348623159e308",
+				"7.2057594037927933e16", "1e23", "8.41e21", "5e-324",
+				"0.000000000000000000000000000001", "1.00000000000000011102230246251565404236316680908203125",
+				"1.00000000000000011102230246251565404236316680908203124",
+				"1.00000000000000011102230246251565404236316680908203126",
+				"3.4e38", "1.5e-9", "1E+2", "12345678901234567890", "1234567890123456789",
+				"18446744073709551615", "0.1e1", "100e-2", "1e0", "1e-0" };
+		for (String s : cases)
+			same(s);
+	}
+
+	@Test
+	void testRandom() {
+		Random rand = new Random(40);
+		for (int i = 0; i < 200000; i++) {
+			double d = Double.longBitsToDouble(rand.nextLong() & Long.MAX_VALUE);
+			if (Double.isNaN(d) || Double.isInfinite(d))
+				continue;
+			same(Double.toString(d));
+			// Shorter and longer spellings round differently.
+			same(String.format(Locale.ROOT, "%.15e", d));
+			same(String.format(Locale.ROOT, "%.20e", d));
+		}
+		for (int i = 0; i < 100000; i++) {
+			StringBuilder b = new StringBuilder();
+			int n = 1 + rand.nextInt(25);
+			for (int k = 0; k < n; k++)
+				b.append((char) ('0' + rand.nextInt(10)));
+			if (rand.nextBoolean())
+				b.insert(rand.nextInt(n + 1), '.');
+			if (rand.nextBoolean())
+				b.append('e').append(rand.nextInt(700) - 350);
+			same(b.toString());
+		}
+	}
+
+	@Test
+	void testBadLiterals() {
+		String[] bad = { "", ".", "e5", "1e", "1e+", "1.2.3", "1x", "--1", "+1" };
+		for (String s : bad)
+			assertThrows(IllegalArgumentException.class,
+					() -> NumberParser.parse(s), s);
+		assertThrows(IllegalArgumentException.class,
+				() -> NumberParser.parse("123", 2, 2));
+		assertEquals(23.0, NumberParser.parse("x=23;", 2, 2));
+	}
+
+	@Test
+	void testExponents() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		assertEquals(1.5e-9, cal.eval("1.5e-9"));
+		assertEquals(2000.0, cal.eval("2e3"));
+		assertEquals(300.0, cal.eval("3E+2"));
+		assertEquals(0.5e1 * 2, cal.eval(".5e1 * 2"));
+		// Without digits the 'e' is a name.
+		cal.setVariable("e", Math.E);
+		assertEquals(2 * Math.E, cal.eval("2 * e"));
+		Lexer lex = new Lexer("2e+x");
+		assertEquals("2", lex.advance().getContents());
+		assertEquals(TokenType.IDENTIFIER, lex.advance().getType());
+		assertThrows(SyntaxException.class, () -> cal.eval("2e"));
+		assertThrows(SyntaxException.class, () -> cal.eval(". + 1"));
+	}
+
+	// Parsing literals in place out of one long text must give the
+	// same values as copying each one out for Double.parseDouble.
+	@Test
+	void testInPlace() {
+		Random rand = new Random(1);
+		StringBuilder src = new StringBuilder();
+		ArrayList<int[]> ranges = new ArrayList<>();
+		for (int i = 0; i < 100000; i++) {
+			String lit;
+			switch (i % 3) {
+			case 0:
+				lit = Integer.toString(rand.nextInt(100000));
+				break;
+			case 1:
+				lit = String.format(Locale.ROOT, "%.6f", rand.nextDouble() * 1000);
+				break;
+			default:
+				lit = String.format(Locale.ROOT, "%.9e", rand.nextGaussian());
+				lit = lit.replace("-", "");
+				break;
+			}
+			ranges.add(new int[] { src.length(), lit.length() });
+			src.append(lit).append(" + ");
+		}
+		String text = src.toString();
+
+		for (int[] r : ranges) {
+			String lit = text.substring(r[0], r[0] + r[1]);
+			assertEquals(Double.parseDouble(lit),
+					NumberParser.parse(text, r[0], r[1]), lit);
+		}
+	}
+}
@@ -0,0 +1,264 @@
+package tech.gitpicard.jcalc.test;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+import tech.gitpicard.jcalc.EvalException;
+import tech.gitpicard.jcalc.JCalculator;
+import tech.gitpicard.jcalc.Lexer;
+import tech.gitpicard.jcalc.Operation;
+import tech.gitpicard.jcalc.Parser;
+import tech.gitpicard.jcalc.Program;
+import tech.gitpicard.jcalc.SyntaxException;
+import tech.gitpicard.jcalc.Token;
+import tech.gitpicard.jcalc.TokenType;
+import tech.gitpicard.jcalc.ast.BinaryNode;
+import tech.gitpicard.jcalc.ast.CallNode;
+import tech.gitpicard.jcalc.ast.LiteralNode;
+import tech.gitpicard.jcalc.ast.Node;
+import tech.gitpicard.jcalc.ast.UnaryNode;
+import tech.gitpicard.jcalc.ast.VariableNode;
+
+/**
+ * Compares the table driven parser with a recursive descent parser
+ * that has one method for each level of precedence, as the parser
+ * used to, on a large operator and literal heavy input. The calls
+ * the recursive descent parser makes for each token are counted
+ * exactly, while the table driven parser takes one step of its loop
+ * for each token. This is run by hand rather than with the tests,
+ * since its timings depend on the machine:
+ * <pre>
+ * java -cp main:test tech.gitpicard.jcalc.test.ParserBenchmark [rounds]
+ * </pre>
+ */
+final class ParserBenchmark {
+
+	// Parses the standard grammar with a method for each level of
+	// precedence, from | down to literals, and counts how many times
+	// those methods are called.
+	private static final class Descent {
+		private final ArrayList<Token> tokens = new ArrayList<>();
+		private int pos;
+		private long calls;
+
+		Descent(String source) throws SyntaxException {
+			Lexer lexer = new Lexer(source);
+			Token tok = lexer.advance();
+			while (tok.getType() != TokenType.EOF) {
+				tokens.add(tok);
+				tok = lexer.advance();
+			}
+		}
+
+		private boolean isMatch(TokenType... types) {
+			if (pos == tokens.size())
+				return false;
+			for (TokenType t : types) {
+				if (tokens.get(pos).getType() == t) {
+					pos++;
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private TokenType previous() {
+			return tokens.get(pos - 1).getType();
+		}
+
+		private Node primary() throws SyntaxException {
+			calls++;
+			if (isMatch(TokenType.TRUE))
+				return new LiteralNode(1);
+			else if (isMatch(TokenType.FALSE))
+				return new LiteralNode(0);
+			else if (isMatch(TokenType.NUMBER))
+				return new LiteralNode(Double.parseDouble(
+						tokens.get(pos - 1).getContents()));
+			else if (isMatch(TokenType.IDENTIFIER))
+				return new VariableNode(tokens.get(pos - 1).getContents());
+			if (isMatch(TokenType.LEFT_PARENTHESIS)) {
+				Node expression = or();
+				if (!isMatch(TokenType.RIGHT_PARENTHESIS))
+					throw new SyntaxException("Missing ')' token.");
+				return expression;
+			}
+			throw new SyntaxException("Bad expression structure.");
+		}
+
+		private Node call() throws SyntaxException {
+			calls++;
+			if (tokens.size() - pos >= 2 &&
+					tokens.get(pos).getType() == TokenType.IDENTIFIER &&
+					tokens.get(pos + 1).getType() ==
+							TokenType.LEFT_PARENTHESIS) {
+				String name = tokens.get(pos).getContents();
+				ArrayList<Node> args = new ArrayList<>();
+				pos += 2;
+				if (!isMatch(TokenType.RIGHT_PARENTHESIS)) {
+					do {
+						args.add(comparison());
+					} while (isMatch(TokenType.COMMA));
+					if (!isMatch(TokenType.RIGHT_PARENTHESIS))
+						throw new SyntaxException("No closing ')' found.");
+				}
+				return new CallNode(name, args.toArray(new Node[0]));
+			}
+			return primary();
+		}
+
+		private Node unary() throws SyntaxException {
+			calls++;
+			if (isMatch(TokenType.MINUS, TokenType.NOT)) {
+				Operation op = previous() == TokenType.NOT ?
+						Operation.NOT : Operation.NEGATE;
+				return new UnaryNode(op, unary());
+			}
+			return call();
+		}
+
+		private Node pow() throws SyntaxException {
+			calls++;
+			Node expression = unary();
+			while (isMatch(TokenType.CARROT))
+				expression = new BinaryNode(expression, Operation.POW,
+						unary());
+			return expression;
+		}
+
+		private Node multDiv() throws SyntaxException {
+			calls++;
+			Node expression = pow();
+			while (isMatch(TokenType.STAR, TokenType.SLASH, TokenType.MOD)) {
+				Operation op = Operation.MULT;
+				if (previous() == TokenType.SLASH)
+					op = Operation.DIV;
+				else if (previous() == TokenType.MOD)
+					op = Operation.MOD;
+				expression = new BinaryNode(expression, op, pow());
+			}
+			return expression;
+		}
+
+		private Node addSub() throws SyntaxException {
+			calls++;
+			Node expression = multDiv();
+			while (isMatch(TokenType.PLUS, TokenType.MINUS)) {
+				Operation op = previous() == TokenType.MINUS ?
+						Operation.SUB : Operation.ADD;
+				expression = new BinaryNode(expression, op, multDiv());
+			}
+			return expression;
+		}
+
+		private Node comparison() throws SyntaxException {
+			calls++;
+			Node expression = addSub();
+			while (isMatch(TokenType.LESS, TokenType.GREATER,
+					TokenType.LESS_OR_EQLS, TokenType.GREATER_OR_EQLS)) {
+				Operation op;
+				switch (previous()) {
+				case GREATER:
+					op = Operation.GREATER;
+					break;
+				case LESS_OR_EQLS:
+					op = Operation.LESS_OR_EQLS;
+					break;
+				case GREATER_OR_EQLS:
+					op = Operation.GREATER_OR_EQLS;
+					break;
+				default:
+					op = Operation.LESS;
+					break;
+				}
+				expression = new BinaryNode(expression, op, addSub());
+			}
+			return expression;
+		}
+
+		private Node equality() throws SyntaxException {
+			calls++;
+			Node expression = comparison();
+			while (isMatch(TokenType.EQLS, TokenType.NOT_EQLS)) {
+				Operation op = previous() == TokenType.NOT_EQLS ?
+						Operation.NOT_EQLS : Operation.EQLS;
+				expression = new BinaryNode(expression, op, comparison());
+			}
+			return expression;
+		}
+
+		private Node and() throws SyntaxException {
+			calls++;
+			Node expression = equality();
+			while (isMatch(TokenType.AND))
+				expression = new BinaryNode(expression, Operation.AND,
+						equality());
+			return expression;
+		}
+
+		private Node or() throws SyntaxException {
+			calls++;
+			Node expression = and();
+			while (isMatch(TokenType.OR))
+				expression = new BinaryNode(expression, Operation.OR, and());
+			return expression;
+		}
+
+		Node parseTree() throws SyntaxException {
+			if (tokens.isEmpty())
+				throw new SyntaxException("Empty expression!");
+			Node expression = or();
+			if (pos != tokens.size())
+				throw new SyntaxException("Bad expression structure.");
+			return expression;
+		}
+	}
+
+	private ParserBenchmark() {
+	}
+
+	public static void main(String[] args)
+			throws SyntaxException, EvalException {
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+
+		String[] ops = { " + ", " * ", " - ", " / ", " < ", " ^ ", " & " };
+		StringBuilder sb = new StringBuilder("x");
+		for (int i = 0; i < 200000; i++)
+			sb.append(ops[i % ops.length]).append(i % 2 == 0 ? "y" : "2");
+		String src = sb.toString();
+		int tokens = 400001;
+
+		// Both parsers must build trees that give the same value.
+		JCalculator cal = new JCalculator();
+		cal.setVariable("x", 3);
+		cal.setVariable("y", 4);
+		Descent check = new Descent(src);
+		double expected = cal.eval(Program.compile(check.parseTree()));
+		double actual = cal.eval(Program.compile(
+				new Parser(new Lexer(src)).parseTree()));
+		if (Double.compare(expected, actual) != 0)
+			throw new IllegalStateException("results differ: " + expected
+					+ " " + actual);
+
+		// The first rounds only warm up the JIT and are not counted.
+		long descentTime = Long.MAX_VALUE;
+		long tableTime = Long.MAX_VALUE;
+		for (int round = -3; round < rounds; round++) {
+			long t0 = System.nanoTime();
+			new Descent(src).parseTree();
+			long t1 = System.nanoTime();
+			new Parser(new Lexer(src)).parseTree();
+			long t2 = System.nanoTime();
+			if (round >= 0) {
+				descentTime = Math.min(descentTime, t1 - t0);
+				tableTime = Math.min(tableTime, t2 - t1);
+			}
+		}
+
+		System.out.printf(Locale.ROOT, "Recursive descent: %.2f calls/token, "
+				+ "%.1f ns/token%n", check.calls / (double) tokens,
+				descentTime / (double) tokens);
+		System.out.printf(Locale.ROOT, "Parser: %.1f ns/token%n",
+				tableTime / (double) tokens);
+	}
+}
@@ -0,0 +1,209 @@
+package tech.gitpicard.jcalc.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import tech.gitpicard.jcalc.Associativity;
+import tech.gitpicard.jcalc.EvalException;
+import tech.gitpicard.jcalc.JCalculator;
+import tech.gitpicard.jcalc.Lexer;
+import tech.gitpicard.jcalc.Operation;
+import tech.gitpicard.jcalc.OperatorTable;
+import tech.gitpicard.jcalc.Parser;
+import tech.gitpicard.jcalc.SyntaxException;
+import tech.gitpicard.jcalc.TokenType;
+import tech.gitpicard.jcalc.ast.BinaryNode;
+import tech.gitpicard.jcalc.ast.CallNode;
+import tech.gitpicard.jcalc.ast.LiteralNode;
+import tech.gitpicard.jcalc.ast.Node;
+import tech.gitpicard.jcalc.ast.UnaryNode;
+import tech.gitpicard.jcalc.ast.VariableNode;
+
+class ParserTests {
+	
+	private static final int DEEP = 100000;
+	
+	// Helper function that writes out the tree with every node
+	// fully parenthesized so the shape can be compared.
+	String shape(Node n) {
+		if (n instanceof BinaryNode) {
+			BinaryNode b = (BinaryNode) n;
+			return "(" + shape(b.getLeft()) + " " + b.getOperation() +
+					" " + shape(b.getRight()) + ")";
+		}
+		else if (n instanceof UnaryNode) {
+			UnaryNode u = (UnaryNode) n;
+			return "(" + u.getOperation() + " " + shape(u.getRight()) + ")";
+		}
+		else if (n instanceof CallNode) {
+			CallNode c = (CallNode) n;
+			StringBuilder sb = new StringBuilder(c.getFunction() + "[");
+			for (Node arg : c.getArguments())
+				sb.append(shape(arg)).append(";");
+			return sb.append("]").toString();
+		}
+		else if (n instanceof VariableNode)
+			return ((VariableNode) n).getIdentifer();
+		return Double.toString(((LiteralNode) n).getValue());
+	}
+	
+	String parse(String src) throws SyntaxException {
+		return shape(new Parser(new Lexer(src)).parseTree());
+	}
+	
+	String repeat(String s, int n) {
+		StringBuilder sb = new StringBuilder(s.length() * n);
+		for (int i = 0; i < n; i++)
+			sb.append(s);
+		return sb.toString();
+	}
+	
+	@Test
+	void testPrecedence() throws SyntaxException {
+		assertEquals("((1.0 ADD (2.0 MULT 3.0)) EQLS 7.0)",
+				parse("1 + 2 * 3 = 7"));
+		assertEquals("((a LESS b) EQLS (c GREATER_OR_EQLS d))",
+				parse("a < b = c >= d"));
+		assertEquals("((NEGATE 2.0) POW 2.0)", parse("-2 ^ 2"));
+		assertEquals("((2.0 POW (NEGATE 3.0)) POW 2.0)",
+				parse("2 ^ -3 ^ 2"));
+		assertEquals("((1.0 SUB 2.0) SUB 3.0)", parse("1 - 2 - 3"));
+		assertEquals("(NOT (NOT a))", parse("!!a"));
+		assertEquals("(1.0 MULT (2.0 ADD 3.0))", parse("1 * (2 + 3)"));
+	}
+	
+	@Test
+	void testLogical() throws SyntaxException, EvalException {
+		assertEquals("((a AND b) OR (c AND d))", parse("a & b | c & d"));
+		assertEquals("((a EQLS 1.0) AND (NOT (b LESS 2.0)))",
+				parse("a = 1 & !(b < 2)"));
+		assertEquals("((a OR b) OR c)", parse("a | b | c"));
+		assertThrows(SyntaxException.class, () -> parse("f(a & b)"));
+		JCalculator cal = new JCalculator();
+		assertEquals(1, cal.eval("2 > 1 & 3 | 0"));
+		assertEquals(0, cal.eval("0 & 1 | 0"));
+		// NaN is not 0 so it is true.
+		assertEquals(1, cal.eval("0 / 0 & 1"));
+	}
+	
+	@Test
+	void testOperatorTable() throws SyntaxException, EvalException {
+		OperatorTable table = OperatorTable.STANDARD
+				.withBinary(TokenType.CARROT, 7, Associativity.RIGHT,
+						Operation.POW)
+				.withBinary(TokenType.OR, 1, Associativity.LEFT, "max")
+				.withPrefix(TokenType.PLUS, 8, "abs");
+		Parser parser = new Parser(new Lexer("2 ^ 3 ^ 2 | +x"));
+		parser.setOperators(table);
+		assertEquals("max[(2.0 POW (3.0 POW 2.0));abs[x;];]",
+				shape(parser.parseTree()));
+		assertEquals(Associativity.RIGHT,
+				table.getAssociativity(TokenType.CARROT));
+		assertEquals(Associativity.LEFT,
+				OperatorTable.STANDARD.getAssociativity(TokenType.CARROT));
+		assertFalse(OperatorTable.STANDARD.isPrefix(TokenType.PLUS));
+
+		JCalculator cal = new JCalculator();
+		cal.setOperators(table);
+		cal.setFunction("max", (args) -> Math.max(args[0], args[1]));
+		cal.setFunction("abs", (args) -> Math.abs(args[0]));
+		cal.setVariable("x", -600);
+		assertEquals(600, cal.eval("2 ^ 3 ^ 2 | +x"));
+		assertEquals(512, cal.eval("2 ^ 3 ^ 2"));
+
+		// A prefix operator looser than the binary ones applies to
+		// everything after it.
+		parser = new Parser(new Lexer("!a + b"));
+		parser.setOperators(table.withPrefix(TokenType.NOT, 3, Operation.NOT));
+		assertEquals("(NOT (a ADD b))", shape(parser.parseTree()));
+
+		Parser plain = new Parser(new Lexer("1 + 2"));
+		plain.setOperators(table.withoutBinary(TokenType.PLUS));
+		assertThrows(SyntaxException.class, () -> plain.parseTree());
+	}
+	
+	@Test
+	void testOperatorTableIllegal() {
+		OperatorTable t = OperatorTable.STANDARD;
+		assertThrows(IllegalArgumentException.class, () ->
+			t.withBinary(TokenType.COMMA, 1, Associativity.LEFT, "f"));
+		assertThrows(IllegalArgumentException.class, () ->
+			t.withBinary(TokenType.STAR, 0, Associativity.LEFT, "f"));
+		assertThrows(IllegalArgumentException.class, () ->
+			t.withBinary(TokenType.STAR, 1, Associativity.LEFT,
+					Operation.NOT));
+		assertThrows(IllegalArgumentException.class, () ->
+			t.withPrefix(TokenType.STAR, 1, Operation.ADD));
+		assertThrows(IllegalArgumentException.class, () ->
+			new Parser(new Lexer("1")).setOperators(null));
+	}
+	
+	@Test
+	void testCalls() throws SyntaxException {
+		assertEquals("f[1.0;(x ADD 2.0);]", parse("f(1, x + 2)"));
+		assertEquals("(NEGATE f[g[(a EQLS b);];])", parse("-f(g((a = b)))"));
+	}
+	
+	@Test
+	void testCallEquality() {
+		// Arguments are parsed at the comparison level.
+		assertThrows(SyntaxException.class, () -> parse("f(a = b)"));
+	}
+	
+	@Test
+	void testUnclosed() {
+		assertThrows(SyntaxException.class, () -> parse("(5"));
+		assertThrows(SyntaxException.class, () -> parse("(5, 3)"));
+		assertThrows(SyntaxException.class, () -> parse("f(5 5)"));
+	}
+	
+	@Test
+	void testDeepParenthesis() throws SyntaxException, EvalException {
+		String src = repeat("(", DEEP) + "1" + repeat(")", DEEP);
+		assertEquals(1, new JCalculator().eval(src));
+	}
+	
+	@Test
+	void testDeepUnary() throws SyntaxException, EvalException {
+		assertEquals(7, new JCalculator().eval(repeat("-", DEEP) + "7"));
+	}
+	
+	@Test
+	void testDeepRightNesting() throws SyntaxException, EvalException {
+		String src = repeat("1 + (", DEEP) + "1" + repeat(")", DEEP);
+		assertEquals(DEEP + 1, new JCalculator().eval(src));
+	}
+	
+	@Test
+	void testDeepLeftChain() throws SyntaxException, EvalException {
+		String src = "0" + repeat(" + 1", DEEP);
+		assertEquals(DEEP, new JCalculator().eval(src));
+	}
+	
+	@Test
+	void testDeepCalls() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		cal.setFunction("inc", (args) -> args[0] + 1);
+		String src = repeat("inc(", DEEP) + "0" + repeat(")", DEEP);
+		assertEquals(DEEP, cal.eval(src));
+	}
+	
+	@Test
+	void testDepthLimit() {
+		JCalculator cal = new JCalculator();
+		cal.setMaxDepth(1000);
+		assertThrows(SyntaxException.class, () ->
+			cal.eval(repeat("(", 1000) + "1" + repeat(")", 1000)));
+		assertThrows(SyntaxException.class, () ->
+			cal.eval(repeat("-", 1000) + "1"));
+		assertThrows(SyntaxException.class, () ->
+			cal.eval("0" + repeat(" + 1", 1000)));
+	}
+	
+	@Test
+	void testDepthLimitIllegal() {
+		assertThrows(IllegalArgumentException.class, () ->
+			new Parser(new Lexer("1")).setMaxDepth(0));
+	}
+}
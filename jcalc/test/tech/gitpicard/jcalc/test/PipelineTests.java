@@ -0,0 +1,152 @@
+package tech.gitpicard.jcalc.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+
+import tech.gitpicard.jcalc.CsvPipeline;
+import tech.gitpicard.jcalc.EvalException;
+import tech.gitpicard.jcalc.JCalculator;
+import tech.gitpicard.jcalc.SyntaxException;
+
+class PipelineTests {
+
+	String run(CsvPipeline pipeline, String input)
+			throws IOException, EvalException {
+		StringWriter out = new StringWriter();
+		pipeline.run(new StringReader(input), out);
+		return out.toString().replace(System.lineSeparator(), "\n");
+	}
+
+	@Test
+	void testColumns() throws SyntaxException, IOException, EvalException {
+		CsvPipeline p = new CsvPipeline(new JCalculator());
+		p.add("total", "price * qty");
+		p.add("big", "price * qty > 100");
+		assertEquals(2, p.size());
+		assertEquals("total,big\n20.0,0.0\n300.0,1.0\n",
+				run(p, "id, qty, price\n1, 2, 10\n2,3,100\n"));
+	}
+
+	@Test
+	void testCopyInput() throws SyntaxException, IOException, EvalException {
+		CsvPipeline p = new CsvPipeline(new JCalculator());
+		p.add("twice", "x * 2");
+		p.setCopyInput(true);
+		assertEquals("name,x,twice\na,1.5,3.0\nb,-2,-4.0\n",
+				run(p, "name,x\r\na,1.5\r\nb,-2"));
+		p.setHeader(false);
+		assertEquals("a,1.5,3.0\n", run(p, "name,x\na,1.5\n"));
+	}
+
+	@Test
+	void testEnvironment() throws SyntaxException, IOException, EvalException {
+		JCalculator cal = new JCalculator();
+		cal.setVariable("rate", 0.5);
+		cal.setFunction("max", (args) -> Math.max(args[0], args[1]));
+		CsvPipeline p = new CsvPipeline(cal);
+		p.add("y", "max(x, 10) * rate");
+		p.setHeader(false);
+		assertEquals("5.0\n10.0\n", run(p, "x\n3\n20\n"));
+
+		JCalculator resolved = new JCalculator();
+		resolved.setResolver((name) -> name.length());
+		CsvPipeline s = new CsvPipeline(resolved);
+		s.add("y", "x + rate");
+		s.setHeader(false);
+		assertEquals("5.0\n", run(s, "x\n1\n"));
+
+		CsvPipeline q = new CsvPipeline(new JCalculator());
+		q.add("y", "z + 1");
+		assertThrows(EvalException.class, () -> run(q, "x\n1\n"));
+		CsvPipeline r = new CsvPipeline(new JCalculator());
+		r.add("y", "f(x)");
+		assertThrows(EvalException.class, () -> run(r, "x\n1\n"));
+	}
+
+	@Test
+	void testErrors() throws SyntaxException, IOException, EvalException {
+		ArrayList<String> errors = new ArrayList<>();
+		CsvPipeline p = new CsvPipeline(new JCalculator());
+		p.add("y", "a + b");
+		p.add("z", "a");
+		p.setErrorHandler((line, message) -> errors.add(line + ": " + message));
+		StringWriter out = new StringWriter();
+		long failed = p.run(new StringReader(
+				"a,b\n1,2\n1,oops\n\n3\n  4 , 5e1 \nNaN,1\n"), out);
+		assertEquals(2, failed);
+		assertEquals("y,z\n3.0,1.0\n,\n\n,\n54.0,4.0\nNaN,NaN\n",
+				out.toString().replace(System.lineSeparator(), "\n"));
+		assertEquals(2, errors.size());
+		assertEquals("3: Bad number in column 'b'.", errors.get(0));
+		assertEquals("5: Missing column 'b'.", errors.get(1));
+	}
+
+	@Test
+	void testEmpty() throws SyntaxException, IOException, EvalException {
+		CsvPipeline p = new CsvPipeline(new JCalculator());
+		p.add("y", "1");
+		assertEquals("", run(p, ""));
+		assertEquals("y\n", run(p, "x\n"));
+	}
+
+	// Rows far longer than the read buffer and many rows crossing its
+	// end have to come out the same as short ones.
+	@Test
+	void testLarge() throws SyntaxException, IOException, EvalException {
+		StringBuilder wide = new StringBuilder("x");
+		for (int i = 0; i < 40000; i++)
+			wide.append(",pad");
+		wide.append(",z\n7");
+		for (int i = 0; i < 40000; i++)
+			wide.append(",0");
+		wide.append(",123");
+		CsvPipeline p = new CsvPipeline(new JCalculator());
+		p.add("y", "x + z");
+		p.setHeader(false);
+		assertEquals("130.0\n", run(p, wide.toString()));
+
+		int rows = 200000;
+		Reader reader = new Reader() {
+			private int row = -1;
+			private String pending = "";
+
+			@Override
+			public int read(char[] cbuf, int off, int len) {
+				if (pending.isEmpty()) {
+					if (row == rows)
+						return -1;
+					pending = row++ < 0 ? "n,sq\n" : row + "," + row * 2 + "\n";
+				}
+				int n = Math.min(len, pending.length());
+				pending.getChars(0, n, cbuf, off);
+				pending = pending.substring(n);
+				return n;
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		long[] lines = new long[1];
+		StringWriter out = new StringWriter() {
+			@Override
+			public void write(char[] cbuf, int off, int len) {
+				for (int i = off; i < off + len; i++)
+					if (cbuf[i] == '\n')
+						lines[0]++;
+			}
+		};
+		CsvPipeline q = new CsvPipeline(new JCalculator());
+		q.add("d", "sq - n");
+		q.setHeader(false);
+		assertEquals(0, q.run(reader, out));
+		assertEquals(rows, lines[0]);
+	}
+}
@@ -0,0 +1,112 @@
+package tech.gitpicard.jcalc.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import tech.gitpicard.jcalc.EvalException;
+import tech.gitpicard.jcalc.JCalculator;
+import tech.gitpicard.jcalc.Profiler;
+import tech.gitpicard.jcalc.SyntaxException;
+import tech.gitpicard.jcalc.ast.BinaryNode;
+import tech.gitpicard.jcalc.ast.CallNode;
+import tech.gitpicard.jcalc.ast.Node;
+
+class ProfilerTests {
+
+	@Test
+	void testCounts() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		cal.setVariable("x", 3);
+		cal.setFunction("slow", (args) -> {
+			long end = System.nanoTime() + 200000;
+			while (System.nanoTime() < end)
+				;
+			return args[0] + 1;
+		});
+		Profiler p = new Profiler(cal, "x * 2 + slow(x - 1) ^ 2");
+		for (int i = 0; i < 10; i++)
+			assertEquals(cal.eval("x * 2 + slow(x - 1) ^ 2"), p.eval());
+		assertEquals(10, p.getEvaluationCount());
+
+		BinaryNode add = (BinaryNode) p.getTree();
+		CallNode call = (CallNode) ((BinaryNode) add.getRight()).getLeft();
+		assertEquals(10, p.getCount(add));
+		assertEquals(10, p.getCount(call));
+		assertEquals(10, p.getCount(call.getArguments()[0]));
+
+		// The function's time shows up as the call's own time, and
+		// every node's total time includes its children's.
+		assertTrue(p.getFunctionTime(call) >= 10 * 200000);
+		assertTrue(p.getSelfTime(call) >= p.getFunctionTime(call));
+		assertTrue(p.getTotalTime(call) >= p.getSelfTime(call));
+		assertTrue(p.getTotalTime(add) >= p.getTotalTime(call));
+		assertEquals(0, p.getFunctionTime(add));
+
+		// Every node's own time adds up to the total at the root.
+		long self = 0;
+		for (Node n : new Node[] { add, add.getLeft(), add.getRight(), call,
+				((BinaryNode) add.getLeft()).getLeft(),
+				((BinaryNode) add.getLeft()).getRight(),
+				((BinaryNode) add.getRight()).getRight(),
+				call.getArguments()[0],
+				((BinaryNode) call.getArguments()[0]).getLeft(),
+				((BinaryNode) call.getArguments()[0]).getRight() })
+			self += p.getSelfTime(n);
+		assertEquals(p.getTotalTime(add), self);
+
+		p.reset();
+		assertEquals(0, p.getCount(add));
+		assertEquals(0, p.getEvaluationCount());
+	}
+
+	@Test
+	void testExplain() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		cal.setVariable("a", 1);
+		cal.setFunction("f", (args) -> args[0]);
+		Profiler p = new Profiler(cal, "-f(a) < 2 & !a");
+		p.eval();
+		p.eval();
+		String[] lines = p.explain().split(System.lineSeparator());
+		assertEquals(10, lines.length);
+		assertTrue(lines[0].startsWith("2 evaluations, "));
+		assertTrue(lines[1].startsWith("node "));
+		assertTrue(lines[2].startsWith("& "));
+		assertTrue(lines[3].startsWith("  < "));
+		assertTrue(lines[4].startsWith("    - "));
+		assertTrue(lines[5].startsWith("      f() "));
+		assertTrue(lines[5].contains("in function"));
+		assertTrue(lines[6].startsWith("        a "));
+		assertTrue(lines[7].startsWith("    2.0 "));
+		assertTrue(lines[8].startsWith("  ! "));
+		assertTrue(lines[9].startsWith("    a "));
+		assertTrue(lines[2].split(" +")[1].equals("2"));
+	}
+
+	@Test
+	void testErrors() throws SyntaxException {
+		JCalculator cal = new JCalculator();
+		Profiler p = new Profiler(cal, "g(1) + y");
+		assertThrows(EvalException.class, () -> p.eval());
+		cal.setFunction("g", (args) -> args[0]);
+		assertThrows(EvalException.class, () -> p.eval());
+		assertThrows(SyntaxException.class, () -> new Profiler(cal, "1 +"));
+		assertThrows(IllegalArgumentException.class, () -> p.getCount(null));
+	}
+
+	@Test
+	void testDeep() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		Profiler p = new Profiler(cal, "0" + " + 1".repeat(200000));
+		assertEquals(200000.0, p.eval());
+		assertEquals(200000.0, p.eval());
+		Node root = p.getTree();
+		assertEquals(2, p.getCount(root));
+		assertTrue(p.getTotalTime(root) >= p.getSelfTime(root));
+		Node first = root;
+		while (first instanceof BinaryNode)
+			first = ((BinaryNode) first).getLeft();
+		assertEquals(2, p.getCount(first));
+	}
+}
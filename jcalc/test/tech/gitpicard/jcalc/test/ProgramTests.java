@@ -0,0 +1,110 @@
+package tech.gitpicard.jcalc.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import tech.gitpicard.jcalc.EvalException;
+import tech.gitpicard.jcalc.Function;
+import tech.gitpicard.jcalc.FunctionRegistry;
+import tech.gitpicard.jcalc.JCalculator;
+import tech.gitpicard.jcalc.Lexer;
+import tech.gitpicard.jcalc.Parser;
+import tech.gitpicard.jcalc.Program;
+import tech.gitpicard.jcalc.SyntaxException;
+import tech.gitpicard.jcalc.ast.Node;
+
+class ProgramTests {
+
+	// Helper function that checks the compiled program gives the
+	// same answer as the tree-walking calculator.
+	void same(JCalculator cal, String src)
+			throws SyntaxException, EvalException {
+		Node tree = new Parser(new Lexer(src)).parseTree();
+		assertEquals(tree.accept(cal), cal.eval(cal.compile(src)));
+	}
+
+	@Test
+	void testOperators() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		String[] sources = { "5", "12.3 + 5.6", "12 - 45", "1 * 5.6",
+				"12.3 / 5.6", "12.3 ^ 5.6", "12 % 5", "12.3 = 5",
+				"12.3 != 5", "12.3 < 5", "12.3 > 5", "12.3 <= 5",
+				"12.3 >= 5", "-5", "--10", "!5", "!!5", "!0",
+				"12 ^ 5 - 6", "12 * (5 - 6)", "true", "false",
+				"1 & 0", "2 & -1", "0 | 0", "0 | 3", "0 / 0 & 1" };
+		for (String s : sources)
+			same(cal, s);
+	}
+
+	@Test
+	void testVariables() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		cal.setVariable("x", 3);
+		cal.setVariable("y", 4);
+		Program p = cal.compile("x * x + y * y");
+		assertEquals(2, p.getVariableCount());
+		assertEquals(25, cal.eval(p));
+		// The program reads the current value each time it runs.
+		cal.setVariable("y", 0);
+		assertEquals(9, cal.eval(p));
+	}
+
+	@Test
+	void testFunctions() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		cal.setFunction("add", (args) -> args[0] + args[1]);
+		cal.setVariable("x", 15.7);
+		same(cal, "5 * add(10, x) ^ 2");
+		same(cal, "add(add(1, 2), add(3, add(4, 5)))");
+	}
+
+	// Functions are bound once, but a program still sees a function
+	// that was redefined afterwards.
+	@Test
+	void testRebind() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		cal.setFunction("f", (args) -> args[0]);
+		cal.setFunctionRegistry(new FunctionRegistry.Builder()
+				.add("g", (args) -> args[0] * 10).build());
+		Program p = cal.compile("f(1) + g(2)");
+		assertEquals(21.0, cal.eval(p));
+		assertEquals(21.0, cal.eval(p));
+		cal.setFunction("f", (args) -> args[0] + 100);
+		assertEquals(121.0, cal.eval(p));
+		cal.setFunctionRegistry(new FunctionRegistry.Builder()
+				.add("g", (args) -> -args[0]).build());
+		assertEquals(99.0, cal.eval(p));
+
+		// Another calculator binds its own functions.
+		JCalculator other = new JCalculator();
+		other.setFunction("f", (args) -> 0);
+		other.setFunction("g", (args) -> 0);
+		assertEquals(0.0, other.eval(p));
+		assertEquals(99.0, cal.eval(p));
+	}
+
+	@Test
+	void testRunSlots() throws SyntaxException, EvalException {
+		Program p = new JCalculator().compile("a - b");
+		assertEquals("a", p.getVariable(0));
+		assertEquals("b", p.getVariable(1));
+		assertEquals(-1, p.run(new double[] { 1, 2 }, new Function[0]));
+	}
+
+	@Test
+	void testMissingVariable() {
+		assertThrows(EvalException.class, () -> {
+			JCalculator cal = new JCalculator();
+			cal.eval(cal.compile("no + 1"));
+		});
+	}
+
+	@Test
+	void testMissingFunction() {
+		assertThrows(EvalException.class, () -> {
+			JCalculator cal = new JCalculator();
+			cal.eval(cal.compile("no(1)"));
+		});
+	}
+}
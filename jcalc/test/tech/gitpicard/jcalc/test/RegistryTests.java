@@ -0,0 +1,108 @@
+package tech.gitpicard.jcalc.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import tech.gitpicard.jcalc.EvalException;
+import tech.gitpicard.jcalc.Function;
+import tech.gitpicard.jcalc.FunctionRegistry;
+import tech.gitpicard.jcalc.JCalculator;
+import tech.gitpicard.jcalc.Program;
+import tech.gitpicard.jcalc.SyntaxException;
+
+class RegistryTests {
+
+	FunctionRegistry base() {
+		FunctionRegistry.Builder b = new FunctionRegistry.Builder()
+				.add("max", (args) -> Math.max(args[0], args[1]))
+				.add("sqrt", (args) -> Math.sqrt(args[0]));
+		for (int i = 0; i < 150; i++) {
+			double k = i;
+			b.add("f_" + (char) ('a' + i % 26) + (char) ('a' + i / 26),
+					(args) -> args[0] + k);
+		}
+		return b.build();
+	}
+
+	@Test
+	void testShared() throws SyntaxException, EvalException {
+		FunctionRegistry reg = base();
+		assertEquals(152, reg.size());
+		assertEquals(152, reg.getNames().size());
+		assertTrue(reg.contains("f_ze"));
+		assertNull(reg.get("nope"));
+
+		JCalculator a = new JCalculator();
+		JCalculator b = new JCalculator();
+		a.setFunctionRegistry(reg);
+		b.setFunctionRegistry(reg);
+		assertSame(a.getFunctionRegistry(), b.getFunctionRegistry());
+		assertEquals(3, a.eval("sqrt(max(9, 4))"));
+		assertEquals(129, b.eval("f_ze(0)"));
+		assertTrue(b.isFunction("max"));
+		assertThrows(IllegalArgumentException.class, () ->
+			b.setVariable("max", 1));
+		assertTrue(a.validate("max(1, 2)").isValid());
+
+		// Functions set on the calculator come first.
+		a.setFunction("max", (args) -> -1);
+		assertEquals(-1, a.eval("max(9, 4)"));
+		assertEquals(9, b.eval("max(9, 4)"));
+	}
+
+	@Test
+	void testLayers() throws SyntaxException, EvalException {
+		FunctionRegistry reg = base();
+		FunctionRegistry tenant = reg.extend()
+				.add("sqrt", (args) -> Math.cbrt(args[0]))
+				.add("tax", (args) -> args[0] * 0.2)
+				.build();
+		assertSame(reg, tenant.getParent());
+		assertEquals(153, tenant.size());
+		assertNull(reg.get("tax"));
+
+		JCalculator cal = new JCalculator();
+		cal.setFunctionRegistry(tenant);
+		assertEquals(3, cal.eval("sqrt(27)"));
+		assertEquals(20, cal.eval("tax(100) + max(0, -1) * 0"));
+		cal.setFunctionRegistry(reg);
+		assertThrows(EvalException.class, () -> cal.eval("tax(100)"));
+	}
+
+	@Test
+	void testBind() throws SyntaxException, EvalException {
+		FunctionRegistry reg = base();
+		JCalculator cal = new JCalculator();
+		Program p = cal.compile("max(x, f_ba(x)) + sqrt(16)");
+		Function[] funcs = reg.bind(p);
+		assertEquals(3, funcs.length);
+		assertEquals(10, p.run(new double[] { 5 }, funcs));
+		assertThrows(EvalException.class, () ->
+			reg.bind(cal.compile("nope(1)")));
+	}
+
+	@Test
+	void testAsync() throws Exception {
+		JCalculator cal = new JCalculator();
+		cal.setFunctionRegistry(base());
+		assertEquals(5, cal.evalAsync("max(2, sqrt(25))",
+				ForkJoinPool.commonPool()).get());
+	}
+
+	@Test
+	void testIllegal() {
+		FunctionRegistry.Builder b = new FunctionRegistry.Builder();
+		for (String name : List.of("", "a1", "a b"))
+			assertThrows(IllegalArgumentException.class, () ->
+				b.add(name, (args) -> 0));
+		assertThrows(IllegalArgumentException.class, () ->
+			b.add("a", null));
+		assertThrows(IllegalArgumentException.class, () ->
+			FunctionRegistry.EMPTY.get(null));
+		assertEquals(0, FunctionRegistry.EMPTY.size());
+	}
+}
@@ -0,0 +1,166 @@
+package tech.gitpicard.jcalc.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import tech.gitpicard.jcalc.EvalException;
+import tech.gitpicard.jcalc.JCalculator;
+import tech.gitpicard.jcalc.RuleSet;
+import tech.gitpicard.jcalc.SyntaxException;
+
+class RuleSetTests {
+
+	@Test
+	void testSimple() throws SyntaxException, EvalException {
+		RuleSet rules = new RuleSet();
+		rules.add("temp > 80");
+		rules.add("load >= 0.9 = true");
+		rules.add("10 > temp");
+		rules.add("temp * 2 > load");
+		assertTrue(rules.isIndexed(0));
+		assertTrue(rules.isIndexed(1));
+		assertTrue(rules.isIndexed(2));
+		assertFalse(rules.isIndexed(3));
+
+		JCalculator cal = new JCalculator();
+		cal.setVariable("temp", 85);
+		assertArrayEquals(new int[] { 0 }, rules.match(cal));
+		cal.setVariable("load", 0.95);
+		assertArrayEquals(new int[] { 0, 1, 3 }, rules.match(cal));
+		cal.setVariable("temp", 5);
+		assertArrayEquals(new int[] { 1, 2, 3 }, rules.match(cal));
+	}
+
+	// Random rules and events must match exactly the rules that
+	// evaluate to something other than 0.
+	@Test
+	void testAgainstEvaluation() throws SyntaxException, EvalException {
+		String[] vars = { "a", "b", "c" };
+		String[] ops = { "<", ">", "<=", ">=", "=", "!=" };
+		Random rand = new Random(7);
+		RuleSet rules = new RuleSet();
+		ArrayList<String> sources = new ArrayList<>();
+
+		for (int i = 0; i < 2000; i++) {
+			String v = vars[rand.nextInt(vars.length)];
+			String op = ops[rand.nextInt(ops.length)];
+			String t = Integer.toString(rand.nextInt(20));
+			String src;
+			switch (rand.nextInt(4)) {
+			case 0:
+				src = t + " " + op + " " + v;
+				break;
+			case 1:
+				src = v + " " + op + " " + t + " = true";
+				break;
+			case 2:
+				src = v + " + 1 " + op + " " + t;
+				break;
+			default:
+				src = v + " " + op + " " + t;
+				break;
+			}
+			sources.add(src);
+			rules.add(src);
+		}
+
+		for (int event = 0; event < 200; event++) {
+			JCalculator cal = new JCalculator();
+			for (String v : vars)
+				if (rand.nextInt(5) != 0)
+					cal.setVariable(v, rand.nextInt(22) - 1);
+
+			ArrayList<Integer> expected = new ArrayList<>();
+			for (int i = 0; i < sources.size(); i++) {
+				try {
+					if (cal.eval(sources.get(i)) != 0.0)
+						expected.add(i);
+				} catch (EvalException e) {
+					// Missing variables never match.
+				}
+			}
+
+			int[] actual = rules.match(cal);
+			assertEquals(expected.size(), actual.length);
+			for (int i = 0; i < actual.length; i++)
+				assertEquals((int) expected.get(i), actual[i]);
+		}
+	}
+
+	@Test
+	void testNaN() throws SyntaxException, EvalException {
+		RuleSet rules = new RuleSet();
+		rules.add("x < 1");
+		rules.add("x != 1");
+		rules.add("x = 1");
+		rules.add("y = 1");
+		JCalculator cal = new JCalculator();
+		cal.setVariable("x", Double.NaN);
+		cal.setVariable("y", 1);
+		assertArrayEquals(new int[] { 1, 3 }, rules.match(cal));
+	}
+
+	// Variables from a resolver match like set ones, and ones it
+	// cannot supply never match.
+	@Test
+	void testResolver() throws SyntaxException, EvalException {
+		RuleSet rules = new RuleSet();
+		rules.add("temp > 80");
+		rules.add("temp + load > 100");
+		rules.add("missing < 5");
+		rules.add("missing + temp > 0");
+		rules.add("load >= 20");
+		JCalculator cal = new JCalculator();
+		cal.setVariable("load", 30);
+		int[] calls = new int[1];
+		cal.setResolver((name) -> {
+			calls[0]++;
+			if (name.equals("temp"))
+				return 90;
+			throw new EvalException("No variable '" + name + "' found.");
+		});
+		assertArrayEquals(new int[] { 0, 1, 4 }, rules.match(cal));
+		// Each variable is asked for once per match.
+		assertEquals(2, calls[0]);
+	}
+
+	// The first matches after adding rules, which sort the tables,
+	// can come from many threads at once.
+	@Test
+	void testThreads() throws SyntaxException, InterruptedException {
+		RuleSet rules = new RuleSet();
+		for (int i = 0; i < 500; i++)
+			rules.add((i % 2 == 0 ? "x > " : "x <= ") + i);
+		ArrayList<Thread> threads = new ArrayList<>();
+		AtomicInteger wrong = new AtomicInteger();
+		for (int t = 0; t < 8; t++) {
+			final int x = t * 60;
+			Thread thread = new Thread(() -> {
+				JCalculator cal = new JCalculator();
+				cal.setVariable("x", x);
+				try {
+					int[] ids = rules.match(cal);
+					int expected = 0;
+					for (int i = 0; i < 500; i++)
+						if (i % 2 == 0 ? x > i : x <= i)
+							expected++;
+					if (ids.length != expected)
+						wrong.incrementAndGet();
+				}
+				catch (EvalException e) {
+					wrong.incrementAndGet();
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		assertEquals(0, wrong.get());
+	}
+}
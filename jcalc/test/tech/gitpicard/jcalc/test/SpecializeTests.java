@@ -0,0 +1,111 @@
+package tech.gitpicard.jcalc.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import tech.gitpicard.jcalc.EvalException;
+import tech.gitpicard.jcalc.JCalculator;
+import tech.gitpicard.jcalc.Program;
+import tech.gitpicard.jcalc.SyntaxException;
+
+class SpecializeTests {
+
+	@Test
+	void testResidual() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		String src = "price * (1 + rate) ^ years - fee * qty";
+		Program p = cal.specialize(src,
+				Map.of("rate", 0.05, "years", 3.0, "fee", 2.5));
+		assertEquals(2, p.getVariableCount());
+		cal.setVariable("price", 100);
+		cal.setVariable("qty", 4);
+		assertEquals(100 * Math.pow(1.05, 3) - 10, cal.eval(p));
+
+		// Fixing everything leaves a constant.
+		p = cal.specialize(src, Map.of("rate", 0.05, "years", 3.0,
+				"fee", 2.5, "price", 100.0, "qty", 4.0));
+		assertEquals(0, p.getVariableCount());
+		assertEquals(100 * Math.pow(1.05, 3) - 10, cal.eval(p));
+	}
+
+	@Test
+	void testIdentities() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		// Multiplying by one is dropped, adding zero is not.
+		Program p = cal.specialize("x * a + b", Map.of("a", 1.0, "b", 0.0));
+		cal.setVariable("x", -0.0);
+		assertEquals(0.0, cal.eval(p));
+		assertEquals(Double.doubleToRawLongBits(0.0),
+				Double.doubleToRawLongBits(cal.eval(p)));
+		p = cal.specialize("x * a - b", Map.of("a", 1.0, "b", 0.0));
+		assertEquals(Double.doubleToRawLongBits(-0.0),
+				Double.doubleToRawLongBits(cal.eval(p)));
+	}
+
+	@Test
+	void testCalls() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		int[] calls = new int[1];
+		cal.setFunction("f", (args) -> { calls[0]++; return args[0] + 1; });
+		Program p = cal.specialize("f(a * 2) + x", Map.of("a", 3.0));
+		assertEquals(0, calls[0]);
+		assertEquals(1, p.getVariableCount());
+		assertEquals(1, p.getFunctionCount());
+		cal.setVariable("x", 1);
+		assertEquals(8.0, cal.eval(p));
+		assertEquals(1, calls[0]);
+	}
+
+	// Specializing must never change the result.
+	@Test
+	void testSame() throws SyntaxException, EvalException {
+		String[] sources = { "a + b * c", "(a - b) / (c - d)", "a ^ b % c",
+				"-(-a) * 1 - 0", "1 * a / 1 ^ 1", "!(a < b) + (c = d)",
+				"a * b * c * d", "--a - -b", "(a + b) * (c + d) ^ 0.5" };
+		double[] values = { 0.0, -0.0, 1, -1, 2.5, Double.NaN,
+				Double.POSITIVE_INFINITY, 3 };
+		String[] names = { "a", "b", "c", "d" };
+		Random rand = new Random(11);
+		JCalculator cal = new JCalculator();
+		for (String src : sources) {
+			for (int i = 0; i < 200; i++) {
+				HashMap<String, Double> fixed = new HashMap<>();
+				for (String n : names) {
+					double v = values[rand.nextInt(values.length)];
+					cal.setVariable(n, v);
+					if (rand.nextBoolean())
+						fixed.put(n, v);
+				}
+				double expect = cal.eval(src);
+				double got = cal.eval(cal.specialize(src, fixed));
+				assertEquals(Double.doubleToLongBits(expect),
+						Double.doubleToLongBits(got), src + " " + fixed);
+			}
+		}
+	}
+
+	@Test
+	void testCache() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		HashMap<String, Double> fixed = new HashMap<>();
+		fixed.put("a", 2.0);
+		Program p = cal.specialize("a * x + 1", fixed);
+		assertSame(p, cal.specialize("a * x + 1", Map.of("a", 2.0)));
+		// Changing the map afterwards does not change the cached program.
+		fixed.put("a", 3.0);
+		Program q = cal.specialize("a * x + 1", fixed);
+		assertNotSame(p, q);
+		cal.setVariable("x", 5);
+		assertEquals(11.0, cal.eval(p));
+		assertEquals(16.0, cal.eval(q));
+		assertNotSame(cal.specialize("a * x", Map.of("a", 0.0)),
+				cal.specialize("a * x", Map.of("a", -0.0)));
+		cal.setMaxDepth(100);
+		assertNotSame(q, cal.specialize("a * x + 1", fixed));
+	}
+}
@@ -0,0 +1,146 @@
+package tech.gitpicard.jcalc.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import tech.gitpicard.jcalc.EvalException;
+import tech.gitpicard.jcalc.JCalculator;
+import tech.gitpicard.jcalc.SyntaxException;
+import tech.gitpicard.jcalc.TieredExpression;
+import tech.gitpicard.jcalc.TieredExpression.Tier;
+import tech.gitpicard.jcalc.TieredPolicy;
+
+class TieredTests {
+
+	@Test
+	void testPromote() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		cal.setVariable("x", 2);
+		ArrayList<Runnable> pending = new ArrayList<>();
+		TieredPolicy policy = new TieredPolicy(3, pending::add);
+		TieredExpression e = new TieredExpression(cal, "x ^ 2 + 1", policy);
+		TieredExpression cold = new TieredExpression(cal, "x - 1", policy);
+		assertEquals(Tier.INTERPRETED, e.getTier());
+
+		for (int i = 0; i < 2; i++)
+			assertEquals(5.0, e.eval());
+		assertEquals(Tier.INTERPRETED, e.getTier());
+		assertTrue(pending.isEmpty());
+
+		// Evaluations keep walking the tree until the program is ready.
+		for (int i = 0; i < 5; i++)
+			assertEquals(5.0, e.eval());
+		assertEquals(Tier.COMPILING, e.getTier());
+		assertEquals(1, pending.size());
+		assertNull(e.getProgram());
+		assertEquals(7, e.getInterpretedCount());
+
+		pending.get(0).run();
+		assertEquals(Tier.COMPILED, e.getTier());
+		assertNotNull(e.getProgram());
+		cal.setVariable("x", 3);
+		assertEquals(10.0, e.eval());
+		assertEquals(10.0, e.eval());
+		assertEquals(7, e.getInterpretedCount());
+		assertEquals(2, e.getCompiledCount());
+
+		assertEquals(2.0, cold.eval());
+		assertEquals(Tier.INTERPRETED, cold.getTier());
+		assertEquals(1, policy.getCompiledCount());
+		assertEquals(0, policy.getFailedCount());
+		assertTrue(policy.getCompileTime() > 0);
+	}
+
+	@Test
+	void testRejected() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		boolean[] accept = new boolean[1];
+		TieredPolicy policy = new TieredPolicy(1, (task) -> {
+			if (!accept[0])
+				throw new RejectedExecutionException();
+			task.run();
+		});
+		TieredExpression e = new TieredExpression(cal, "1 + 2", policy);
+		assertEquals(3.0, e.eval());
+		assertEquals(Tier.INTERPRETED, e.getTier());
+		accept[0] = true;
+		assertEquals(3.0, e.eval());
+		assertEquals(Tier.COMPILED, e.getTier());
+		assertEquals(1, policy.getCompiledCount());
+	}
+
+	@Test
+	void testErrors() throws SyntaxException {
+		JCalculator cal = new JCalculator();
+		TieredPolicy policy = new TieredPolicy(1, Runnable::run);
+		TieredExpression e = new TieredExpression(cal, "f(1)", policy);
+		assertThrows(EvalException.class, () -> e.eval());
+		assertEquals(Tier.COMPILED, e.getTier());
+		assertThrows(EvalException.class, () -> e.eval());
+		assertThrows(SyntaxException.class,
+				() -> new TieredExpression(cal, "1 +", policy));
+		assertThrows(IllegalArgumentException.class, () -> new TieredPolicy(0));
+		assertThrows(IllegalArgumentException.class,
+				() -> new TieredExpression(cal, "1", null));
+	}
+
+	// Many threads crossing the threshold at once must compile once
+	// and always get the right answer.
+	@Test
+	void testThreads() throws Exception {
+		JCalculator cal = new JCalculator();
+		cal.setVariable("x", 4);
+		cal.setFunction("sq", (args) -> args[0] * args[0]);
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			TieredPolicy policy = new TieredPolicy(100, pool);
+			TieredExpression e = new TieredExpression(cal, "sq(x) % 5 + x",
+					policy);
+			ArrayList<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < 4; t++)
+				futures.add(pool.submit(() -> {
+					for (int i = 0; i < 20000; i++)
+						assertEquals(5.0, e.eval());
+					return null;
+				}));
+			for (Future<?> f : futures)
+				f.get();
+			assertEquals(80000, e.getInterpretedCount() + e.getCompiledCount());
+			for (int i = 0; i < 1000 && e.getTier() != Tier.COMPILED; i++)
+				Thread.sleep(10);
+			assertEquals(Tier.COMPILED, e.getTier());
+			assertEquals(1, policy.getCompiledCount());
+		}
+		finally {
+			pool.shutdown();
+			pool.awaitTermination(10, TimeUnit.SECONDS);
+		}
+	}
+
+	// Walking the tree must not run out of stack, before or after the
+	// expression is compiled.
+	@Test
+	void testDeep() throws SyntaxException, EvalException {
+		JCalculator cal = new JCalculator();
+		String source = "0" + " + 1".repeat(200000);
+		TieredExpression e = new TieredExpression(cal, source,
+				new TieredPolicy(1000, Runnable::run));
+		assertEquals(200000.0, e.eval());
+		assertEquals(Tier.INTERPRETED, e.getTier());
+
+		e = new TieredExpression(cal, source, new TieredPolicy(2,
+				Runnable::run));
+		assertEquals(200000.0, e.eval());
+		assertEquals(200000.0, e.eval());
+		assertEquals(Tier.COMPILED, e.getTier());
+		assertEquals(200000.0, e.eval());
+	}
+}
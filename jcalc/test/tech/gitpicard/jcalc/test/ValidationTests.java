@@ -0,0 +1,110 @@
+package tech.gitpicard.jcalc.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import tech.gitpicard.jcalc.Diagnostic;
+import tech.gitpicard.jcalc.EvalException;
+import tech.gitpicard.jcalc.JCalculator;
+import tech.gitpicard.jcalc.Lexer;
+import tech.gitpicard.jcalc.SyntaxException;
+import tech.gitpicard.jcalc.Token;
+import tech.gitpicard.jcalc.TokenType;
+import tech.gitpicard.jcalc.Validation;
+
+class ValidationTests {
+
+	List<String> describe(Validation v) {
+		ArrayList<String> out = new ArrayList<>();
+		for (Diagnostic d : v.getDiagnostics())
+			out.add(d.toString());
+		return out;
+	}
+
+	@Test
+	void testValid() throws EvalException {
+		JCalculator cal = new JCalculator();
+		cal.setVariable("x", 2);
+		cal.setFunction("f", (args) -> args[0]);
+		Validation v = cal.validate("f(x) * 3 + x");
+		assertTrue(v.isValid());
+		assertTrue(v.getDiagnostics().isEmpty());
+		assertEquals(8.0, v.getTree().accept(cal));
+	}
+
+	@Test
+	void testAllProblems() {
+		JCalculator cal = new JCalculator();
+		cal.setVariable("x", 2);
+		Validation v = cal.validate("x # y + g(x) $ 2");
+		assertFalse(v.isValid());
+		// Skipping the '#' leaves two operands next to each other.
+		assertEquals(List.of("2: Unidentified token!",
+				"4: Bad expression structure.", "4: No variable 'y' found.",
+				"8: No function 'g' found.", "13: Unidentified token!"),
+				describe(v));
+		assertNull(v.getTree());
+	}
+
+	@Test
+	void testStructure() {
+		JCalculator cal = new JCalculator();
+		assertEquals(List.of("0: Empty expression!"), describe(cal.validate("")));
+		assertEquals(List.of("3: Bad expression structure."),
+				describe(cal.validate("1 +")));
+		assertEquals(List.of("6: Missing ')' token."),
+				describe(cal.validate("(1 + 2")));
+		assertEquals(List.of("2: Bad expression structure."),
+				describe(cal.validate("1 ) + 2")));
+		// A resolver may define any variable.
+		cal.setResolver((name) -> 0);
+		assertTrue(cal.validate("a + b").isValid());
+		// Unknown names do not stop the tree from being returned.
+		assertNotNull(cal.validate("f(a)").getTree());
+	}
+
+	@Test
+	void testRecovery() {
+		JCalculator cal = new JCalculator();
+		cal.setVariable("x", 2);
+		cal.setFunction("f", (args) -> args[0]);
+		assertEquals(List.of("5: Bad expression structure.",
+				"11: Bad expression structure.", "18: Missing ')' token."),
+				describe(cal.validate("f(1 +, x * ) + (x x) + 3")));
+		// Parenthesis inside the skipped part are matched up.
+		assertEquals(List.of("9: Bad expression structure.",
+				"14: No closing ')' found.", "21: Bad expression structure."),
+				describe(cal.validate("f(1, (2 +), 3 4) + 5 6")));
+		// A stray ')' skips to the end.
+		assertEquals(List.of("2: Bad expression structure."),
+				describe(cal.validate("1 ) + (2 * * 3")));
+		assertEquals(List.of("5: Bad expression structure."),
+				describe(cal.validate("f(1 +")));
+		Validation v = cal.validate("(1 +) + (2 *)");
+		assertEquals(List.of("4: Bad expression structure.",
+				"12: Bad expression structure."), describe(v));
+		assertNull(v.getTree());
+	}
+
+	@Test
+	void testOffsets() throws SyntaxException {
+		Lexer lex = new Lexer("  ab <= 12.5");
+		Token t = lex.advance();
+		assertEquals(2, t.getOffset());
+		assertEquals(5, lex.advance().getOffset());
+		assertEquals(8, lex.advance().getOffset());
+		t = lex.advance();
+		assertEquals(TokenType.EOF, t.getType());
+		assertEquals(12, t.getOffset());
+		SyntaxException e = assertThrows(SyntaxException.class, () ->
+			new JCalculator().eval("1 + (2 * 3"));
+		assertEquals(10, e.getOffset());
+		e = assertThrows(SyntaxException.class, () ->
+			new JCalculator().eval("1 + ?"));
+		assertEquals(4, e.getOffset());
+	}
+}